@@ -0,0 +1,11 @@
+#!/bin/sh
+# Собирает библиотеку и бенчмарки, затем запускает JMH.
+# Аргументы передаются JMH, например: ./jmh/run.sh 'ClonerBenchmarks.flatPojo' -f 1
+set -e
+
+cd "$(dirname "$0")/.."
+
+mvn -B -q install -DskipTests
+mvn -B -q -f jmh/pom.xml package
+
+java -jar jmh/target/benchmarks.jar -prof gc -rf json -rff jmh/target/results.json "$@"
@@ -0,0 +1,94 @@
+package deepclone;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.IdentityHashMap;
+import java.util.concurrent.TimeUnit;
+
+//Лежит в пакете deepclone, потому что IdentityTable package-private.
+//Моделирует работу таблицы клонов на графе из 500k узлов:
+//на каждый узел один поиск и одна вставка
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgs = { "-Xms2g", "-Xmx2g" })
+@State(Scope.Benchmark)
+public class IdentityTableBenchmarks {
+    private static final int nodes = 500_000;
+
+    private Object[] keys;
+    private IdentityTable reusedTable;
+
+    @Setup
+    public void createKeys() {
+        keys = new Object[nodes];
+
+        for (int i = 0; i < nodes; ++i) {
+            keys[i] = new Object();
+        }
+
+        reusedTable = new IdentityTable(nodes);
+    }
+
+    @Benchmark
+    public int identityHashMap() {
+        IdentityHashMap<Object, Object> map = new IdentityHashMap<>();
+
+        for (Object k : keys) {
+            if (map.get(k) == null) {
+                map.put(k, k);
+            }
+        }
+
+        return map.size();
+    }
+
+    @Benchmark
+    public int identityHashMapPresized() {
+        IdentityHashMap<Object, Object> map = new IdentityHashMap<>(nodes);
+
+        for (Object k : keys) {
+            if (map.get(k) == null) {
+                map.put(k, k);
+            }
+        }
+
+        return map.size();
+    }
+
+    @Benchmark
+    public int identityTable() {
+        IdentityTable table = new IdentityTable(0);
+
+        for (Object k : keys) {
+            if (table.get(k) == null) {
+                table.put(k, k);
+            }
+        }
+
+        return table.size();
+    }
+
+    @Benchmark
+    public int identityTableReused() {
+        reusedTable.clear();
+
+        for (Object k : keys) {
+            if (reusedTable.get(k) == null) {
+                reusedTable.put(k, k);
+            }
+        }
+
+        return reusedTable.size();
+    }
+}
@@ -0,0 +1,68 @@
+package deepclone.jmh;
+
+import deepclone.Cloner;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+//Задержка маленьких клонирований, пока рядом идут большие:
+//синхронный deepClone против deepCloneAsync с исполнителем
+//по умолчанию. Смотреть на перцентили small
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgs = { "-Xms2g", "-Xmx2g" })
+@State(Scope.Group)
+public class AsyncCloneBenchmarks {
+    private final Cloner cloner = new Cloner();
+
+    private List<Shapes.FlatPojo> large;
+    private List<Shapes.FlatPojo> small;
+
+    @Setup
+    public void createGraphs() {
+        large = Shapes.arrayList(100_000);
+        small = Shapes.arrayList(10);
+    }
+
+    @Benchmark
+    @Group("sync")
+    @GroupThreads(1)
+    public Object syncLarge() throws IllegalAccessException {
+        return cloner.deepClone(large);
+    }
+
+    @Benchmark
+    @Group("sync")
+    @GroupThreads(3)
+    public Object syncSmall() throws IllegalAccessException {
+        return cloner.deepClone(small);
+    }
+
+    @Benchmark
+    @Group("async")
+    @GroupThreads(1)
+    public Object asyncLarge() {
+        return cloner.deepCloneAsync(large).join();
+    }
+
+    @Benchmark
+    @Group("async")
+    @GroupThreads(3)
+    public Object asyncSmall() {
+        return cloner.deepCloneAsync(small).join();
+    }
+}
@@ -0,0 +1,47 @@
+package deepclone.jmh;
+
+import deepclone.Cloner;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+//Копия состояния той же формы на каждом тике: новый граф
+//или перезапись прошлой копии
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgs = { "-Xms2g", "-Xmx2g" })
+@State(Scope.Benchmark)
+public class CloneIntoBenchmarks {
+    private final Cloner cloner = new Cloner();
+
+    private List<Shapes.FlatPojo> state;
+    private List<Shapes.FlatPojo> copy;
+
+    @Setup
+    public void createState() throws IllegalAccessException {
+        state = Shapes.arrayList(1_000);
+        copy = cloner.deepClone(state);
+    }
+
+    @Benchmark
+    public Object deepClone() throws IllegalAccessException {
+        return cloner.deepClone(state);
+    }
+
+    @Benchmark
+    public Object cloneInto() throws IllegalAccessException {
+        return cloner.cloneInto(state, copy);
+    }
+}
@@ -0,0 +1,84 @@
+package deepclone.jmh;
+
+import deepclone.Cloner;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgs = { "-Xms2g", "-Xmx2g" })
+@State(Scope.Benchmark)
+public class ClonerBenchmarks {
+    private Shapes.FlatPojo flatPojo;
+    private Shapes.C inheritanceChain;
+    private double[] primitiveArray;
+    private List<Shapes.FlatPojo> arrayList;
+    private List<Shapes.FlatPojo> linkedList;
+    private Shapes.Node cyclicGraph;
+    private Shapes.Node[] sharedDag;
+
+    @Setup
+    public void createShapes() {
+        flatPojo = new Shapes.FlatPojo(42);
+        inheritanceChain = new Shapes.C();
+        primitiveArray = Shapes.primitiveArray(65_536);
+        arrayList = Shapes.arrayList(1_000);
+        linkedList = Shapes.linkedList(1_000);
+        cyclicGraph = Shapes.cyclicGraph(1_000);
+        sharedDag = Shapes.sharedDag(1_000, 50);
+    }
+
+    private final Cloner cloner = new Cloner();
+
+    private <T> T deepClone(T original) throws IllegalAccessException {
+        return cloner.deepClone(original);
+    }
+
+    @Benchmark
+    public Object flatPojo() throws IllegalAccessException {
+        return deepClone(flatPojo);
+    }
+
+    @Benchmark
+    public Object inheritanceChain() throws IllegalAccessException {
+        return deepClone(inheritanceChain);
+    }
+
+    @Benchmark
+    public Object primitiveArray() throws IllegalAccessException {
+        return deepClone(primitiveArray);
+    }
+
+    @Benchmark
+    public Object arrayListOfPojos() throws IllegalAccessException {
+        return deepClone(arrayList);
+    }
+
+    @Benchmark
+    public Object linkedListOfPojos() throws IllegalAccessException {
+        return deepClone(linkedList);
+    }
+
+    @Benchmark
+    public Object cyclicGraph() throws IllegalAccessException {
+        return deepClone(cyclicGraph);
+    }
+
+    @Benchmark
+    public Object sharedDag() throws IllegalAccessException {
+        return deepClone(sharedDag);
+    }
+}
@@ -0,0 +1,64 @@
+package deepclone.jmh;
+
+import deepclone.Cloner;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+//Запись графа в переиспользуемый буфер и чтение обратно
+//в сравнении с обычным клонированием
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgs = { "-Xms2g", "-Xmx2g" })
+@State(Scope.Benchmark)
+public class CodecBenchmarks {
+    @Param({ "heap", "direct" })
+    public String buffer;
+
+    private final Cloner cloner = new Cloner();
+
+    private List<Shapes.FlatPojo> list;
+    private ByteBuffer target;
+    private ByteBuffer encoded;
+
+    @Setup
+    public void encodeOnce() throws IllegalAccessException {
+        list = Shapes.arrayList(10_000);
+
+        target = buffer.equals("direct")
+            ? ByteBuffer.allocateDirect(1 << 20)
+            : ByteBuffer.allocate(1 << 20);
+
+        encoded = cloner.encode(list, target.clear()).flip();
+        target = encoded.duplicate().clear();
+    }
+
+    @Benchmark
+    public Object deepClone() throws IllegalAccessException {
+        return cloner.deepClone(list);
+    }
+
+    @Benchmark
+    public ByteBuffer encode() throws IllegalAccessException {
+        return cloner.encode(list, target.clear());
+    }
+
+    @Benchmark
+    public Object decode() throws IllegalAccessException {
+        return cloner.decode(encoded.rewind());
+    }
+}
@@ -0,0 +1,54 @@
+package deepclone.jmh;
+
+import deepclone.Cloner;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+//Клон "на всякий случай": сделать и выбросить или прочитать немного
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgs = { "-Xms2g", "-Xmx2g" })
+@State(Scope.Benchmark)
+public class LazyCloneBenchmarks {
+    private final Cloner cloner = new Cloner();
+
+    private Shapes.Ledger ledger;
+
+    @Setup
+    public void createLedger() {
+        ledger = new Shapes.SimpleLedger(10_000);
+    }
+
+    @Benchmark
+    public Object eagerCloneThenDiscard() throws IllegalAccessException {
+        return cloner.deepClone(ledger);
+    }
+
+    @Benchmark
+    public Object lazyCloneThenDiscard() {
+        return cloner.lazyClone(ledger, Shapes.Ledger.class);
+    }
+
+    @Benchmark
+    public long lazyCloneThenReadTotal() {
+        return cloner.lazyClone(ledger, Shapes.Ledger.class).total();
+    }
+
+    //Худший случай: затронут весь граф
+    @Benchmark
+    public int lazyCloneThenReadAll() {
+        return cloner.lazyClone(ledger, Shapes.Ledger.class).entries().size();
+    }
+}
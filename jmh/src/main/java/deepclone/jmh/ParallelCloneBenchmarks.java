@@ -0,0 +1,74 @@
+package deepclone.jmh;
+
+import deepclone.Cloner;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+//Масштабирование параллельного режима по числу потоков.
+//threads = 0 - обычный последовательный Cloner для сравнения
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = { "-Xms8g", "-Xmx8g" })
+@State(Scope.Benchmark)
+public class ParallelCloneBenchmarks {
+    @Param({ "0", "1", "2", "4", "8", "16", "32" })
+    public int threads;
+
+    @Param({ "10000" })
+    public int threshold;
+
+    private ForkJoinPool pool;
+    private Cloner cloner;
+
+    private List<Shapes.FlatPojo> pojos;
+    private Shapes.Node[] sharedDag;
+
+    @Setup
+    public void createCloner() {
+        if (threads == 0) {
+            cloner = new Cloner();
+        }
+        else {
+            pool = new ForkJoinPool(threads);
+            cloner = Cloner.builder()
+                .parallel(pool, threshold)
+                .build();
+        }
+
+        pojos = Shapes.arrayList(2_000_000);
+        sharedDag = Shapes.sharedDag(1_000_000, 10_000);
+    }
+
+    @TearDown
+    public void shutdownPool() {
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+
+    @Benchmark
+    public Object arrayListOfPojos() throws IllegalAccessException {
+        return cloner.deepClone(pojos);
+    }
+
+    @Benchmark
+    public Object sharedDag() throws IllegalAccessException {
+        return cloner.deepClone(sharedDag);
+    }
+}
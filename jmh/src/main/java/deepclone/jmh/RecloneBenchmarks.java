@@ -0,0 +1,72 @@
+package deepclone.jmh;
+
+import deepclone.Cloner;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+//Периодический снимок большого графа, в котором между снимками
+//меняется 0.1% объектов: 10 из 10 000
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgs = { "-Xms2g", "-Xmx2g" })
+@State(Scope.Benchmark)
+public class RecloneBenchmarks {
+    private static final int groups = 100;
+    private static final int groupSize = 100;
+    private static final int changesPerSnapshot = 10;
+
+    private final Cloner cloner = new Cloner();
+
+    private Shapes.FlatPojo[][] config;
+    private Shapes.FlatPojo[][] snapshot;
+    private int next = 0;
+
+    @Setup
+    public void createConfig() throws IllegalAccessException {
+        config = new Shapes.FlatPojo[groups][groupSize];
+
+        for (int g = 0; g < groups; ++g) {
+            for (int i = 0; i < groupSize; ++i) {
+                config[g][i] = new Shapes.FlatPojo(g * groupSize + i);
+            }
+        }
+
+        snapshot = cloner.deepClone(config);
+    }
+
+    //Изменения разбросаны по разным группам
+    private void change() {
+        for (int i = 0; i < changesPerSnapshot; ++i) {
+            next = (next + 7919) % (groups * groupSize);
+            config[next % groups][next / groups].price += 1;
+        }
+    }
+
+    @Benchmark
+    public Object fullClone() throws IllegalAccessException {
+        change();
+        snapshot = cloner.deepClone(config);
+
+        return snapshot;
+    }
+
+    @Benchmark
+    public Object reclone() throws IllegalAccessException {
+        change();
+        snapshot = cloner.reclone(config, snapshot);
+
+        return snapshot;
+    }
+}
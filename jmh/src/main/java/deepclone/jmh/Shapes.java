@@ -0,0 +1,163 @@
+package deepclone.jmh;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+//Типичные формы графов объектов для бенчмарков
+public final class Shapes {
+    private Shapes() { }
+
+    public static class FlatPojo {
+        int id;
+        long timestamp;
+        double price;
+        double quantity;
+        boolean active;
+        char side;
+        String symbol;
+        String venue;
+        Integer version;
+        Long sequence;
+
+        public FlatPojo(int id) {
+            this.id = id;
+            this.timestamp = 1_700_000_000_000L + id;
+            this.price = 100.25 + id;
+            this.quantity = id * 10;
+            this.active = id % 2 == 0;
+            this.side = id % 2 == 0 ? 'B' : 'S';
+            this.symbol = "SYM" + id % 16;
+            this.venue = "XNAS";
+            this.version = id % 100;
+            this.sequence = (long)id;
+        }
+    }
+
+    //Как ClonerTests.AccessModifiersAndInheritance.C
+    public static class A {
+        private int aPrivate = 10;
+        protected int aProtected = 10;
+        int aPackagePrivate = 10;
+        public int aPublic = 10;
+    }
+
+    public static class B extends A {
+        private boolean bPrivate = true;
+        protected boolean bProtected = true;
+        boolean bPackagePrivate = true;
+        public boolean bPublic = true;
+    }
+
+    public static class C extends B {
+        private String cPrivate = "Hello";
+        protected String cProtected = "Hello";
+        String cPackagePrivate = "Hello";
+        public String cPublic = "Hello";
+    }
+
+    public static class Node {
+        int value;
+        Node next;
+        Node previous;
+        Node[] links;
+
+        Node(int value) {
+            this.value = value;
+        }
+    }
+
+    public interface Ledger {
+        long total();
+
+        List<FlatPojo> entries();
+    }
+
+    public static class SimpleLedger implements Ledger {
+        long total;
+        List<FlatPojo> entries;
+
+        SimpleLedger(int size) {
+            entries = arrayList(size);
+            total = size;
+        }
+
+        @Override
+        public long total() {
+            return total;
+        }
+
+        @Override
+        public List<FlatPojo> entries() {
+            return entries;
+        }
+    }
+
+    public static double[] primitiveArray(int length) {
+        double[] array = new double[length];
+
+        for (int i = 0; i < length; ++i) {
+            array[i] = i * 0.5;
+        }
+
+        return array;
+    }
+
+    public static List<FlatPojo> arrayList(int size) {
+        List<FlatPojo> list = new ArrayList<>(size);
+
+        for (int i = 0; i < size; ++i) {
+            list.add(new FlatPojo(i));
+        }
+
+        return list;
+    }
+
+    public static List<FlatPojo> linkedList(int size) {
+        return new LinkedList<>(arrayList(size));
+    }
+
+    //Двусвязное кольцо: каждый узел достижим по циклу в обе стороны
+    public static Node cyclicGraph(int size) {
+        Node head = new Node(0);
+        Node tail = head;
+
+        for (int i = 1; i < size; ++i) {
+            Node n = new Node(i);
+
+            n.previous = tail;
+            tail.next = n;
+            tail = n;
+        }
+
+        tail.next = head;
+        head.previous = tail;
+
+        return head;
+    }
+
+    //Много узлов ссылаются на небольшой общий набор узлов
+    public static Node[] sharedDag(int size, int sharedSize) {
+        Node[] shared = new Node[sharedSize];
+
+        for (int i = 0; i < sharedSize; ++i) {
+            shared[i] = new Node(-i);
+        }
+
+        Node[] roots = new Node[size];
+
+        for (int i = 0; i < size; ++i) {
+            Node n = new Node(i);
+
+            n.links = new Node[] {
+                shared[i % sharedSize],
+                shared[(i * 7 + 3) % sharedSize],
+                shared[(i * 13 + 5) % sharedSize]
+            };
+
+            roots[i] = n;
+        }
+
+        return roots;
+    }
+}
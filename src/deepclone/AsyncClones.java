@@ -0,0 +1,437 @@
+package deepclone;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+//Асинхронные клонирования Cloner.deepCloneAsync. Каждое клонирование -
+//отдельная задача executor; одновременно идут не больше concurrency
+//клонирований, остальные ждут разрешения уже в своем потоке, поэтому
+//вызывающий поток не блокируется.
+//
+//Раз в checkInterval заполненных клонов задача проверяет отмену
+//и уступает разрешение ждущим клонированиям, а если их нет и она
+//работает в виртуальном потоке - несущий поток другим виртуальным
+//потокам. Так обход большого графа не задерживает маленькие
+//клонирования и остальные задачи на тех же несущих потоках.
+//
+//Память клона оценивается по оригиналу до того, как клон создан,
+//вместе с содержимым массивов и коллекций: большой массив примитивов
+//копируется одним клоном без заполнений. Оценка резервируется
+//в общем бюджете, как только накопится MemoryBudget.step байт.
+//
+//Параллельный режим и статистика слушателя для асинхронных
+//клонирований не используются
+final class AsyncClones {
+    private static final int checkInterval = 1024;
+
+    //Thread.isVirtual появился в Java 21; на более старых JDK null
+    private static final MethodHandle isVirtual = findIsVirtual();
+
+    private final Cloner cloner;
+
+    //null - исполнитель по умолчанию, см. DefaultExecutor
+    private final Executor executor;
+    private final int concurrency;
+
+    //Пул по умолчанию на JDK без виртуальных потоков; создается
+    //при первом асинхронном клонировании
+    private ExecutorService pool;
+
+    private final Semaphore running;
+
+    //null, если бюджет памяти не ограничен
+    private final MemoryBudget budget;
+
+    AsyncClones(Cloner cloner, Executor executor, int concurrency, long memoryBudget) {
+        this.cloner = cloner;
+        this.executor = executor;
+        this.concurrency = concurrency;
+
+        running = new Semaphore(concurrency, true);
+        budget = memoryBudget != Long.MAX_VALUE ? new MemoryBudget(memoryBudget) : null;
+    }
+
+    <T> CompletableFuture<T> submit(T original) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        Task<T> task = new Task<>(original, future);
+
+        //Отмена прерывает ожидание разрешения или бюджета, а обход
+        //графа останавливается на ближайшей проверке
+        future.whenComplete((clone, e) -> {
+            if (future.isCancelled()) {
+                task.interrupt();
+            }
+        });
+
+        try {
+            executor().execute(task);
+        }
+        catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+
+        return future;
+    }
+
+    private Executor executor() {
+        if (executor != null) {
+            return executor;
+        }
+
+        if (DefaultExecutor.virtual != null) {
+            return DefaultExecutor.virtual;
+        }
+
+        synchronized (this) {
+            if (pool == null) {
+                pool = DefaultExecutor.pool(concurrency);
+            }
+
+            return pool;
+        }
+    }
+
+    private static MethodHandle findIsVirtual() {
+        try {
+            return MethodHandles.publicLookup().findVirtual(
+                Thread.class,
+                "isVirtual",
+                MethodType.methodType(boolean.class)
+            );
+        }
+        catch (NoSuchMethodException | IllegalAccessException e) {
+            return null;
+        }
+    }
+
+    private static boolean inVirtualThread() {
+        if (isVirtual == null) {
+            return false;
+        }
+
+        try {
+            return (boolean)isVirtual.invokeExact(Thread.currentThread());
+        }
+        catch (Throwable e) {
+            throw new AssertionError("Этого никогда не должно было произойти. Время отладки!", e);
+        }
+    }
+
+    //Виртуальный поток на задачу, если JDK их поддерживает: общий для
+    //всех Cloner и создается при первом асинхронном клонировании.
+    //Иначе у каждого Cloner свой пул из concurrency потоков-демонов
+    //с очередью: задача, ждущая разрешения, занимает поток, поэтому
+    //пул без предела создал бы поток на каждое клонирование в очереди
+    private static final class DefaultExecutor {
+        //null, если виртуальных потоков нет
+        static final ExecutorService virtual = createVirtual();
+
+        private static ExecutorService createVirtual() {
+            try {
+                return (ExecutorService)Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor")
+                    .invoke(null);
+            }
+            //До Java 21 метода нет или виртуальные потоки в preview
+            catch (ReflectiveOperationException e) {
+                return null;
+            }
+        }
+
+        //Простаивающие потоки завершаются, и пул забытого Cloner
+        //собирается сборщиком мусора
+        static ExecutorService pool(int threads) {
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(
+                threads,
+                threads,
+                60,
+                TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                r -> {
+                    Thread thread = new Thread(r, "deepclone-async");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            );
+
+            pool.allowCoreThreadTimeOut(true);
+
+            return pool;
+        }
+    }
+
+    private final class Task<T> implements Runnable {
+        private final T original;
+        private final CompletableFuture<T> future;
+
+        //Поток, в котором идет клонирование; защищен this, чтобы
+        //отмена не прервала поток, который уже взял другую задачу
+        private Thread runner;
+
+        Task(T original, CompletableFuture<T> future) {
+            this.original = original;
+            this.future = future;
+        }
+
+        @Override
+        public void run() {
+            synchronized (this) {
+                if (future.isDone()) {
+                    return;
+                }
+
+                runner = Thread.currentThread();
+            }
+
+            try {
+                future.complete(deepClone());
+            }
+            catch (Throwable e) {
+                //После отмены ничего не меняет
+                future.completeExceptionally(e);
+            }
+            finally {
+                synchronized (this) {
+                    runner = null;
+                }
+
+                if (future.isCancelled()) {
+                    Thread.interrupted();
+                }
+            }
+        }
+
+        synchronized void interrupt() {
+            if (runner != null) {
+                runner.interrupt();
+            }
+        }
+
+        private T deepClone() throws IllegalAccessException, InterruptedException {
+            Scope scope = new Scope(future);
+            scope.enter();
+
+            //Возраст клонирования для бюджета считается с момента,
+            //когда оно получило разрешение
+            scope.ticket = budget != null ? budget.register() : 0;
+
+            try {
+                @SuppressWarnings("unchecked")
+                T clone = (T)scope.deepClone(original, false);
+
+                return clone;
+            }
+            finally {
+                scope.leave();
+
+                if (budget != null) {
+                    budget.release(scope.ticket, scope.reserved);
+                }
+            }
+        }
+    }
+
+    //Разрешение running держит только работающее клонирование: оно
+    //отдает разрешение ждущим на каждой проверке и на время ожидания
+    //бюджета. Поэтому большой граф не задерживает очередь дольше
+    //одного интервала проверки, а ожидание бюджета не занимает место
+    //клонирований, которых бюджет ждет
+    private final class Scope extends CloneScope {
+        private final CompletableFuture<?> future;
+        private final boolean yields;
+
+        private long ticket = 0;
+        private boolean permitted = false;
+        private int fills = 0;
+
+        //Оценка памяти клонов: зарезервированная в бюджете и еще нет
+        private long reserved = 0;
+        private long unreserved = 0;
+
+        Scope(CompletableFuture<?> future) {
+            super(cloner);
+
+            this.future = future;
+
+            yields = inVirtualThread();
+        }
+
+        void enter() throws InterruptedException {
+            running.acquire();
+            permitted = true;
+        }
+
+        void leave() {
+            if (permitted) {
+                permitted = false;
+                running.release();
+            }
+        }
+
+        @Override
+        public Object cloneReference(Object original) {
+            if (budget != null && original != null && isNewClone(original)) {
+                unreserved += estimatedSize(original);
+
+                if (unreserved >= budget.step) {
+                    reserve();
+                }
+            }
+
+            return super.cloneReference(original);
+        }
+
+        private boolean isNewClone(Object original) {
+            Copier copier = cloner().copierOf(original.getClass());
+
+            return copier != Copiers.SHARE &&
+                copier != Copiers.NULL_OUT &&
+                (tree || existingClone(original) == null);
+        }
+
+        @Override
+        void drainPending() throws IllegalAccessException {
+            while (!pending.isEmpty()) {
+                Object original = pending.pop();
+                Object clone = pending.pop();
+                Copier copier = (Copier)pending.pop();
+
+                copier.fill(original, clone, this);
+
+                if (++fills == checkInterval) {
+                    checkpoint();
+                }
+            }
+        }
+
+        private void checkpoint() {
+            fills = 0;
+
+            if (future.isCancelled()) {
+                throw new CancellationException("Клонирование отменено");
+            }
+
+            try {
+                //Семафор справедливый: разрешение получит ждущий,
+                //а это клонирование встанет в конец очереди
+                if (running.hasQueuedThreads()) {
+                    leave();
+                    enter();
+                }
+                else if (yields) {
+                    Thread.yield();
+                }
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CancellationException("Клонирование прервано");
+            }
+        }
+
+        private void reserve() {
+            if (future.isCancelled()) {
+                throw new CancellationException("Клонирование отменено");
+            }
+
+            try {
+                if (!budget.tryReserve(ticket, unreserved)) {
+                    leave();
+                    budget.reserve(ticket, unreserved);
+                }
+
+                reserved += unreserved;
+                unreserved = 0;
+
+                if (!permitted) {
+                    enter();
+                }
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CancellationException("Клонирование прервано");
+            }
+        }
+    }
+
+    //Клон того же класса и длины, что и оригинал. Коллекции, которые
+    //копируются целиком, добавляют ссылку на каждый элемент, а словари -
+    //еще и запись
+    private static long estimatedSize(Object original) {
+        long size = MeteredScope.shallowSize(original);
+
+        if (original instanceof Collection<?> collection) {
+            size += collection.size() * 8L;
+        }
+        else if (original instanceof Map<?, ?> map) {
+            size += map.size() * 40L;
+        }
+
+        return size;
+    }
+
+    //Бюджет памяти, общий для клонирований одного Cloner. Память
+    //клона считается занятой, пока клонирование не закончится.
+    //Старейшее из идущих клонирований не ждет никогда, даже если бюджет
+    //исчерпан: иначе клонирования, занявшие каждое часть бюджета,
+    //ждали бы друг друга вечно. Граф больше бюджета клонируется, когда
+    //до него доходит очередь
+    private static final class MemoryBudget {
+        private final long limit;
+
+        //Сколько байт клонирование копит перед резервированием
+        final long step;
+        private final TreeSet<Long> active = new TreeSet<>();
+
+        private long used = 0;
+        private long nextTicket = 0;
+
+        MemoryBudget(long limit) {
+            this.limit = limit;
+
+            step = Math.max(1, Math.min(64 << 10, limit / 16));
+        }
+
+        synchronized long register() {
+            long ticket = nextTicket++;
+            active.add(ticket);
+
+            return ticket;
+        }
+
+        synchronized boolean tryReserve(long ticket, long bytes) {
+            if (used + bytes > limit && active.first() != ticket) {
+                return false;
+            }
+
+            used += bytes;
+            return true;
+        }
+
+        synchronized void reserve(long ticket, long bytes) throws InterruptedException {
+            while (!tryReserve(ticket, bytes)) {
+                wait();
+            }
+        }
+
+        synchronized void release(long ticket, long bytes) {
+            active.remove(ticket);
+            used -= bytes;
+
+            notifyAll();
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package deepclone;
+
+//Статистика клонирования объектов одного класса.
+//Геттеры пригодны для MXBean, см. CloneMetrics
+public final class ClassCloneStats {
+    private final Class<?> type;
+
+    long cloned;
+    long shared;
+    long identityHits;
+    long estimatedBytes;
+    long nanos;
+
+    ClassCloneStats(Class<?> type) {
+        this.type = type;
+    }
+
+    public Class<?> type() {
+        return type;
+    }
+
+    public String getTypeName() {
+        return type.getName();
+    }
+
+    //Создано клонов
+    public long getCloned() {
+        return cloned;
+    }
+
+    //Ссылок, перенесенных в клон как есть: неизменяемые объекты
+    //и стратегия CloneStrategy.share(). Неизменяемые значения в
+    //final-полях, массивах и коллекциях копируются без проверки
+    //каждого значения и здесь не учитываются
+    public long getShared() {
+        return shared;
+    }
+
+    //Повторных ссылок на уже склонированный объект: общие ссылки и циклы
+    public long getIdentityHits() {
+        return identityHits;
+    }
+
+    //Оценка размера клонов без вложенных объектов: заголовок 12 байт,
+    //ссылки по 4 байта, выравнивание по 8
+    public long getEstimatedBytes() {
+        return estimatedBytes;
+    }
+
+    //Время заполнения клонов, включая создание (но не заполнение)
+    //клонов объектов, на которые они ссылаются
+    public long getNanos() {
+        return nanos;
+    }
+
+    void add(ClassCloneStats other) {
+        cloned += other.cloned;
+        shared += other.shared;
+        identityHits += other.identityHits;
+        estimatedBytes += other.estimatedBytes;
+        nanos += other.nanos;
+    }
+
+    ClassCloneStats copy() {
+        ClassCloneStats copy = new ClassCloneStats(type);
+        copy.add(this);
+
+        return copy;
+    }
+
+    @Override
+    public String toString() {
+        return getTypeName() +
+            ": cloned=" + cloned +
+            ", shared=" + shared +
+            ", identityHits=" + identityHits +
+            ", estimatedBytes=" + estimatedBytes +
+            ", nanos=" + nanos;
+    }
+}
@@ -0,0 +1,7 @@
+package deepclone;
+
+public interface CloneContext {
+    //Возвращает клон original в рамках текущего клонирования.
+    //Поля возвращенного клона могут быть заполнены позже
+    Object cloneReference(Object original);
+}
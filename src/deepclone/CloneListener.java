@@ -0,0 +1,14 @@
+package deepclone;
+
+import java.util.List;
+
+//Получает статистику каждого клонирования: один вызов на deepClone,
+//deepCloneTree, reclone, deepCloneAll или на каждый корень потока
+//deepCloneAll, в потоке, который клонировал.
+//Без зарегистрированного слушателя статистика не собирается
+@FunctionalInterface
+public interface CloneListener {
+    //stats - по одной записи на каждый встреченный класс;
+    //записи принадлежат слушателю и больше не меняются
+    void cloned(List<ClassCloneStats> stats);
+}
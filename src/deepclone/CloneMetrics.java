@@ -0,0 +1,73 @@
+package deepclone;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+//Слушатель, который суммирует статистику всех клонирований
+//и показывает ее через JMX:
+//
+//    CloneMetrics metrics = new CloneMetrics();
+//    Cloner cloner = Cloner.builder().listener(metrics).build();
+//    metrics.register("orders");
+public final class CloneMetrics implements CloneListener, CloneMetricsMXBean {
+    private final Map<Class<?>, ClassCloneStats> totals = new HashMap<>();
+    private long cloneCount = 0;
+
+    @Override
+    public synchronized void cloned(List<ClassCloneStats> stats) {
+        for (ClassCloneStats s : stats) {
+            totals.computeIfAbsent(s.type(), ClassCloneStats::new).add(s);
+        }
+
+        ++cloneCount;
+    }
+
+    @Override
+    public List<ClassCloneStats> getClassStats() {
+        List<ClassCloneStats> result = new ArrayList<>();
+
+        synchronized (this) {
+            for (ClassCloneStats s : totals.values()) {
+                result.add(s.copy());
+            }
+        }
+
+        result.sort(Comparator.comparingLong(ClassCloneStats::getNanos).reversed());
+
+        return result;
+    }
+
+    @Override
+    public synchronized long getCloneCount() {
+        return cloneCount;
+    }
+
+    @Override
+    public synchronized void reset() {
+        totals.clear();
+        cloneCount = 0;
+    }
+
+    //Регистрирует MXBean deepclone:type=CloneMetrics,name=<name>
+    //в платформенном MBeanServer
+    public ObjectName register(String name) {
+        try {
+            ObjectName objectName = new ObjectName(
+                "deepclone:type=CloneMetrics,name=" + ObjectName.quote(name)
+            );
+
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+
+            return objectName;
+        }
+        catch (JMException e) {
+            throw new IllegalStateException("Не удалось зарегистрировать CloneMetrics " + name, e);
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package deepclone;
+
+import java.util.List;
+
+public interface CloneMetricsMXBean {
+    //Сначала классы, на которые ушло больше всего времени
+    List<ClassCloneStats> getClassStats();
+
+    long getCloneCount();
+
+    void reset();
+}
@@ -0,0 +1,252 @@
+package deepclone;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+final class ClonePlan {
+    private static final ClassValue<ClonePlan> plans = new ClassValue<>() {
+        @Override
+        protected ClonePlan computeValue(Class<?> c) {
+            return new ClonePlan(c);
+        }
+    };
+
+    enum Kind {
+        PRIMITIVE,
+        IMMUTABLE,
+        REFERENCE
+    }
+
+    private enum Primitive {
+        BOOLEAN,
+        CHAR,
+        BYTE,
+        SHORT,
+        INT,
+        LONG,
+        FLOAT,
+        DOUBLE;
+
+        static Primitive of(Class<?> type) {
+            return Primitive.valueOf(type.getName().toUpperCase(Locale.ROOT));
+        }
+    }
+
+    static final class PlannedField {
+        final Field field;
+        final Kind kind;
+
+        private final Primitive primitive;
+
+        PlannedField(Field field, Kind kind) {
+            this.field = field;
+            this.kind = kind;
+
+            primitive = kind == Kind.PRIMITIVE
+                ? Primitive.of(field.getType())
+                : null;
+        }
+
+        void copy(Object original, Object clone, CloneContext context)
+            throws IllegalAccessException
+        {
+            switch (kind) {
+                case PRIMITIVE -> copyPrimitive(original, clone);
+                case IMMUTABLE -> field.set(clone, field.get(original));
+                case REFERENCE -> field.set(
+                    clone,
+                    context.cloneReference(field.get(original))
+                );
+            }
+        }
+
+        //Типизированные get/set не упаковывают значение в обертку
+        void copyPrimitive(Object original, Object clone)
+            throws IllegalAccessException
+        {
+            switch (primitive) {
+                case BOOLEAN -> field.setBoolean(clone, field.getBoolean(original));
+                case CHAR -> field.setChar(clone, field.getChar(original));
+                case BYTE -> field.setByte(clone, field.getByte(original));
+                case SHORT -> field.setShort(clone, field.getShort(original));
+                case INT -> field.setInt(clone, field.getInt(original));
+                case LONG -> field.setLong(clone, field.getLong(original));
+                case FLOAT -> field.setFloat(clone, field.getFloat(original));
+                case DOUBLE -> field.setDouble(clone, field.getDouble(original));
+            }
+        }
+
+        //Для GraphCodec: без упаковки, в порядке байтов буфера
+        void writePrimitive(Object o, ByteBuffer out) throws IllegalAccessException {
+            switch (primitive) {
+                case BOOLEAN -> out.put(field.getBoolean(o) ? (byte)1 : (byte)0);
+                case CHAR -> out.putChar(field.getChar(o));
+                case BYTE -> out.put(field.getByte(o));
+                case SHORT -> out.putShort(field.getShort(o));
+                case INT -> out.putInt(field.getInt(o));
+                case LONG -> out.putLong(field.getLong(o));
+                case FLOAT -> out.putFloat(field.getFloat(o));
+                case DOUBLE -> out.putDouble(field.getDouble(o));
+            }
+        }
+
+        void readPrimitive(ByteBuffer in, Object o) throws IllegalAccessException {
+            switch (primitive) {
+                case BOOLEAN -> field.setBoolean(o, in.get() != 0);
+                case CHAR -> field.setChar(o, in.getChar());
+                case BYTE -> field.setByte(o, in.get());
+                case SHORT -> field.setShort(o, in.getShort());
+                case INT -> field.setInt(o, in.getInt());
+                case LONG -> field.setLong(o, in.getLong());
+                case FLOAT -> field.setFloat(o, in.getFloat());
+                case DOUBLE -> field.setDouble(o, in.getDouble());
+            }
+        }
+
+        //float и double сравниваются побитово, как их копирует copyPrimitive
+        boolean samePrimitive(Object a, Object b) throws IllegalAccessException {
+            return switch (primitive) {
+                case BOOLEAN -> field.getBoolean(a) == field.getBoolean(b);
+                case CHAR -> field.getChar(a) == field.getChar(b);
+                case BYTE -> field.getByte(a) == field.getByte(b);
+                case SHORT -> field.getShort(a) == field.getShort(b);
+                case INT -> field.getInt(a) == field.getInt(b);
+                case LONG -> field.getLong(a) == field.getLong(b);
+                case FLOAT -> Float.floatToRawIntBits(field.getFloat(a)) ==
+                    Float.floatToRawIntBits(field.getFloat(b));
+                case DOUBLE -> Double.doubleToRawLongBits(field.getDouble(a)) ==
+                    Double.doubleToRawLongBits(field.getDouble(b));
+            };
+        }
+    }
+
+    private final PlannedField[] fields;
+    private final PlannedField[] primitiveFields;
+    private final PlannedField[] objectFields;
+
+    private final Class<?> type;
+    private int invocations = 0;
+    private volatile CompiledCopier compiled;
+
+    private ClonePlan(Class<?> c) {
+        type = c;
+
+        List<PlannedField> fields = new ArrayList<>();
+
+        while (c != null) {
+            for (Field f : c.getDeclaredFields()) {
+                if (Modifier.isStatic(f.getModifiers())) {
+                    continue;
+                }
+
+                f.setAccessible(true);
+                fields.add(new PlannedField(f, kindOf(f.getType())));
+            }
+
+            c = c.getSuperclass();
+        }
+
+        this.fields = fields.toArray(new PlannedField[0]);
+
+        primitiveFields = fields.stream()
+            .filter(f -> f.kind == Kind.PRIMITIVE)
+            .toArray(PlannedField[]::new);
+
+        objectFields = fields.stream()
+            .filter(f -> f.kind != Kind.PRIMITIVE)
+            .toArray(PlannedField[]::new);
+    }
+
+    static ClonePlan of(Class<?> c) {
+        return plans.get(c);
+    }
+
+    PlannedField[] fields() {
+        return fields;
+    }
+
+    PlannedField[] objectFields() {
+        return objectFields;
+    }
+
+    PlannedField[] primitiveFields() {
+        return primitiveFields;
+    }
+
+    //compilationThreshold < 0 - всегда копировать через рефлексию
+    void copy(
+        Object original,
+        Object clone,
+        CloneContext context,
+        int compilationThreshold
+    ) throws IllegalAccessException {
+        if (compilationThreshold >= 0) {
+            CompiledCopier copier = compiled;
+
+            if (copier == null && ++invocations > compilationThreshold) {
+                copier = compile();
+            }
+
+            if (copier != null) {
+                copier.copy(original, clone, context);
+                return;
+            }
+        }
+
+        copyPrimitives(original, clone);
+
+        for (PlannedField pf : objectFields) {
+            pf.copy(original, clone, context);
+        }
+    }
+
+    //Все ссылочные поля, включая неизменяемые, проходят через
+    //context.cloneReference - для стратегий неизменяемых типов
+    void copyThroughContext(Object original, Object clone, CloneContext context)
+        throws IllegalAccessException
+    {
+        copyPrimitives(original, clone);
+
+        for (PlannedField pf : objectFields) {
+            pf.field.set(clone, context.cloneReference(pf.field.get(original)));
+        }
+    }
+
+    boolean isCompiled() {
+        return compiled != null;
+    }
+
+    private synchronized CompiledCopier compile() {
+        if (compiled == null) {
+            compiled = CompiledCopier.compile(type, fields);
+        }
+
+        return compiled;
+    }
+
+    void copyPrimitives(Object original, Object clone)
+        throws IllegalAccessException
+    {
+        for (PlannedField pf : primitiveFields) {
+            pf.copyPrimitive(original, clone);
+        }
+    }
+
+    private static Kind kindOf(Class<?> type) {
+        if (type.isPrimitive()) {
+            return Kind.PRIMITIVE;
+        }
+
+        //Если объявленный тип не final, в поле может лежать
+        //изменяемый наследник, поэтому решаем по значению при копировании
+        if (Modifier.isFinal(type.getModifiers()) && Cloner.isImmutable(type)) {
+            return Kind.IMMUTABLE;
+        }
+
+        return Kind.REFERENCE;
+    }
+}
@@ -0,0 +1,194 @@
+package deepclone;
+
+import java.util.ArrayDeque;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+//Состояние одного вызова Cloner.deepClone. После вызова
+//очищается и может быть переиспользовано другим вызовом
+class CloneScope implements CloneContext {
+    private final Cloner cloner;
+
+    private final IdentityTable clonesMap;
+    final ArrayDeque<Object> pending = new ArrayDeque<>();
+    private final ArrayDeque<Deferred> deferred = new ArrayDeque<>();
+
+    //Клон -> его еще не выполненное отложенное действие
+    private final Map<Object, Deferred> unfinished = new IdentityHashMap<>();
+
+    //Вызывающий гарантирует, что граф - дерево: на каждый объект
+    //ровно одна ссылка, поэтому таблица клонов не нужна
+    boolean tree = false;
+
+    CloneScope(Cloner cloner) {
+        this(cloner, new IdentityTable(cloner.expectedGraphSize));
+    }
+
+    CloneScope(Cloner cloner, IdentityTable clonesMap) {
+        this.cloner = cloner;
+        this.clonesMap = clonesMap;
+    }
+
+    Object deepClone(Object original, boolean tree) throws IllegalAccessException {
+        this.tree = tree;
+        return cloneNext(original);
+    }
+
+    //Клонирует еще один корень с той же таблицей клонов: объекты,
+    //общие с уже склонированными корнями, не клонируются повторно
+    Object cloneNext(Object original) throws IllegalAccessException {
+        Object clone = cloneReference(original);
+
+        drainPending();
+        completeDeferred();
+
+        return clone;
+    }
+
+    int capacity() {
+        return clonesMap.capacity();
+    }
+
+    void reset() {
+        clonesMap.clear();
+        pending.clear();
+        deferred.clear();
+        unfinished.clear();
+    }
+
+    //Возвращает клон, поля которого могут быть еще не заполнены:
+    //заполнение откладывается в стек pending, а не делается рекурсивно,
+    //поэтому длинные цепочки объектов не переполняют стек потока
+    @Override
+    public Object cloneReference(Object original) {
+        if (original == null) {
+            return null;
+        }
+
+        Copier copier = cloner.copierOf(original.getClass());
+
+        if (copier == Copiers.SHARE) {
+            return original;
+        }
+
+        if (copier == Copiers.NULL_OUT) {
+            return null;
+        }
+
+        if (tree) {
+            return copier.create(original, this);
+        }
+
+        return cloneOnce(original, copier);
+    }
+
+    Object cloneOnce(Object original, Copier copier) {
+        Object clone = clonesMap.get(original);
+
+        if (clone == null) {
+            clone = copier.create(original, this);
+            clonesMap.put(original, clone);
+        }
+
+        return clone;
+    }
+
+    //null, если original еще не клонировался
+    Object existingClone(Object original) {
+        return clonesMap.get(original);
+    }
+
+    //Готовая пара original -> clone, например из прошлого клона
+    void seed(Object original, Object clone) {
+        clonesMap.put(original, clone);
+    }
+
+    Cloner cloner() {
+        return cloner;
+    }
+
+    void scheduleFill(Copier copier, Object original, Object clone) {
+        pending.push(copier);
+        pending.push(clone);
+        pending.push(original);
+    }
+
+    //Порядок отложенных действий не гарантирует, что коллекция-ключ
+    //достроена раньше словаря, в который она кладется: объявленное
+    //позже поле заполняется позже. Поэтому действие, которому нужен
+    //хеш клона, сначала достраивает его через finish
+    void defer(Copier copier, Object state, Object clone) {
+        Deferred d = new Deferred(copier, clone, state);
+
+        deferred.push(d);
+        unfinished.put(clone, d);
+    }
+
+    //Выполняет отложенное действие клона, если оно еще не выполнено.
+    //Действие снимается до выполнения, поэтому на цикле из коллекций
+    //рекурсия останавливается
+    void finish(Object clone) {
+        if (unfinished.isEmpty()) {
+            return;
+        }
+
+        Deferred d = unfinished.remove(clone);
+
+        if (d != null) {
+            d.copier.complete(d.state, d.clone, this);
+        }
+    }
+
+    //Переносит отложенные действия в target поверх его собственных
+    //с сохранением порядка
+    void moveDeferred(CloneScope target) {
+        while (!deferred.isEmpty()) {
+            Deferred d = deferred.pollLast();
+
+            target.deferred.push(d);
+            target.unfinished.put(d.clone, d);
+        }
+
+        unfinished.clear();
+    }
+
+    void drainPending() throws IllegalAccessException {
+        int parallelLimit = cloner.parallelPendingLimit;
+
+        while (!pending.isEmpty()) {
+            //Граф оказался большим: остаток клонируется в ForkJoinPool
+            if (pending.size() > parallelLimit) {
+                ParallelClone.drain(this, clonesMap);
+                return;
+            }
+
+            Object original = pending.pop();
+            Object clone = pending.pop();
+            Copier copier = (Copier)pending.pop();
+
+            copier.fill(original, clone, this);
+        }
+    }
+
+    void completeDeferred() {
+        while (!deferred.isEmpty()) {
+            Deferred d = deferred.pop();
+
+            if (unfinished.remove(d.clone) != null) {
+                d.copier.complete(d.state, d.clone, this);
+            }
+        }
+    }
+
+    private static final class Deferred {
+        final Copier copier;
+        final Object clone;
+        final Object state;
+
+        Deferred(Copier copier, Object clone, Object state) {
+            this.copier = copier;
+            this.clone = clone;
+            this.state = state;
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package deepclone;
+
+import java.lang.reflect.Field;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+//Какую часть графа клонировать. Все, что за ее пределами, переносится
+//в клон по ссылке и не обходится. Путь - имена полей через точку
+//от корня ("positions.instrument"); элементы массивов и коллекций
+//не добавляют в путь сегмента, но добавляют уровень глубины.
+//
+//Спецификация неизменяема и может использоваться многими Cloner
+//и потоками. Решения по полям каждого класса вычисляются при первой
+//встрече и кешируются в ней, поэтому ее стоит создавать один раз
+public final class CloneSpec {
+    static final class PathNode {
+        final Map<String, PathNode> children = new HashMap<>();
+        boolean excluded;
+        boolean includeEnd;
+
+        PathNode copy() {
+            PathNode copy = new PathNode();
+
+            copy.excluded = excluded;
+            copy.includeEnd = includeEnd;
+            children.forEach((name, child) -> copy.children.put(name, child.copy()));
+
+            return copy;
+        }
+    }
+
+    final int maxDepth;
+    final PathNode paths;
+    final boolean includeMode;
+    final Set<Field> shallowFields;
+
+    final SpecNode root;
+
+    private CloneSpec(Builder builder) {
+        maxDepth = builder.maxDepth;
+        paths = builder.paths.copy();
+        includeMode = builder.includeMode;
+        shallowFields = Set.copyOf(builder.shallowFields);
+
+        root = SpecNode.root(this);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static final class Builder {
+        private int maxDepth = -1;
+        private final PathNode paths = new PathNode();
+        private boolean includeMode = false;
+        private final Set<Field> shallowFields = new HashSet<>();
+
+        private Builder() { }
+
+        //Клонируются объекты на глубине не больше depth: корень - 0,
+        //объекты по его ссылкам - 1 и т.д. 0 - только сам корень
+        public Builder maxDepth(int depth) {
+            if (depth < 0) {
+                throw new IllegalArgumentException("Глубина не может быть отрицательной: " + depth);
+            }
+
+            maxDepth = depth;
+            return this;
+        }
+
+        //Клонировать только эти пути (и все под ними). Без include
+        //клонируется все, кроме исключенного
+        public Builder include(String path) {
+            nodeFor(path).includeEnd = true;
+            includeMode = true;
+            return this;
+        }
+
+        public Builder exclude(String path) {
+            nodeFor(path).excluded = true;
+            return this;
+        }
+
+        //Как @Shallow на поле owner.field
+        public Builder shallow(Class<?> owner, String field) {
+            try {
+                shallowFields.add(owner.getDeclaredField(field));
+            }
+            catch (NoSuchFieldException e) {
+                throw new IllegalArgumentException(
+                    "В " + owner.getName() + " нет поля " + field,
+                    e
+                );
+            }
+
+            return this;
+        }
+
+        public CloneSpec build() {
+            return new CloneSpec(this);
+        }
+
+        private PathNode nodeFor(String path) {
+            PathNode node = paths;
+
+            for (String segment : path.split("\\.", -1)) {
+                if (segment.isEmpty()) {
+                    throw new IllegalArgumentException("Некорректный путь: \"" + path + "\"");
+                }
+
+                node = node.children.computeIfAbsent(segment, s -> new PathNode());
+            }
+
+            return node;
+        }
+    }
+}
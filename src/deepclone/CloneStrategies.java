@@ -0,0 +1,141 @@
+package deepclone;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+//Стратегии, зарегистрированные в Cloner.Builder. Выбор для класса
+//делается один раз и кешируется в ClassValue конкретного Cloner
+final class CloneStrategies {
+    static final CloneStrategy<Object> SHARE = (original, context) -> original;
+    static final CloneStrategy<Object> NULL_OUT = (original, context) -> null;
+
+    private final Map<Class<?>, CloneStrategy<?>> exact;
+    private final List<Map.Entry<Class<?>, CloneStrategy<?>>> subtypes;
+    private final List<Map.Entry<String, CloneStrategy<?>>> packages;
+
+    private final ClassValue<Copier> copiers = new ClassValue<>() {
+        @Override
+        protected Copier computeValue(Class<?> c) {
+            return resolve(c);
+        }
+    };
+
+    //ClonePlan переносит поля неизменяемого final типа как есть, не
+    //спрашивая Cloner. Если для такого типа есть стратегия, поля класса
+    //нужно копировать через cloneReference
+    private final ClassValue<Boolean> immutableFieldsWithStrategies = new ClassValue<>() {
+        @Override
+        protected Boolean computeValue(Class<?> c) {
+            for (ClonePlan.PlannedField pf : ClonePlan.of(c).objectFields()) {
+                if (pf.kind == ClonePlan.Kind.IMMUTABLE && of(pf.field.getType()) != Copiers.SHARE) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+    };
+
+    CloneStrategies(
+        Map<Class<?>, CloneStrategy<?>> exact,
+        Map<Class<?>, CloneStrategy<?>> subtypes,
+        Map<String, CloneStrategy<?>> packages
+    ) {
+        this.exact = new LinkedHashMap<>(exact);
+        this.subtypes = new ArrayList<>(subtypes.entrySet());
+        this.packages = new ArrayList<>(packages.entrySet());
+    }
+
+    Copier of(Class<?> c) {
+        return copiers.get(c);
+    }
+
+    boolean overridesImmutableFields(Class<?> c) {
+        return immutableFieldsWithStrategies.get(c);
+    }
+
+    //Точный класс, затем первый подходящий супертип в порядке
+    //регистрации, затем самый длинный префикс пакета, и только потом
+    //встроенный выбор. Стратегия важнее вердикта неизменяемости,
+    //кроме встроенных типов JDK при стратегии пакета
+    private Copier resolve(Class<?> c) {
+        CloneStrategy<?> strategy = exact.get(c);
+
+        if (strategy == null) {
+            strategy = subtypeStrategy(c);
+        }
+
+        if (strategy == null && !c.isArray() && !Immutability.isBuiltIn(c)) {
+            strategy = packageStrategy(c.getPackageName());
+        }
+
+        if (strategy != null) {
+            return toCopier(strategy);
+        }
+
+        Copier copier = Copiers.of(c);
+
+        //BULK_ARRAY разделяет элементы неизменяемого final типа, а
+        //стратегия для этого типа требует копировать их по одному
+        if (copier == Copiers.BULK_ARRAY && !c.componentType().isPrimitive()) {
+            return of(c.componentType()) == Copiers.SHARE ? copier : Copiers.ARRAY;
+        }
+
+        return copier;
+    }
+
+    private CloneStrategy<?> subtypeStrategy(Class<?> c) {
+        for (Map.Entry<Class<?>, CloneStrategy<?>> e : subtypes) {
+            if (e.getKey().isAssignableFrom(c)) {
+                return e.getValue();
+            }
+        }
+
+        return null;
+    }
+
+    private CloneStrategy<?> packageStrategy(String packageName) {
+        CloneStrategy<?> strategy = null;
+        int matched = -1;
+
+        for (Map.Entry<String, CloneStrategy<?>> e : packages) {
+            String prefix = e.getKey();
+
+            if (prefix.length() > matched && isInPackage(packageName, prefix)) {
+                strategy = e.getValue();
+                matched = prefix.length();
+            }
+        }
+
+        return strategy;
+    }
+
+    //"com.acme" подходит для com.acme и com.acme.model, но не для com.acmex
+    private static boolean isInPackage(String packageName, String prefix) {
+        return packageName.startsWith(prefix) &&
+            (packageName.length() == prefix.length() ||
+                packageName.charAt(prefix.length()) == '.');
+    }
+
+    private static Copier toCopier(CloneStrategy<?> strategy) {
+        if (strategy == SHARE) {
+            return Copiers.SHARE;
+        }
+
+        if (strategy == NULL_OUT) {
+            return Copiers.NULL_OUT;
+        }
+
+        @SuppressWarnings("unchecked")
+        CloneStrategy<Object> custom = (CloneStrategy<Object>)strategy;
+
+        return new Copier() {
+            @Override
+            Object create(Object original, CloneScope scope) {
+                return custom.copy(original, scope);
+            }
+        };
+    }
+}
@@ -0,0 +1,24 @@
+package deepclone;
+
+//Собственное клонирование объектов одного типа. Регистрируется
+//в Cloner.Builder для класса, для его наследников или для пакета
+@FunctionalInterface
+public interface CloneStrategy<T> {
+    //Возвращает клон original. Вложенные объекты клонируются через
+    //context.cloneReference: их поля могут быть заполнены позже.
+    //Клон запоминается в таблице клонов только после возврата
+    //из copy, поэтому copy не должен запрашивать клон самого original
+    T copy(T original, CloneContext context);
+
+    //Объект переносится в клон как есть
+    @SuppressWarnings("unchecked")
+    static <T> CloneStrategy<T> share() {
+        return (CloneStrategy<T>)CloneStrategies.SHARE;
+    }
+
+    //Ссылки на объект в клоне заменяются на null
+    @SuppressWarnings("unchecked")
+    static <T> CloneStrategy<T> nullOut() {
+        return (CloneStrategy<T>)CloneStrategies.NULL_OUT;
+    }
+}
@@ -1,135 +1,526 @@
 package deepclone;
 
-import org.objenesis.ObjenesisStd;
-
-import java.lang.reflect.Array;
-import java.lang.reflect.Field;
-import java.lang.reflect.Modifier;
-import java.util.IdentityHashMap;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Set;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
 
 public class Cloner {
-    private static final Set<Class<?>> knownImmutableTypes = Set.of(
-        Boolean.class,
-        Character.class,
-        Byte.class,
-        Short.class,
-        Integer.class,
-        Long.class,
-        Float.class,
-        Double.class,
-        Void.class,
-        String.class
+    //Большие таблицы не держим в пуле, чтобы один огромный граф
+    //не занимал память до конца жизни Cloner
+    private static final int maxPooledScopeCapacity = 1 << 16;
+
+    final InstantiationStrategy instantiationStrategy;
+    final int compilationThreshold;
+    final int expectedGraphSize;
+
+    //Без параллельного режима предел недостижим
+    final ForkJoinPool parallelPool;
+    final int parallelPendingLimit;
+
+    //null, если стратегии не зарегистрированы
+    private final CloneStrategies strategies;
+
+    //null, если статистика не собирается
+    final CloneListener listener;
+
+    //null - decode создает объекты любых классов
+    final Predicate<Class<?>> decodeFilter;
+
+    private final AsyncClones async;
+
+    private final ArrayBlockingQueue<CloneScope> scopes = new ArrayBlockingQueue<>(
+        Runtime.getRuntime().availableProcessors() * 2
     );
 
-    private final IdentityHashMap<Object, Object> clonesMap =
-        new IdentityHashMap<>();
+    private final ArrayBlockingQueue<Reclone> reclones = new ArrayBlockingQueue<>(
+        Runtime.getRuntime().availableProcessors() * 2
+    );
 
-    public <T> T deepClone(T original) throws IllegalAccessException {
-        if (original == null) {
-            return null;
-        }
+    private final ArrayBlockingQueue<IntoScope> intoScopes = new ArrayBlockingQueue<>(
+        Runtime.getRuntime().availableProcessors() * 2
+    );
+
+    private final ArrayBlockingQueue<GraphCodec> codecs = new ArrayBlockingQueue<>(
+        Runtime.getRuntime().availableProcessors() * 2
+    );
+
+    public Cloner() {
+        this(builder());
+    }
+
+    public Cloner(InstantiationStrategy instantiationStrategy) {
+        this(builder().instantiationStrategy(instantiationStrategy));
+    }
 
-        Class<?> c = original.getClass();
+    private Cloner(Builder builder) {
+        instantiationStrategy = builder.instantiationStrategy;
+        compilationThreshold = builder.compilationThreshold;
+        expectedGraphSize = builder.expectedGraphSize;
 
-        if (isImmutable(c)) {
-            return original;
+        parallelPool = builder.parallelPool;
+        parallelPendingLimit = parallelPool != null
+            ? (int)Math.min(Integer.MAX_VALUE, builder.parallelThreshold * 3L)
+            : Integer.MAX_VALUE;
+
+        strategies = builder.hasStrategies()
+            ? new CloneStrategies(
+                builder.exactStrategies,
+                builder.subtypeStrategies,
+                builder.packageStrategies
+            )
+            : null;
+
+        listener = builder.listener;
+        decodeFilter = builder.decodeFilter;
+
+        async = new AsyncClones(
+            this,
+            builder.asyncExecutor,
+            builder.asyncConcurrency,
+            builder.asyncMemoryBudget
+        );
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static final class Builder {
+        private InstantiationStrategy instantiationStrategy =
+            InstantiationStrategy.objenesis();
+
+        private int compilationThreshold = -1;
+        private int expectedGraphSize = 0;
+
+        private ForkJoinPool parallelPool = null;
+        private int parallelThreshold = 0;
+
+        private final Map<Class<?>, CloneStrategy<?>> exactStrategies =
+            new LinkedHashMap<>();
+        private final Map<Class<?>, CloneStrategy<?>> subtypeStrategies =
+            new LinkedHashMap<>();
+        private final Map<String, CloneStrategy<?>> packageStrategies =
+            new LinkedHashMap<>();
+
+        private CloneListener listener = null;
+        private Predicate<Class<?>> decodeFilter = null;
+
+        private Executor asyncExecutor = null;
+        private int asyncConcurrency = Runtime.getRuntime().availableProcessors();
+        private long asyncMemoryBudget = Long.MAX_VALUE;
+
+        private Builder() { }
+
+        public Builder instantiationStrategy(InstantiationStrategy strategy) {
+            instantiationStrategy = strategy;
+            return this;
         }
 
-        Object clone = clonesMap.get(original);
+        //После стольких клонирований объектов класса для него
+        //генерируется копировщик без рефлексии. Отрицательное значение
+        //(по умолчанию) отключает генерацию
+        public Builder compilationThreshold(int invocations) {
+            compilationThreshold = invocations;
+            return this;
+        }
 
-        if (clone == null) {
-            if (c.isArray()) {
-                clone = deepCloneArray(original, c);
+        //Таблицы клонов сразу создаются под столько объектов
+        //и не растут при клонировании графов такого размера
+        public Builder expectedGraphSize(int objects) {
+            expectedGraphSize = objects;
+            return this;
+        }
+
+        //Когда незаполненных клонов накапливается больше threshold,
+        //клонирование продолжается задачами в pool. Графы меньше
+        //порога клонируются в вызывающем потоке, как без этой настройки
+        public Builder parallel(ForkJoinPool pool, int threshold) {
+            if (threshold < 1) {
+                throw new IllegalArgumentException("Порог должен быть положительным: " + threshold);
             }
-            else if (original instanceof List list) {
-                clone = deepCloneList(list, c);
+
+            parallelPool = pool;
+            parallelThreshold = threshold;
+            return this;
+        }
+
+        //Стратегия для объектов ровно этого класса. Важнее стратегий
+        //для супертипов и пакетов
+        public <T> Builder strategy(Class<T> type, CloneStrategy<? super T> strategy) {
+            exactStrategies.put(type, strategy);
+            return this;
+        }
+
+        //Стратегия для type, его наследников и реализаций. Если класс
+        //подходит под несколько супертипов, выбирается первый
+        //зарегистрированный
+        public <T> Builder subtypeStrategy(Class<T> type, CloneStrategy<? super T> strategy) {
+            subtypeStrategies.put(type, strategy);
+            return this;
+        }
+
+        //Стратегия для классов пакета и его подпакетов. Из нескольких
+        //подходящих префиксов выбирается самый длинный
+        public Builder packageStrategy(String packagePrefix, CloneStrategy<Object> strategy) {
+            packageStrategies.put(packagePrefix, strategy);
+            return this;
+        }
+
+        //Слушатель получает статистику по классам после каждого
+        //клонирования, например CloneMetrics для JMX. Сбор статистики
+        //замедляет клонирование, без слушателя он не выполняется
+        public Builder listener(CloneListener listener) {
+            this.listener = listener;
+            return this;
+        }
+
+        //Классы, объекты которых decode и снимки могут создавать; для
+        //массивов проверяется тип элементов. Класс загружается без
+        //инициализации и проверяется до создания объектов. Нужен, если
+        //данные приходят не из доверенного источника: разрешать надо
+        //и классы JDK, встречающиеся в графе (String, ArrayList,
+        //List.of и т.д.). По умолчанию разрешены все классы
+        public Builder decodeFilter(Predicate<Class<?>> allowed) {
+            decodeFilter = allowed;
+            return this;
+        }
+
+        //Исполнитель для deepCloneAsync. По умолчанию - виртуальный
+        //поток на клонирование, а на JDK без виртуальных потоков -
+        //пул этого Cloner из asyncConcurrency потоков-демонов
+        public Builder asyncExecutor(Executor executor) {
+            asyncExecutor = executor;
+            return this;
+        }
+
+        //Сколько асинхронных клонирований идут одновременно, остальные
+        //ждут очереди. По умолчанию - по числу процессоров
+        public Builder asyncConcurrency(int clones) {
+            if (clones < 1) {
+                throw new IllegalArgumentException("Число клонирований должно быть положительным: " + clones);
             }
-            else {
-                clone = deepCloneObject(original, c);
+
+            asyncConcurrency = clones;
+            return this;
+        }
+
+        //Сколько байт (по оценке размеров объектов) могут занимать клоны
+        //идущих асинхронных клонирований. Клонирование, которому не
+        //хватило бюджета, ждет окончания более ранних. По умолчанию
+        //не ограничено
+        public Builder asyncMemoryBudget(long bytes) {
+            if (bytes < 1) {
+                throw new IllegalArgumentException("Бюджет памяти должен быть положительным: " + bytes);
             }
+
+            asyncMemoryBudget = bytes;
+            return this;
         }
 
+        private boolean hasStrategies() {
+            return !exactStrategies.isEmpty() ||
+                !subtypeStrategies.isEmpty() ||
+                !packageStrategies.isEmpty();
+        }
+
+        public Cloner build() {
+            return new Cloner(this);
+        }
+    }
+
+    //Потокобезопасен: каждый вызов получает свою таблицу клонов,
+    //поэтому один Cloner можно использовать из многих потоков
+    public <T> T deepClone(T original) throws IllegalAccessException {
+        return deepClone(original, false);
+    }
+
+    //Для графов-деревьев: объекты не ищутся и не запоминаются в таблице
+    //клонов. Общие ссылки будут склонированы несколько раз, а цикл
+    //приведет к бесконечному клонированию
+    public <T> T deepCloneTree(T original) throws IllegalAccessException {
+        return deepClone(original, true);
+    }
+
+    //Клонирует original в задаче asyncExecutor и сразу возвращает
+    //future клона. Отмена future останавливает обход графа: клон
+    //не достраивается. Ошибки клонирования завершают future
+    //исключением. Ограничения - см. asyncConcurrency, asyncMemoryBudget
+    //и AsyncClones
+    public <T> CompletableFuture<T> deepCloneAsync(T original) {
+        return async.submit(original);
+    }
+
+    //Клонирует все корни одной таблицей клонов: объекты, общие для
+    //нескольких корней, клонируются один раз, и клоны ссылаются на них
+    //так же, как оригиналы. Таблица освобождается после вызова
+    public <T> List<T> deepCloneAll(Collection<? extends T> roots) throws IllegalAccessException {
+        Object[] clones = deepClone(roots.toArray());
+
         @SuppressWarnings("unchecked")
-        T tClone = (T)clone;
+        List<T> result = (List<T>)new ArrayList<>(Arrays.asList(clones));
 
-        return tClone;
+        return result;
     }
 
-    private static boolean isImmutable(Class<?> c) {
-        return c.isPrimitive() ||
-            knownImmutableTypes.contains(c) ||
-            c.isRecord();
+    //То же для потока корней: каждый корень клонируется целиком, когда
+    //поток до него доходит, а таблица клонов общая до закрытия потока.
+    //Поток последовательный. Его нужно закрыть, чтобы таблица вернулась
+    //в пул; незакрытый поток просто освобождается сборщиком мусора
+    public <T> Stream<T> deepCloneAll(Stream<? extends T> roots) {
+        CloneScope scope = acquireScope();
+        scope.tree = false;
+
+        return roots.sequential()
+            .map(root -> cloneNext(scope, root))
+            .onClose(() -> releaseScope(scope));
     }
 
-    private Object deepCloneArray(Object original, Class<?> c)
-            throws IllegalAccessException
-    {
-        int length = Array.getLength(original);
-        Object clone = Array.newInstance(c.componentType(), length);
+    @SuppressWarnings("unchecked")
+    private static <T> T cloneNext(CloneScope scope, T root) {
+        if (root == null) {
+            return null;
+        }
+
+        try {
+            return (T)scope.cloneNext(root);
+        }
+        catch (IllegalAccessException e) {
+            throw new IllegalStateException("Не удалось склонировать " + root.getClass().getName(), e);
+        }
+    }
 
-        clonesMap.put(original, clone);
+    //Клонирует original заново, переиспользуя объекты previousClone
+    //(результата прошлого deepClone или reclone этого же оригинала),
+    //которые не изменились. Заново копируются измененные объекты и те,
+    //из которых они достижимы. previousClone не меняется
+    public <T> T reclone(T original, T previousClone) throws IllegalAccessException {
+        CloneScope scope = acquireScope();
+        Reclone reclone = reclones.poll();
 
-        for (int i = 0; i < length; ++i) {
-            Object value = Array.get(original, i);
-            Array.set(clone, i, deepClone(value));
+        if (reclone == null) {
+            reclone = new Reclone(this);
         }
 
-        return clone;
+        try {
+            @SuppressWarnings("unchecked")
+            T clone = (T)reclone.reclone(original, previousClone, scope);
+
+            return clone;
+        }
+        finally {
+            releaseScope(scope);
+
+            if (reclone.capacity() <= Math.max(maxPooledScopeCapacity, expectedGraphSize * 2)) {
+                reclone.reset();
+                reclones.offer(reclone);
+            }
+        }
     }
 
-    @SuppressWarnings({"unchecked", "rawtypes"})
-    private List deepCloneList(List original, Class<?> c)
-        throws IllegalAccessException
-    {
-        List clone = createListOfClass(c);
+    //Копирует граф source в существующий граф target той же формы:
+    //объекты target перезаписываются на месте, массивы той же длины,
+    //списки и словари переиспользуются, и новые объекты создаются
+    //только там, где формы расходятся. Возвращает клон source - target
+    //или, если его нельзя переиспользовать, новый объект. target не
+    //должен разделять изменяемые объекты с source - см. IntoScope
+    public <T> T cloneInto(T source, T target) throws IllegalAccessException {
+        IntoScope scope = intoScopes.poll();
 
-        for (Object o : original) {
-            clone.add( deepClone(o) );
+        if (scope == null) {
+            scope = new IntoScope(this);
         }
 
-        return clone;
+        try {
+            @SuppressWarnings("unchecked")
+            T clone = (T)scope.cloneInto(source, target);
+
+            return clone;
+        }
+        finally {
+            if (scope.capacity() <= Math.max(maxPooledScopeCapacity, expectedGraphSize * 2)) {
+                scope.reset();
+                intoScopes.offer(scope);
+            }
+        }
     }
 
-    @SuppressWarnings("rawtypes")
-    private List createListOfClass(Class<?> c) {
+    //Записывает граф original в buffer, начиная с его позиции, без
+    //требования Serializable; общие и циклические ссылки записываются
+    //номерами. Если места не хватило, данные переносятся в новый буфер
+    //того же вида (heap или direct) большего размера. Возвращает буфер
+    //с данными, позиция - сразу после них. Формат - см. GraphCodec
+    public ByteBuffer encode(Object original, ByteBuffer buffer) throws IllegalAccessException {
+        GraphCodec codec = acquireCodec();
+
         try {
-            return (List)c.getDeclaredConstructor().newInstance();
+            return codec.encode(original, buffer);
+        }
+        finally {
+            releaseCodec(codec);
         }
-        catch (Exception e) {
-            throw new AssertionError(
-                "Этого никогда не должно было произойти. Время отладки!",
-                e
+    }
+
+    //Читает граф, записанный encode, начиная с позиции buffer, в новые
+    //объекты. Позиция переходит за конец графа
+    public Object decode(ByteBuffer buffer) throws IllegalAccessException {
+        GraphCodec codec = acquireCodec();
+
+        try {
+            return codec.decode(buffer);
+        }
+        finally {
+            releaseCodec(codec);
+        }
+    }
+
+    //Записывает снимок графа original в файл через отображение файла
+    //в память. Объекты в полях, объявленных интерфейсом, пишутся
+    //отдельно и потом читаются по мере обращения к ним - см. Snapshot
+    public void writeSnapshot(Object original, Path file) throws IOException, IllegalAccessException {
+        SnapshotWriter.write(this, original, file);
+    }
+
+    //Открывает снимок, записанный writeSnapshot. Данные не читаются,
+    //пока к ним не обратятся через Snapshot.root
+    public Snapshot openSnapshot(Path file) throws IOException {
+        return Snapshot.open(this, file);
+    }
+
+    //Клонирует только часть графа, описанную spec; остальное
+    //переносится в клон по ссылке
+    public <T> T deepClone(T original, CloneSpec spec) throws IllegalAccessException {
+        @SuppressWarnings("unchecked")
+        T clone = (T)new SpecScope(this).deepClone(original, spec);
+
+        return clone;
+    }
+
+    //Возвращает прокси интерфейса type. Корень копируется сразу,
+    //а объекты в полях, объявленных интерфейсом, - по мере обращения
+    //к ним. Подходит для клонов, которые потом почти не читаются:
+    //стоимость пропорциональна затронутой части графа. Объекты за
+    //полями-интерфейсами нельзя менять, пока клон используется, -
+    //см. LazyClones
+    public <T> T lazyClone(T original, Class<T> type) {
+        if (!type.isInterface()) {
+            throw new IllegalArgumentException(
+                "Ленивый клон возможен только для интерфейса, а не для " + type.getName()
             );
         }
+
+        if (original == null) {
+            return null;
+        }
+
+        Copier copier = copierOf(original.getClass());
+
+        if (copier == Copiers.SHARE || copier == Copiers.NULL_OUT) {
+            return copier == Copiers.SHARE ? original : null;
+        }
+
+        return type.cast(new LazyClones(this).cloneRoot(original, type));
     }
 
-    private Object deepCloneObject(Object original, Class<?> c)
-            throws IllegalAccessException
-    {
-        ObjenesisStd objenesis = new ObjenesisStd();
-        Object clone = objenesis.newInstance(c);
+    private <T> T deepClone(T original, boolean tree) throws IllegalAccessException {
+        CloneScope scope = acquireScope();
 
-        clonesMap.put(original, clone);
+        try {
+            @SuppressWarnings("unchecked")
+            T clone = (T)scope.deepClone(original, tree);
 
-        while (c != null) {
-            Field[] fields = c.getDeclaredFields();
+            return clone;
+        }
+        finally {
+            releaseScope(scope);
+        }
+    }
 
-            for (Field f : fields) {
-                if (Modifier.isStatic(f.getModifiers())) {
-                    continue;
-                }
+    private CloneScope acquireScope() {
+        CloneScope scope = scopes.poll();
 
-                f.setAccessible(true);
+        if (scope != null) {
+            return scope;
+        }
 
-                Object value = f.get(original);
-                f.set(clone, deepClone(value));
-            }
+        return listener != null ? new MeteredScope(this) : new CloneScope(this);
+    }
 
-            c = c.getSuperclass();
+    private void releaseScope(CloneScope scope) {
+        if (scope.capacity() > Math.max(maxPooledScopeCapacity, expectedGraphSize * 2)) {
+            return;
         }
 
-        return clone;
+        scope.reset();
+        scopes.offer(scope);
+    }
+
+    //Граф сегмента снимка - см. GraphCodec.Segments
+    ByteBuffer encodeSegment(
+        Object graph,
+        ByteBuffer buffer,
+        Object shell,
+        GraphCodec.Segments segments
+    ) throws IllegalAccessException {
+        GraphCodec codec = acquireCodec();
+
+        try {
+            return codec.encode(graph, buffer, shell, segments);
+        }
+        finally {
+            releaseCodec(codec);
+        }
+    }
+
+    Object decodeSegment(ByteBuffer buffer, Object shell, GraphCodec.Segments segments)
+        throws IllegalAccessException
+    {
+        GraphCodec codec = acquireCodec();
+
+        try {
+            return codec.decode(buffer, shell, segments);
+        }
+        finally {
+            releaseCodec(codec);
+        }
+    }
+
+    private GraphCodec acquireCodec() {
+        GraphCodec codec = codecs.poll();
+        return codec != null ? codec : new GraphCodec(this);
+    }
+
+    private void releaseCodec(GraphCodec codec) {
+        if (codec.capacity() > Math.max(maxPooledScopeCapacity, expectedGraphSize * 2)) {
+            return;
+        }
+
+        codec.reset();
+        codecs.offer(codec);
+    }
+
+    Copier copierOf(Class<?> c) {
+        return strategies != null ? strategies.of(c) : Copiers.of(c);
+    }
+
+    //Есть ли у класса поля, которые ClonePlan считает неизменяемыми,
+    //но для типа которых зарегистрирована стратегия
+    boolean overridesImmutableFields(Class<?> c) {
+        return strategies != null && strategies.overridesImmutableFields(c);
+    }
+
+    static boolean isImmutable(Class<?> c) {
+        return Immutability.isImmutable(c);
     }
 }
@@ -1,14 +1,65 @@
 package deepclone;
 
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
-
+import org.junit.jupiter.api.io.TempDir;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.Year;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.regex.Pattern;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.BiConsumer;
 import java.util.function.Function;
+import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -64,6 +115,164 @@ public class ClonerTests {
             SomeRecord rClone = cloner.deepClone(r);
 
             assertSame(r, rClone);
+
+            //Записи с изменяемыми компонентами клонируются
+            //через канонический конструктор
+            record MutableRecord(int foo, List<Element> list, int[] array, SomeRecord some) {}
+
+            MutableRecord m = new MutableRecord(
+                7,
+                new ArrayList<>(List.of(new Element(1))),
+                new int[] { 1, 2 },
+                r
+            );
+
+            MutableRecord mClone = cloner.deepClone(m);
+
+            assertNotSame(m, mClone);
+            assertEquals(m.foo(), mClone.foo());
+            assertIterableElementsEqualButNotSame(m.list(), mClone.list());
+            assertNotSame(m.array(), mClone.array());
+            assertArrayEquals(m.array(), mClone.array());
+            assertSame(m.some(), mClone.some());
+        }
+
+        @Test
+        public void test_recordWithOverriddenAccessor() throws IllegalAccessException {
+            //Метод доступа возвращает вычисленную копию. Клон должен
+            //получить само поле, иначе значения удвоятся еще раз
+            record Doubled(double[] values) {
+                @Override
+                public double[] values() {
+                    return Arrays.stream(values).map(v -> v * 2).toArray();
+                }
+            }
+
+            Doubled original = new Doubled(new double[] { 1, 2 });
+            Doubled clone = cloner.deepClone(original);
+
+            assertNotSame(original, clone);
+            assertArrayEquals(original.values(), clone.values());
+        }
+
+        @Test
+        public void test_recordInCycle() throws IllegalAccessException {
+            record Box(List<Object> items) {}
+
+            Box box = new Box(new ArrayList<>());
+            box.items().add(box);
+
+            Box clone = cloner.deepClone(box);
+
+            assertNotSame(box, clone);
+            assertSame(clone, clone.items().get(0));
+        }
+
+        enum Color {
+            RED,
+            GREEN {
+                @Override
+                public String toString() {
+                    return "green";
+                }
+            }
+        }
+
+        @Immutable
+        static class Annotated {
+            public int value = 1;
+        }
+
+        static final class Money {
+            private final BigDecimal amount;
+            private final Currency currency;
+
+            Money(BigDecimal amount, Currency currency) {
+                this.amount = amount;
+                this.currency = currency;
+            }
+        }
+
+        static final class Currency {
+            private final String code;
+            private final Money minimalUnit;
+
+            Currency(String code) {
+                this.code = code;
+                this.minimalUnit = null;
+            }
+        }
+
+        static final class NotImmutable {
+            private final Element element = new Element(1);
+        }
+
+        @Test
+        public void test_enums() throws IllegalAccessException {
+            Color[] colors = { Color.RED, Color.GREEN };
+            Color[] clone = cloner.deepClone(colors);
+
+            assertNotSame(colors, clone);
+            assertSame(Color.RED, clone[0]);
+            assertSame(Color.GREEN, clone[1]);
+            assertSame(TimeUnit.DAYS, cloner.deepClone(TimeUnit.DAYS));
+        }
+
+        @Test
+        public void test_jdkValueTypes() throws IllegalAccessException {
+            Object[] values = {
+                new BigDecimal("1.5"),
+                BigInteger.TEN,
+                UUID.randomUUID(),
+                LocalDate.of(2020, 1, 1),
+                ZoneId.of("Europe/Moscow"),
+                Duration.ofSeconds(1),
+                OptionalInt.of(1),
+                String.class
+            };
+
+            Object[] clone = cloner.deepClone(values);
+
+            for (int i = 0; i < values.length; ++i) {
+                assertSame(values[i], clone[i]);
+            }
+        }
+
+        @Test
+        public void test_optional() throws IllegalAccessException {
+            Optional<String> immutable = Optional.of("a");
+            Optional<Element> mutable = Optional.of(new Element(1));
+
+            assertSame(immutable, cloner.deepClone(immutable));
+            assertSame(Optional.empty(), cloner.deepClone(Optional.empty()));
+
+            Optional<Element> clone = cloner.deepClone(mutable);
+
+            assertEqualButNotSame(mutable.get(), clone.get());
+        }
+
+        @Test
+        public void test_annotatedImmutable() throws IllegalAccessException {
+            Annotated a = new Annotated();
+
+            assertSame(a, cloner.deepClone(a));
+        }
+
+        @Test
+        public void test_effectivelyImmutable() throws IllegalAccessException {
+            //Money и Currency ссылаются друг на друга через final поля
+            Money m = new Money(BigDecimal.ONE, new Currency("RUB"));
+
+            assertSame(m, cloner.deepClone(m));
+        }
+
+        @Test
+        public void test_finalFieldOfMutableTypeIsCloned() throws IllegalAccessException {
+            NotImmutable n = new NotImmutable();
+            NotImmutable clone = cloner.deepClone(n);
+
+            assertNotSame(n, clone);
+            assertEqualButNotSame(n.element, clone.element);
         }
     }
 
@@ -234,6 +443,228 @@ public class ClonerTests {
         }
     }
 
+    @Nested
+    class ClonePlanIsBuiltOncePerClass {
+        @Test
+        public void test() throws IllegalAccessException {
+            var c = AccessModifiersAndInheritance.C.class;
+
+            new Cloner().deepClone(new AccessModifiersAndInheritance.C());
+            ClonePlan plan = ClonePlan.of(c);
+
+            //План общий для всех экземпляров Cloner и не
+            //пересобирается при повторном клонировании
+            new Cloner().deepClone(new AccessModifiersAndInheritance.C());
+            cloner.deepClone(new AccessModifiersAndInheritance.C());
+
+            assertSame(plan, ClonePlan.of(c));
+
+            //Поля всех трех классов иерархии уже собраны в плане
+            assertEquals(12, plan.fields().length);
+        }
+    }
+
+    @Nested
+    class PrimitiveFieldsAreCopiedWithoutBoxing {
+        static class Primitives {
+            public boolean z = true;
+            public char c = 'c';
+            public byte b = 1;
+            public short s = 2;
+            public int i = 1_000_000;
+            public long l = Long.MAX_VALUE;
+            public float f = 3.5f;
+            public double d = Math.PI;
+        }
+
+        @Test
+        public void test_values() throws IllegalAccessException {
+            Primitives original = new Primitives();
+            Primitives clone = cloner.deepClone(original);
+
+            assertEquals(original.z, clone.z);
+            assertEquals(original.c, clone.c);
+            assertEquals(original.b, clone.b);
+            assertEquals(original.s, clone.s);
+            assertEquals(original.i, clone.i);
+            assertEquals(original.l, clone.l);
+            assertEquals(original.f, clone.f);
+            assertEquals(original.d, clone.d);
+        }
+
+        @Test
+        public void test_noAllocations() throws IllegalAccessException {
+            var threads = (com.sun.management.ThreadMXBean)
+                ManagementFactory.getThreadMXBean();
+
+            long threadId = Thread.currentThread().getId();
+
+            ClonePlan plan = ClonePlan.of(Primitives.class);
+            Primitives original = new Primitives();
+            Primitives clone = new Primitives();
+
+            final int iterations = 100_000;
+
+            for (int i = 0; i < iterations; ++i) {
+                plan.copyPrimitives(original, clone);
+            }
+
+            long before = threads.getThreadAllocatedBytes(threadId);
+
+            for (int i = 0; i < iterations; ++i) {
+                plan.copyPrimitives(original, clone);
+            }
+
+            long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+
+            //С упаковкой каждое long/double поле стоило бы 16+ байт, то есть
+            //больше 1.6 МБ на все итерации. Меньше байта на итерацию
+            //оставляет место только для случайных выделений JVM
+            assertTrue(allocated < iterations, "Выделено байт: " + allocated);
+        }
+    }
+
+    @Nested
+    class GeneratedCopiers {
+        static class Base {
+            private long id;
+            private String name;
+
+            Base(long id, String name) {
+                this.id = id;
+                this.name = name;
+            }
+        }
+
+        static class Dto extends Base {
+            private int count;
+            private double price;
+            private final int fixed;
+            private int[] history;
+            private Element element;
+            private Dto self;
+
+            Dto(long id, String name, int count) {
+                super(id, name);
+
+                this.count = count;
+                this.price = count * 1.5;
+                this.fixed = count + 1;
+                this.history = new int[] { count, count * 2 };
+                this.element = new Element(count);
+                this.self = this;
+            }
+        }
+
+        static class Cold {
+            public int value;
+        }
+
+        @Test
+        public void test_copiesAllFields() throws IllegalAccessException {
+            Cloner compiling = Cloner.builder().compilationThreshold(1).build();
+
+            for (int i = 0; i < 3; ++i) {
+                Dto original = new Dto(i, "Dto " + i, i * 10);
+                Dto clone = compiling.deepClone(original);
+
+                assertNotSame(original, clone);
+                assertEquals(((Base)original).id, ((Base)clone).id);
+                assertSame(((Base)original).name, ((Base)clone).name);
+                assertEquals(original.count, clone.count);
+                assertEquals(original.price, clone.price);
+                assertEquals(original.fixed, clone.fixed);
+
+                assertNotSame(original.history, clone.history);
+                assertArrayEquals(original.history, clone.history);
+
+                assertEqualButNotSame(original.element, clone.element);
+                assertSame(clone, clone.self);
+            }
+
+            assertTrue(ClonePlan.of(Dto.class).isCompiled());
+        }
+
+        @Test
+        public void test_coldClassesStayReflective() throws IllegalAccessException {
+            Cloner compiling = Cloner.builder().compilationThreshold(100).build();
+
+            compiling.deepClone(new Cold());
+            new Cloner().deepClone(new Cold());
+
+            assertFalse(ClonePlan.of(Cold.class).isCompiled());
+        }
+    }
+
+    @Nested
+    class InstantiationStrategies {
+        static class WithConstructor {
+            static int constructorCalls = 0;
+
+            public int value = 1;
+
+            public WithConstructor() {
+                ++constructorCalls;
+            }
+        }
+
+        static class WithoutNoArgConstructor {
+            public int value;
+
+            public WithoutNoArgConstructor(int value) {
+                this.value = value;
+            }
+        }
+
+        @Test
+        public void test_objenesis() throws IllegalAccessException {
+            testStrategy(InstantiationStrategy.objenesis());
+        }
+
+        @Test
+        public void test_unsafe() throws IllegalAccessException {
+            testStrategy(InstantiationStrategy.unsafe());
+        }
+
+        @Test
+        public void test_noArgConstructor() throws IllegalAccessException {
+            int callsBefore = WithConstructor.constructorCalls;
+
+            testStrategy(InstantiationStrategy.noArgConstructor());
+
+            //Один вызов - создание оригинала, второй - создание клона
+            assertEquals(callsBefore + 2, WithConstructor.constructorCalls);
+        }
+
+        @Test
+        public void test_noArgConstructorIsRequired() {
+            Cloner c = new Cloner(InstantiationStrategy.noArgConstructor());
+
+            assertThrows(
+                IllegalArgumentException.class,
+                () -> c.deepClone(new WithoutNoArgConstructor(42))
+            );
+        }
+
+        @Test
+        public void test_strategiesAreShared() {
+            assertSame(InstantiationStrategy.objenesis(), InstantiationStrategy.objenesis());
+            assertSame(InstantiationStrategy.unsafe(), InstantiationStrategy.unsafe());
+        }
+
+        private void testStrategy(InstantiationStrategy strategy)
+            throws IllegalAccessException
+        {
+            WithConstructor original = new WithConstructor();
+            original.value = 42;
+
+            WithConstructor clone = new Cloner(strategy).deepClone(original);
+
+            assertNotSame(original, clone);
+            assertEquals(42, clone.value);
+        }
+    }
+
     @Nested
     class StaticFieldsAreIgnored {
         static class Foo {
@@ -468,6 +899,203 @@ public class ClonerTests {
         }
     }
 
+    @Nested
+    class LongChainsDoNotOverflowStack {
+        static class Node {
+            public int value;
+            public Node next;
+
+            public Node(int value, Node next) {
+                this.value = value;
+                this.next = next;
+            }
+        }
+
+        private static final int length = 1_000_000;
+
+        @Test
+        public void test_linkedChain() throws IllegalAccessException {
+            Node head = null;
+
+            for (int i = length - 1; i >= 0; --i) {
+                head = new Node(i, head);
+            }
+
+            Node clone = cloner.deepClone(head);
+
+            Node o = head;
+            Node c = clone;
+            int count = 0;
+
+            while (o != null) {
+                assertNotSame(o, c);
+                assertEquals(o.value, c.value);
+
+                o = o.next;
+                c = c.next;
+                ++count;
+            }
+
+            assertNull(c);
+            assertEquals(length, count);
+        }
+
+        @Test
+        public void test_chainOfLists() throws IllegalAccessException {
+            List<Object> head = new ArrayList<>();
+            List<Object> current = head;
+
+            for (int i = 0; i < length; ++i) {
+                List<Object> next = new ArrayList<>();
+                current.add(next);
+                current = next;
+            }
+
+            List<Object> clone = cloner.deepClone(head);
+            int count = 0;
+
+            while (!clone.isEmpty()) {
+                @SuppressWarnings("unchecked")
+                List<Object> next = (List<Object>)clone.get(0);
+
+                clone = next;
+                ++count;
+            }
+
+            assertEquals(length, count);
+        }
+    }
+
+    @Nested
+    class SharedClonerIsThreadSafe {
+        @Test
+        public void test_reuseDoesNotReturnStaleClones() throws IllegalAccessException {
+            Element original = new Element(1);
+
+            Element first = cloner.deepClone(original);
+            original.value = 2;
+            Element second = cloner.deepClone(original);
+
+            assertNotSame(first, second);
+            assertEquals(new Element(1), first);
+            assertEquals(new Element(2), second);
+        }
+
+        @Test
+        public void test_concurrentCalls() throws Exception {
+            final int threads = 32;
+            final int iterations = 2_000;
+
+            var original = new LinkedListWithHeadAndTail.LinkedList(1, 2, 3, 4, 5);
+            var crazy = new SelfReferencingObject.Crazy();
+
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            CountDownLatch start = new CountDownLatch(1);
+
+            try {
+                List<Future<?>> futures = new ArrayList<>();
+
+                for (int t = 0; t < threads; ++t) {
+                    futures.add(executor.submit(() -> {
+                        start.await();
+
+                        for (int i = 0; i < iterations; ++i) {
+                            Object[] graph = { original, crazy, original };
+                            Object[] clone = cloner.deepClone(graph);
+
+                            var list = (LinkedListWithHeadAndTail.LinkedList)clone[0];
+                            var crazyClone = (SelfReferencingObject.Crazy)clone[1];
+
+                            assertEqualButNotSame(original, list);
+                            assertFalse(list.isBroken());
+                            assertSame(list, clone[2]);
+                            assertNotSame(crazy, crazyClone);
+                            assertSame(crazyClone, crazyClone.self);
+                        }
+
+                        return null;
+                    }));
+                }
+
+                start.countDown();
+
+                for (Future<?> f : futures) {
+                    f.get(1, TimeUnit.MINUTES);
+                }
+            }
+            finally {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    @Nested
+    class IdentityTableOfClones {
+        @Test
+        public void test_putGetAndResize() {
+            IdentityTable table = new IdentityTable(0);
+            Element[] keys = new Element[100_000];
+
+            for (int i = 0; i < keys.length; ++i) {
+                //Равные по equals ключи должны различаться
+                keys[i] = new Element(i % 10);
+                table.put(keys[i], i);
+            }
+
+            assertEquals(keys.length, table.size());
+
+            for (int i = 0; i < keys.length; ++i) {
+                assertEquals(i, table.get(keys[i]));
+            }
+
+            assertNull(table.get(new Element(1)));
+        }
+
+        @Test
+        public void test_clearKeepsCapacity() {
+            IdentityTable table = new IdentityTable(1_000);
+            int capacity = table.capacity();
+
+            for (int i = 0; i < 1_000; ++i) {
+                table.put(new Object(), i);
+            }
+
+            assertEquals(capacity, table.capacity());
+
+            Object key = new Object();
+            table.put(key, 1);
+            table.clear();
+
+            assertEquals(0, table.size());
+            assertEquals(capacity, table.capacity());
+            assertNull(table.get(key));
+        }
+    }
+
+    @Nested
+    class TreeInputs {
+        @Test
+        public void test() throws IllegalAccessException {
+            Element shared = new Element(1);
+            Element[][] tree = { { new Element(0), shared }, { new Element(2) } };
+
+            Element[][] clone = cloner.deepCloneTree(tree);
+
+            assertArrayElementsEqualButNotSame(tree, clone, 2);
+        }
+
+        @Test
+        public void test_sharedReferencesAreNotTracked() throws IllegalAccessException {
+            Element shared = new Element(1);
+            Element[] notATree = { shared, shared };
+
+            Element[] clone = cloner.deepCloneTree(notATree);
+
+            assertNotSame(clone[0], clone[1]);
+            assertEquals(clone[0], clone[1]);
+        }
+    }
+
     static class Element {
         private double value;
 
@@ -555,6 +1183,45 @@ public class ClonerTests {
             assertArrayElementsEqualButNotSame(jagged, clone, 2);
         }
 
+        @Test
+        public void test_primitiveArray() throws IllegalAccessException {
+            double[] array = new double[65536];
+
+            for (int i = 0; i < array.length; ++i) {
+                array[i] = i * 0.5;
+            }
+
+            double[] clone = cloner.deepClone(array);
+
+            assertNotSame(array, clone);
+            assertArrayEquals(array, clone);
+        }
+
+        @Test
+        public void test_immutableElementsAreShared() throws IllegalAccessException {
+            String[] array = { "a", "b", null, "c" };
+            String[] clone = cloner.deepClone(array);
+
+            assertNotSame(array, clone);
+
+            for (int i = 0; i < array.length; ++i) {
+                assertSame(array[i], clone[i]);
+            }
+        }
+
+        @Test
+        public void test_2dPrimitiveArray() throws IllegalAccessException {
+            int[][] array = { { 1, 2, 3 }, { 4, 5 }, {} };
+            int[][] clone = cloner.deepClone(array);
+
+            assertNotSame(array, clone);
+
+            for (int i = 0; i < array.length; ++i) {
+                assertNotSame(array[i], clone[i]);
+                assertArrayEquals(array[i], clone[i]);
+            }
+        }
+
         private Element[][] makeJaggedArray() {
             int[] sizes = { 1, 2, 0, 5, 6, 10 };
             Element[][] array = new Element[sizes.length][];
@@ -586,8 +1253,95 @@ public class ClonerTests {
             testList(new LinkedList<>());
         }
 
-        private void testList(List<Element> list)
-            throws IllegalAccessException
+        @Test
+        public void test_listOf() throws IllegalAccessException {
+            List<Element> list = List.of(new Element(1), new Element(2));
+            List<Element> clone = cloner.deepClone(list);
+
+            assertNotSame(list, clone);
+            assertIterableElementsEqualButNotSame(list, clone);
+            assertThrows(UnsupportedOperationException.class, () -> clone.add(null));
+        }
+
+        @Test
+        public void test_listOfImmutableElementsIsShared() throws IllegalAccessException {
+            List<String> list = List.of("a", "b", "c");
+
+            assertSame(list, cloner.deepClone(list));
+        }
+
+        @Test
+        public void test_unmodifiableList() throws IllegalAccessException {
+            List<Element> backing = new ArrayList<>(List.of(new Element(1)));
+            List<Element> list = Collections.unmodifiableList(backing);
+
+            List<Element> clone = cloner.deepClone(list);
+
+            //Изменения исходного списка не должны быть видны в клоне
+            backing.add(new Element(2));
+
+            assertEquals(1, clone.size());
+            assertEqualButNotSame(list.get(0), clone.get(0));
+            assertThrows(UnsupportedOperationException.class, () -> clone.add(null));
+        }
+
+        @Test
+        public void test_arraysAsList() throws IllegalAccessException {
+            List<Element> list = Arrays.asList(new Element(1), new Element(2));
+            List<Element> clone = cloner.deepClone(list);
+
+            assertNotSame(list, clone);
+            assertIterableElementsEqualButNotSame(list, clone);
+        }
+
+        @Test
+        public void test_ArrayDeque() throws IllegalAccessException {
+            ArrayDeque<Element> deque = new ArrayDeque<>();
+
+            for (int i = 0; i < 10; ++i) {
+                deque.add(new Element(i));
+            }
+
+            ArrayDeque<Element> clone = cloner.deepClone(deque);
+
+            assertNotSame(deque, clone);
+            assertIterableElementsEqualButNotSame(deque, clone);
+        }
+
+        @Test
+        public void test_immutableElementsAreShared() throws IllegalAccessException {
+            List<String> list = new ArrayList<>(List.of("a", "b"));
+            List<String> clone = cloner.deepClone(list);
+
+            assertNotSame(list, clone);
+            assertSame(list.get(0), clone.get(0));
+            assertSame(list.get(1), clone.get(1));
+        }
+
+        @Test
+        public void test_listContainingItself() throws IllegalAccessException {
+            List<Object> list = new ArrayList<>();
+            list.add(list);
+
+            List<Object> clone = cloner.deepClone(list);
+
+            assertNotSame(list, clone);
+            assertSame(clone, clone.get(0));
+        }
+
+        @Test
+        public void test_sharedListIsClonedOnce() throws IllegalAccessException {
+            List<Element> shared = new LinkedList<>(List.of(new Element(1)));
+            Object[] graph = { shared, shared };
+
+            Object[] clone = cloner.deepClone(graph);
+
+            assertNotSame(shared, clone[0]);
+            assertSame(clone[0], clone[1]);
+        }
+
+        private void testList(List<Element> list)
+            throws IllegalAccessException
         {
             for (int i = 0; i < 10; ++i) {
                 list.add(new Element(i));
@@ -599,4 +1353,2293 @@ public class ClonerTests {
             assertIterableElementsEqualButNotSame(list, clone);
         }
     }
+
+    //Хеш и порядок зависят от полей, которые у клона заполняются позже
+    static class Key implements Comparable<Key> {
+        private String name;
+
+        public Key(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Key k && name.equals(k.name);
+        }
+
+        @Override
+        public int hashCode() {
+            return name.hashCode();
+        }
+
+        @Override
+        public int compareTo(Key o) {
+            return name.compareTo(o.name);
+        }
+    }
+
+    @Nested
+    class ClonesMapsAndSets {
+        @Test
+        public void test_HashMap() throws IllegalAccessException {
+            testMap(new HashMap<>());
+        }
+
+        @Test
+        public void test_LinkedHashMap() throws IllegalAccessException {
+            testMap(new LinkedHashMap<>());
+        }
+
+        @Test
+        public void test_accessOrderedLinkedHashMap() throws IllegalAccessException {
+            Map<String, Integer> immutable = new LinkedHashMap<>(16, 0.75f, true);
+            Map<String, Element> mutable = new LinkedHashMap<>(16, 0.75f, true);
+            Map<Key, Integer> mutableKeys = new LinkedHashMap<>(16, 0.75f, true);
+
+            immutable.put("a", 1);
+            immutable.put("b", 2);
+            immutable.get("a");
+
+            mutable.put("a", new Element(1));
+            mutable.put("b", new Element(2));
+            mutable.get("a");
+
+            mutableKeys.put(new Key("a"), 1);
+            mutableKeys.put(new Key("b"), 2);
+            mutableKeys.get(new Key("a"));
+
+            Map<String, Integer> immutableClone = cloner.deepClone(immutable);
+            Map<String, Element> mutableClone = cloner.deepClone(mutable);
+            Map<Key, Integer> mutableKeysClone = cloner.deepClone(mutableKeys);
+
+            assertIterableEquals(List.of("b", "a"), immutableClone.keySet());
+            assertIterableEquals(List.of("b", "a"), mutableClone.keySet());
+            assertIterableEquals(List.of(new Key("b"), new Key("a")), mutableKeysClone.keySet());
+
+            //Клон тоже упорядочен по обращениям
+            immutableClone.get("b");
+            mutableClone.get("b");
+            mutableKeysClone.get(new Key("b"));
+
+            assertIterableEquals(List.of("a", "b"), immutableClone.keySet());
+            assertIterableEquals(List.of("a", "b"), mutableClone.keySet());
+            assertIterableEquals(List.of(new Key("a"), new Key("b")), mutableKeysClone.keySet());
+        }
+
+        @Test
+        public void test_TreeMap() throws IllegalAccessException {
+            testMap(new TreeMap<>(Comparator.reverseOrder()));
+        }
+
+        @Test
+        public void test_ConcurrentHashMap() throws IllegalAccessException {
+            testMap(new ConcurrentHashMap<>());
+        }
+
+        @Test
+        public void test_EnumMap() throws IllegalAccessException {
+            EnumMap<TimeUnit, Element> map = new EnumMap<>(TimeUnit.class);
+            map.put(TimeUnit.SECONDS, new Element(1));
+            map.put(TimeUnit.DAYS, new Element(2));
+
+            EnumMap<TimeUnit, Element> clone = cloner.deepClone(map);
+
+            assertNotSame(map, clone);
+            assertIterableEquals(map.keySet(), clone.keySet());
+            assertIterableElementsEqualButNotSame(map.values(), clone.values());
+        }
+
+        @Test
+        public void test_mutableKeysAreFoundInClone() throws IllegalAccessException {
+            testMutableKeys(new HashMap<>());
+            testMutableKeys(new LinkedHashMap<>());
+            testMutableKeys(new TreeMap<>());
+            testMutableKeys(new ConcurrentHashMap<>());
+        }
+
+        @Test
+        public void test_HashSet() throws IllegalAccessException {
+            testSet(new HashSet<>());
+        }
+
+        @Test
+        public void test_LinkedHashSet() throws IllegalAccessException {
+            testSet(new LinkedHashSet<>());
+        }
+
+        @Test
+        public void test_TreeSet() throws IllegalAccessException {
+            testSet(new TreeSet<>(Comparator.reverseOrder()));
+        }
+
+        @Test
+        public void test_immutableKeysAndValuesAreShared() throws IllegalAccessException {
+            Map<String, Integer> map = new LinkedHashMap<>();
+            map.put("a", 1000);
+            map.put("b", 2000);
+
+            Map<String, Integer> clone = cloner.deepClone(map);
+
+            assertNotSame(map, clone);
+            assertEquals(map, clone);
+            assertSame(map.get("a"), clone.get("a"));
+        }
+
+        @Test
+        public void test_mapContainingItself() throws IllegalAccessException {
+            Map<Key, Object> map = new HashMap<>();
+            map.put(new Key("self"), map);
+
+            Map<Key, Object> clone = cloner.deepClone(map);
+
+            assertNotSame(map, clone);
+            assertSame(clone, clone.get(new Key("self")));
+        }
+
+        @Test
+        public void test_nestedSetsOfMutableKeys() throws IllegalAccessException {
+            Set<Set<Key>> sets = new HashSet<>();
+            sets.add(new HashSet<>(Set.of(new Key("a"), new Key("b"))));
+            sets.add(new HashSet<>(Set.of(new Key("c"))));
+
+            Set<Set<Key>> clone = cloner.deepClone(sets);
+
+            //Внешнее множество хеширует внутренние уже заполненными
+            assertEquals(sets, clone);
+            assertTrue(clone.contains(Set.of(new Key("c"))));
+        }
+
+        //Общее множество объявлено после словаря, поэтому заполняется
+        //позже, но в словарь должно попасть уже достроенным
+        static class SetKeyHolder {
+            public Map<Set<Key>, String> map = new HashMap<>();
+            public Set<Key> set = new HashSet<>();
+        }
+
+        @Test
+        public void test_sharedSetKeyDeclaredAfterMap() throws IllegalAccessException {
+            SetKeyHolder holder = new SetKeyHolder();
+            holder.set.add(new Key("a"));
+            holder.set.add(new Key("b"));
+            holder.map.put(holder.set, "v");
+
+            SetKeyHolder clone = cloner.deepClone(holder);
+
+            assertNotSame(holder.set, clone.set);
+            assertSame(clone.set, clone.map.keySet().iterator().next());
+            assertEquals("v", clone.map.get(clone.set));
+        }
+
+        private void testMap(Map<Key, Element> map) throws IllegalAccessException {
+            for (int i = 0; i < 100; ++i) {
+                map.put(new Key("k" + i), new Element(i));
+            }
+
+            Map<Key, Element> clone = cloner.deepClone(map);
+
+            assertInstanceOf(map.getClass(), clone);
+            assertIterableElementsEqualButNotSame(map.keySet(), clone.keySet());
+            assertIterableElementsEqualButNotSame(map.values(), clone.values());
+        }
+
+        private void testMutableKeys(Map<Key, String> map) throws IllegalAccessException {
+            map.put(new Key("x"), "1");
+            map.put(new Key("y"), "2");
+
+            Map<Key, String> clone = cloner.deepClone(map);
+
+            assertEquals("1", clone.get(new Key("x")));
+            assertEquals("2", clone.get(new Key("y")));
+        }
+
+        private void testSet(Set<Key> set) throws IllegalAccessException {
+            for (int i = 0; i < 100; ++i) {
+                set.add(new Key("k" + i));
+            }
+
+            Set<Key> clone = cloner.deepClone(set);
+
+            assertInstanceOf(set.getClass(), clone);
+            assertIterableElementsEqualButNotSame(set, clone);
+
+            for (Key k : set) {
+                assertTrue(clone.contains(k));
+            }
+        }
+    }
+
+    @Nested
+    class RegisteredStrategies {
+        interface Shape { }
+
+        static class Circle implements Shape {
+            public Element center = new Element(0);
+            public double radius = 1;
+        }
+
+        static class Square implements Shape {
+            public Element corner = new Element(0);
+        }
+
+        static class Holder {
+            public Circle circle = new Circle();
+            public Square square = new Square();
+            public Element element = new Element(5);
+        }
+
+        @Test
+        public void test_customStrategy() throws IllegalAccessException {
+            Cloner cloner = Cloner.builder()
+                .strategy(Circle.class, (original, context) -> {
+                    Circle clone = new Circle();
+                    clone.center = (Element)context.cloneReference(original.center);
+                    clone.radius = original.radius * 2;
+                    return clone;
+                })
+                .build();
+
+            Holder holder = new Holder();
+            Holder clone = cloner.deepClone(holder);
+
+            assertEquals(2, clone.circle.radius);
+            assertEqualButNotSame(holder.circle.center, clone.circle.center);
+            assertEqualButNotSame(holder.square.corner, clone.square.corner);
+        }
+
+        @Test
+        public void test_shareAndNullOut() throws IllegalAccessException {
+            Cloner cloner = Cloner.builder()
+                .strategy(Circle.class, CloneStrategy.share())
+                .strategy(Element.class, CloneStrategy.nullOut())
+                .build();
+
+            Holder holder = new Holder();
+            Holder clone = cloner.deepClone(holder);
+
+            assertSame(holder.circle, clone.circle);
+            assertNull(clone.element);
+            assertNull(clone.square.corner);
+        }
+
+        @Test
+        public void test_nullOutInsideOptional() throws IllegalAccessException {
+            Cloner cloner = Cloner.builder()
+                .strategy(Element.class, CloneStrategy.nullOut())
+                .build();
+
+            assertEquals(Optional.empty(), cloner.deepClone(Optional.of(new Element(1))));
+        }
+
+        @Test
+        public void test_subtypeStrategy() throws IllegalAccessException {
+            Cloner cloner = Cloner.builder()
+                .subtypeStrategy(Shape.class, CloneStrategy.share())
+                .strategy(Square.class, CloneStrategy.nullOut())
+                .build();
+
+            Holder holder = new Holder();
+            Holder clone = cloner.deepClone(holder);
+
+            //Стратегия для точного класса важнее стратегии супертипа
+            assertSame(holder.circle, clone.circle);
+            assertNull(clone.square);
+            assertEqualButNotSame(holder.element, clone.element);
+        }
+
+        @Test
+        public void test_packageStrategy() throws IllegalAccessException {
+            Cloner cloner = Cloner.builder()
+                .packageStrategy("deepclone", CloneStrategy.share())
+                .packageStrategy("deep", CloneStrategy.nullOut())
+                .build();
+
+            Holder holder = new Holder();
+
+            //Самый длинный подходящий префикс - "deepclone"
+            assertSame(holder, cloner.deepClone(holder));
+        }
+
+        @Test
+        public void test_packagePrefixMatchesWholeNames() throws IllegalAccessException {
+            Cloner cloner = Cloner.builder()
+                .packageStrategy("deep", CloneStrategy.nullOut())
+                .build();
+
+            Holder holder = new Holder();
+
+            assertNotSame(holder, cloner.deepClone(holder));
+        }
+
+        static final class Money {
+            private final long cents;
+
+            Money(long cents) {
+                this.cents = cents;
+            }
+        }
+
+        enum Unit { CENT }
+
+        static class Wallet {
+            public Money money = new Money(5);
+            public Object any = new Money(7);
+            public List<Money> history = new ArrayList<>(List.of(new Money(1)));
+            public Optional<Money> last = Optional.of(new Money(3));
+        }
+
+        @Test
+        public void test_strategyForEffectivelyImmutableClass() throws IllegalAccessException {
+            assertTrue(Cloner.isImmutable(Money.class));
+
+            Cloner cloner = Cloner.builder()
+                .strategy(Money.class, (original, context) -> new Money(original.cents * 100))
+                .build();
+
+            Wallet clone = cloner.deepClone(new Wallet());
+
+            assertEquals(200, cloner.deepClone(new Money(2)).cents);
+            assertEquals(500, clone.money.cents);
+            assertEquals(700, ((Money)clone.any).cents);
+            assertEquals(100, clone.history.get(0).cents);
+            assertEquals(300, clone.last.orElseThrow().cents);
+        }
+
+        @Test
+        public void test_arrayOfEffectivelyImmutableClassWithStrategy() throws IllegalAccessException {
+            Money[] money = { new Money(1), new Money(2) };
+
+            Cloner nullOut = Cloner.builder()
+                .strategy(Money.class, CloneStrategy.nullOut())
+                .build();
+
+            Cloner copy = Cloner.builder()
+                .strategy(Money.class, (original, context) -> new Money(original.cents * 100))
+                .build();
+
+            assertArrayEquals(new Money[2], nullOut.deepClone(money));
+
+            Money[] clone = copy.deepClone(money);
+
+            assertEquals(100, clone[0].cents);
+            assertEquals(200, clone[1].cents);
+            assertSame(money[0], Cloner.builder().build().deepClone(money)[0]);
+        }
+
+        @Test
+        public void test_packageStrategyForEffectivelyImmutableClass() throws IllegalAccessException {
+            Cloner cloner = Cloner.builder()
+                .packageStrategy("deepclone", CloneStrategy.nullOut())
+                .build();
+
+            assertNull(cloner.deepClone(new Money(2)));
+            //Перечисления переносятся как есть: их идентичность важна
+            assertSame(Unit.CENT, cloner.deepClone(Unit.CENT));
+        }
+
+        @Test
+        public void test_builtInImmutableTypesAreAlwaysShared() throws IllegalAccessException {
+            Cloner cloner = Cloner.builder()
+                .packageStrategy("java.lang", CloneStrategy.nullOut())
+                .build();
+
+            String s = "abc";
+
+            assertSame(s, cloner.deepClone(s));
+        }
+    }
+
+    @Nested
+    class ParallelCloning {
+        static class Vertex {
+            public int id;
+            public Vertex[] edges;
+
+            public Vertex(int id) {
+                this.id = id;
+            }
+        }
+
+        private ForkJoinPool pool;
+        private Cloner parallelCloner;
+
+        @BeforeEach
+        public void createPool() {
+            pool = new ForkJoinPool(4);
+            parallelCloner = Cloner.builder()
+                .parallel(pool, 64)
+                .build();
+        }
+
+        @AfterEach
+        public void shutdownPool() {
+            pool.shutdown();
+        }
+
+        @Test
+        public void test_sharedAndCyclicReferencesAreClonedOnce() throws IllegalAccessException {
+            final int size = 100_000;
+            Vertex[] vertices = new Vertex[size];
+
+            for (int i = 0; i < size; ++i) {
+                vertices[i] = new Vertex(i);
+            }
+
+            //Кольцо плюс хорды на общие вершины
+            for (int i = 0; i < size; ++i) {
+                vertices[i].edges = new Vertex[] {
+                    vertices[(i + 1) % size],
+                    vertices[(i * 31 + 7) % size],
+                    vertices[i % 100]
+                };
+            }
+
+            Vertex[] clone = parallelCloner.deepClone(vertices);
+
+            for (int i = 0; i < size; ++i) {
+                Vertex v = vertices[i];
+                Vertex c = clone[i];
+
+                assertNotSame(v, c);
+                assertEquals(v.id, c.id);
+
+                for (int e = 0; e < v.edges.length; ++e) {
+                    assertSame(clone[v.edges[e].id], c.edges[e]);
+                }
+            }
+        }
+
+        @Test
+        public void test_streamOfRootsSharesParallelClones() {
+            final int size = 10_000;
+            Vertex[] vertices = new Vertex[size];
+
+            for (int i = 0; i < size; ++i) {
+                vertices[i] = new Vertex(i);
+            }
+
+            for (int i = 0; i < size; ++i) {
+                vertices[i].edges = new Vertex[] {
+                    vertices[(i + 1) % size],
+                    vertices[(i * 31 + 7) % size],
+                    null
+                };
+            }
+
+            Cloner cloner = Cloner.builder()
+                .parallel(pool, 4)
+                .build();
+
+            List<Vertex> clones;
+
+            try (Stream<Vertex> stream = cloner.deepCloneAll(Arrays.stream(vertices))) {
+                clones = stream.toList();
+            }
+
+            for (int i = 0; i < size; ++i) {
+                Vertex c = clones.get(i);
+
+                assertNotSame(vertices[i], c);
+                assertSame(clones.get((i + 1) % size), c.edges[0]);
+                assertSame(clones.get((i * 31 + 7) % size), c.edges[1]);
+            }
+        }
+
+        @Test
+        public void test_parallelClonesAreVisibleToScope() throws IllegalAccessException {
+            Vertex shared = new Vertex(-1);
+            Vertex[] vertices = new Vertex[10_000];
+
+            for (int i = 0; i < vertices.length; ++i) {
+                vertices[i] = new Vertex(i);
+                vertices[i].edges = new Vertex[] { shared };
+            }
+
+            CloneScope scope = new CloneScope(parallelCloner);
+            Vertex[] clone = (Vertex[])scope.deepClone(vertices, false);
+
+            //Объекты, склонированные в пуле, записаны в таблицу scope
+            assertSame(clone[0].edges[0], scope.existingClone(shared));
+            assertSame(clone[9_999], scope.existingClone(vertices[9_999]));
+            assertSame(clone[0].edges[0], scope.cloneReference(shared));
+        }
+
+        @Test
+        public void test_listsWithHeadAndTailAndSelfReferences() throws IllegalAccessException {
+            Object[] graph = new Object[30_000];
+
+            for (int i = 0; i < graph.length; i += 3) {
+                var list = new LinkedListWithHeadAndTail.LinkedList(i, i + 1, i + 2);
+
+                graph[i] = list;
+                graph[i + 1] = new SelfReferencingObject.Crazy();
+                graph[i + 2] = list;
+            }
+
+            Object[] clone = parallelCloner.deepClone(graph);
+
+            for (int i = 0; i < graph.length; i += 3) {
+                var list = (LinkedListWithHeadAndTail.LinkedList)clone[i];
+                var crazy = (SelfReferencingObject.Crazy)clone[i + 1];
+
+                assertEqualButNotSame(graph[i], list);
+                assertFalse(list.isBroken());
+                assertSame(list, clone[i + 2]);
+                assertNotSame(graph[i + 1], crazy);
+                assertSame(crazy, crazy.self);
+            }
+        }
+
+        @Test
+        public void test_setsOfMutableKeys() throws IllegalAccessException {
+            List<Set<Key>> sets = new ArrayList<>();
+
+            for (int i = 0; i < 10_000; ++i) {
+                sets.add(new HashSet<>(Set.of(new Key("a" + i), new Key("b" + i))));
+            }
+
+            List<Set<Key>> clone = parallelCloner.deepClone(sets);
+
+            assertEquals(sets, clone);
+            assertTrue(clone.get(42).contains(new Key("a42")));
+        }
+
+        @Test
+        public void test_sharedSetKeysAcrossTasks() throws IllegalAccessException {
+            List<ClonesMapsAndSets.SetKeyHolder> holders = new ArrayList<>();
+
+            for (int i = 0; i < 5_000; ++i) {
+                ClonesMapsAndSets.SetKeyHolder holder = new ClonesMapsAndSets.SetKeyHolder();
+                holder.set.add(new Key("k" + i));
+                holder.map.put(holder.set, "v" + i);
+                holders.add(holder);
+            }
+
+            List<ClonesMapsAndSets.SetKeyHolder> clone = parallelCloner.deepClone(holders);
+
+            for (int i = 0; i < holders.size(); ++i) {
+                assertEquals("v" + i, clone.get(i).map.get(clone.get(i).set));
+            }
+        }
+
+        @Test
+        public void test_largeGraphsAreFilledInPool() throws IllegalAccessException {
+            Set<Thread> threads = ConcurrentHashMap.newKeySet();
+
+            Cloner cloner = Cloner.builder()
+                .parallel(pool, 64)
+                .strategy(Element.class, (original, context) -> {
+                    threads.add(Thread.currentThread());
+                    return new Element(original.value);
+                })
+                .build();
+
+            List<Element[]> graph = new ArrayList<>();
+
+            for (int i = 0; i < 1_000; ++i) {
+                graph.add(new Element[] { new Element(i) });
+            }
+
+            List<Element[]> clone = cloner.deepClone(graph);
+
+            assertEquals(graph.get(999)[0], clone.get(999)[0]);
+            assertTrue(threads.stream().anyMatch(t -> t instanceof ForkJoinWorkerThread));
+        }
+
+        @Test
+        public void test_smallGraphsStayInCallerThread() throws IllegalAccessException {
+            Set<Thread> threads = ConcurrentHashMap.newKeySet();
+
+            Cloner cloner = Cloner.builder()
+                .parallel(pool, 1_000)
+                .strategy(Element.class, (original, context) -> {
+                    threads.add(Thread.currentThread());
+                    return new Element(original.value);
+                })
+                .build();
+
+            Element[] elements = new Element[100];
+            Arrays.setAll(elements, Element::new);
+
+            Object[][] graph = { elements, elements.clone() };
+
+            cloner.deepClone(graph);
+
+            assertEquals(Set.of(Thread.currentThread()), threads);
+        }
+    }
+
+    @Nested
+    class LazyCloning {
+        interface Account {
+            long balance();
+
+            void deposit(long amount);
+
+            Account parent();
+
+            List<Element> history();
+
+            Element last();
+        }
+
+        static class SimpleAccount implements Account {
+            public long balance;
+            public Account parent;
+            public List<Element> history = new ArrayList<>();
+            public Element last = new Element(0);
+
+            public SimpleAccount(long balance) {
+                this.balance = balance;
+            }
+
+            @Override
+            public long balance() {
+                return balance;
+            }
+
+            @Override
+            public void deposit(long amount) {
+                balance += amount;
+                history.add(new Element(amount));
+                last = history.get(history.size() - 1);
+            }
+
+            @Override
+            public Account parent() {
+                return parent;
+            }
+
+            @Override
+            public List<Element> history() {
+                return history;
+            }
+
+            @Override
+            public Element last() {
+                return last;
+            }
+        }
+
+        @Test
+        public void test_cloneIsIndependent() {
+            SimpleAccount original = new SimpleAccount(10);
+            original.deposit(5);
+
+            Account clone = cloner.lazyClone(original, Account.class);
+
+            clone.deposit(100);
+
+            assertEquals(15, original.balance());
+            assertEquals(1, original.history().size());
+            assertEquals(115, clone.balance());
+            assertEquals(2, clone.history().size());
+            assertEqualButNotSame(original.history().get(0), clone.history().get(0));
+        }
+
+        @Test
+        public void test_interfaceFieldsAreLazy() {
+            SimpleAccount parent = new SimpleAccount(1);
+            SimpleAccount child = new SimpleAccount(2);
+            child.parent = parent;
+
+            Account clone = cloner.lazyClone(child, Account.class);
+
+            assertTrue(Proxy.isProxyClass(clone.getClass()));
+            assertEquals(2, clone.balance());
+
+            Account parentClone = clone.parent();
+
+            assertTrue(Proxy.isProxyClass(parentClone.getClass()));
+            assertEquals(1, parentClone.balance());
+        }
+
+        @Test
+        public void test_cyclesReturnTheSameProxy() {
+            SimpleAccount a = new SimpleAccount(1);
+            SimpleAccount b = new SimpleAccount(2);
+            a.parent = b;
+            b.parent = a;
+
+            Account clone = cloner.lazyClone(a, Account.class);
+
+            assertSame(clone, clone.parent().parent());
+        }
+
+        @Test
+        public void test_rootIsCapturedAtCloneTime() {
+            SimpleAccount original = new SimpleAccount(1);
+            original.deposit(2);
+
+            Account clone = cloner.lazyClone(original, Account.class);
+
+            original.deposit(1_000);
+            original.last.value = -1;
+
+            assertEquals(3, clone.balance());
+            assertEquals(new Element(2), clone.last());
+        }
+
+        @Test
+        public void test_lazyAndEagerPartsShareClones() {
+            SimpleAccount parent = new SimpleAccount(1);
+            SimpleAccount child = new SimpleAccount(2);
+            Element shared = new Element(7);
+
+            parent.last = shared;
+            child.last = shared;
+            child.parent = parent;
+            child.history.add(shared);
+
+            Account clone = cloner.lazyClone(child, Account.class);
+
+            Element last = clone.last();
+
+            assertEqualButNotSame(shared, last);
+            assertSame(last, clone.history().get(0));
+            assertSame(last, clone.parent().last());
+        }
+
+        @Test
+        public void test_onlyInterfacesAreSupported() {
+            assertThrows(
+                IllegalArgumentException.class,
+                () -> cloner.lazyClone(new SimpleAccount(1), SimpleAccount.class)
+            );
+        }
+    }
+
+    @Nested
+    class PartialCloning {
+        static class Tree {
+            public Element value = new Element(1);
+            public Tree left;
+            public Tree right;
+            public List<Tree> children = new ArrayList<>();
+
+            @Shallow
+            public Element reference = new Element(2);
+        }
+
+        private Tree chain(int length) {
+            Tree root = new Tree();
+            Tree t = root;
+
+            for (int i = 1; i < length; ++i) {
+                t.left = new Tree();
+                t = t.left;
+            }
+
+            return root;
+        }
+
+        @Test
+        public void test_maxDepth() throws IllegalAccessException {
+            Tree root = chain(4);
+            root.children.add(new Tree());
+
+            Tree clone = cloner.deepClone(root, CloneSpec.builder().maxDepth(2).build());
+
+            assertNotSame(root, clone);
+            assertNotSame(root.left, clone.left);
+            assertNotSame(root.left.left, clone.left.left);
+            assertSame(root.left.left.left, clone.left.left.left);
+
+            //Элементы списка - на уровень глубже самого списка
+            assertNotSame(root.children, clone.children);
+            assertNotSame(root.children.get(0), clone.children.get(0));
+            assertSame(root.children.get(0).value, clone.children.get(0).value);
+        }
+
+        @Test
+        public void test_depthZeroIsShallowCopy() throws IllegalAccessException {
+            Tree root = chain(2);
+            Tree clone = cloner.deepClone(root, CloneSpec.builder().maxDepth(0).build());
+
+            assertNotSame(root, clone);
+            assertSame(root.left, clone.left);
+            assertSame(root.value, clone.value);
+        }
+
+        @Test
+        public void test_include() throws IllegalAccessException {
+            Tree root = chain(3);
+            root.right = new Tree();
+
+            Tree clone = cloner.deepClone(root, CloneSpec.builder().include("left.left").build());
+
+            assertNotSame(root, clone);
+            assertNotSame(root.left, clone.left);
+            assertNotSame(root.left.left, clone.left.left);
+            assertEqualButNotSame(root.left.left.value, clone.left.left.value);
+
+            assertSame(root.value, clone.value);
+            assertSame(root.right, clone.right);
+            assertSame(root.left.value, clone.left.value);
+        }
+
+        @Test
+        public void test_exclude() throws IllegalAccessException {
+            Tree root = chain(3);
+            Tree clone = cloner.deepClone(root, CloneSpec.builder().exclude("left.left").build());
+
+            assertNotSame(root.left, clone.left);
+            assertEqualButNotSame(root.left.value, clone.left.value);
+            assertSame(root.left.left, clone.left.left);
+        }
+
+        @Test
+        public void test_shallowFields() throws IllegalAccessException {
+            Tree root = chain(2);
+
+            CloneSpec spec = CloneSpec.builder()
+                .shallow(Tree.class, "right")
+                .build();
+
+            root.right = new Tree();
+
+            Tree clone = cloner.deepClone(root, spec);
+
+            assertSame(root.reference, clone.reference);
+            assertSame(root.right, clone.right);
+            assertNotSame(root.left, clone.left);
+            assertSame(root.left.reference, clone.left.reference);
+        }
+
+        @Test
+        public void test_specIsReusable() throws IllegalAccessException {
+            CloneSpec spec = CloneSpec.builder().maxDepth(1).build();
+
+            for (int i = 0; i < 3; ++i) {
+                Tree root = chain(3);
+                Tree clone = cloner.deepClone(root, spec);
+
+                assertNotSame(root.left, clone.left);
+                assertSame(root.left.left, clone.left.left);
+            }
+        }
+
+        @Test
+        public void test_nodesArePerDepthNotPerPosition() throws IllegalAccessException {
+            CloneSpec spec = CloneSpec.builder().maxDepth(6).build();
+
+            Tree root = fullTree(8);
+            Tree clone = cloner.deepClone(root, spec);
+
+            assertNotSame(root.right.left.right, clone.right.left.right);
+
+            //По одному узлу на глубину 0..6, а не на каждый путь
+            //по left/right/children к ней
+            assertEquals(7, spec.root.nodeCount());
+        }
+
+        @Test
+        public void test_strategyForEffectivelyImmutableField() throws IllegalAccessException {
+            Cloner nullOut = Cloner.builder()
+                .strategy(RegisteredStrategies.Money.class, CloneStrategy.nullOut())
+                .build();
+
+            CloneSpec spec = CloneSpec.builder().maxDepth(2).build();
+            CloneInto.Priced priced = new CloneInto.Priced();
+
+            assertNull(nullOut.deepClone(priced, spec).price);
+            assertSame(priced.price, cloner.deepClone(priced, spec).price);
+        }
+
+        private Tree fullTree(int depth) {
+            Tree t = new Tree();
+
+            if (depth > 1) {
+                t.left = fullTree(depth - 1);
+                t.right = fullTree(depth - 1);
+            }
+
+            return t;
+        }
+
+        @Test
+        public void test_cyclesInsideSpec() throws IllegalAccessException {
+            Tree root = chain(2);
+            root.left.right = root;
+
+            Tree clone = cloner.deepClone(root, CloneSpec.builder().exclude("value").build());
+
+            assertSame(clone, clone.left.right);
+            assertSame(root.value, clone.value);
+        }
+
+        @Test
+        public void test_invalidArguments() {
+            assertThrows(IllegalArgumentException.class, () -> CloneSpec.builder().include("a..b"));
+            assertThrows(IllegalArgumentException.class, () -> CloneSpec.builder().maxDepth(-1));
+            assertThrows(IllegalArgumentException.class, () -> CloneSpec.builder().shallow(Tree.class, "nope"));
+        }
+    }
+
+    @Nested
+    class Reclone {
+        static class Config {
+            public String name;
+            public int version;
+            public Config parent;
+            public List<Setting> settings = new ArrayList<>();
+            public Map<String, Setting> byName = new HashMap<>();
+        }
+
+        static class Setting {
+            public String key;
+            public double value;
+
+            public Setting(String key, double value) {
+                this.key = key;
+                this.value = value;
+            }
+        }
+
+        private Config config() {
+            Config root = new Config();
+            root.name = "root";
+
+            for (int i = 0; i < 10; ++i) {
+                Setting s = new Setting("k" + i, i);
+
+                root.settings.add(s);
+                root.byName.put(s.key, s);
+            }
+
+            root.parent = new Config();
+            root.parent.name = "parent";
+
+            return root;
+        }
+
+        @Test
+        public void test_unchangedGraphIsReused() throws IllegalAccessException {
+            Config original = config();
+            Config first = cloner.deepClone(original);
+            Config second = cloner.reclone(original, first);
+
+            assertSame(first, second);
+        }
+
+        @Test
+        public void test_onlyChangedPathIsCopied() throws IllegalAccessException {
+            Config original = config();
+            Config first = cloner.deepClone(original);
+
+            original.settings.get(3).value = 42;
+
+            Config second = cloner.reclone(original, first);
+
+            assertNotSame(first, second);
+            assertNotSame(first.settings, second.settings);
+            assertNotSame(first.settings.get(3), second.settings.get(3));
+            assertEquals(42, second.settings.get(3).value);
+            assertEquals(3, first.settings.get(3).value);
+
+            //Остальные объекты переиспользованы, общие ссылки сохранены
+            assertSame(first.settings.get(0), second.settings.get(0));
+            assertSame(first.parent, second.parent);
+            assertSame(second.settings.get(3), second.byName.get("k3"));
+            assertSame(second.settings.get(5), second.byName.get("k5"));
+        }
+
+        @Test
+        public void test_rewiredReferences() throws IllegalAccessException {
+            Config original = config();
+            Config first = cloner.deepClone(original);
+
+            Collections.swap(original.settings, 0, 1);
+            original.settings.add(new Setting("new", 1));
+
+            Config second = cloner.reclone(original, first);
+
+            //Прошлый клон сопоставляется оригиналу по местам ссылок,
+            //поэтому переставленные объекты копируются заново
+            assertEquals("k1", second.settings.get(0).key);
+            assertEquals("k0", second.settings.get(1).key);
+            assertSame(second.settings.get(0), second.byName.get("k1"));
+            assertSame(second.settings.get(1), second.byName.get("k0"));
+            assertEquals("new", second.settings.get(10).key);
+            assertNotSame(original.settings.get(10), second.settings.get(10));
+            assertSame(first.settings.get(5), second.settings.get(5));
+        }
+
+        @Test
+        public void test_cyclesAreCopiedAsWhole() throws IllegalAccessException {
+            Config a = config();
+            Config b = a.parent;
+            b.parent = a;
+
+            Config first = cloner.deepClone(a);
+
+            b.version = 2;
+
+            Config second = cloner.reclone(a, first);
+
+            assertNotSame(first, second);
+            assertNotSame(first.parent, second.parent);
+            assertSame(second, second.parent.parent);
+            assertEquals(2, second.parent.version);
+            assertSame(first.settings.get(0), second.settings.get(0));
+        }
+
+        @Test
+        public void test_changesInPreviousCloneAreNotTrusted() throws IllegalAccessException {
+            Config original = config();
+            Config first = cloner.deepClone(original);
+
+            first.settings.get(2).value = -1;
+
+            Config second = cloner.reclone(original, first);
+
+            assertEquals(2, second.settings.get(2).value);
+            assertNotSame(original.settings.get(2), second.settings.get(2));
+        }
+
+        @Test
+        public void test_chainedReclones() throws IllegalAccessException {
+            Config original = config();
+            Config clone = cloner.deepClone(original);
+
+            for (int i = 0; i < 5; ++i) {
+                original.version = i;
+
+                Config next = cloner.reclone(original, clone);
+
+                assertEquals(i, next.version);
+                assertSame(clone.settings, next.settings);
+
+                clone = next;
+            }
+        }
+    }
+
+    @Nested
+    class Metrics {
+        static class Item {
+            public Object name;
+            public Item next;
+            public int[] values = new int[10];
+        }
+
+        private Map<Class<?>, ClassCloneStats> byType(List<ClassCloneStats> stats) {
+            Map<Class<?>, ClassCloneStats> result = new HashMap<>();
+
+            for (ClassCloneStats s : stats) {
+                assertNull(result.put(s.type(), s));
+            }
+
+            return result;
+        }
+
+        @Test
+        public void test_listenerGetsStatsPerClone() throws IllegalAccessException {
+            List<List<ClassCloneStats>> calls = new ArrayList<>();
+            Cloner cloner = Cloner.builder().listener(calls::add).build();
+
+            Item a = new Item();
+            Item b = new Item();
+            a.name = "a";
+            b.name = "b";
+            a.next = b;
+            b.next = a;
+
+            cloner.deepClone(a);
+            cloner.deepClone(b);
+
+            assertEquals(2, calls.size());
+
+            Map<Class<?>, ClassCloneStats> stats = byType(calls.get(0));
+
+            assertEquals(2, stats.get(Item.class).getCloned());
+            assertEquals(1, stats.get(Item.class).getIdentityHits());
+            assertEquals(2, stats.get(String.class).getShared());
+            assertEquals(2, stats.get(int[].class).getCloned());
+            assertEquals(2 * 56, stats.get(int[].class).getEstimatedBytes());
+            assertTrue(stats.get(Item.class).getEstimatedBytes() > 0);
+            assertTrue(stats.get(Item.class).getNanos() > 0);
+        }
+
+        @Test
+        public void test_treeMode() throws IllegalAccessException {
+            List<List<ClassCloneStats>> calls = new ArrayList<>();
+            Cloner cloner = Cloner.builder().listener(calls::add).build();
+
+            Item a = new Item();
+            a.next = new Item();
+
+            cloner.deepCloneTree(a);
+
+            ClassCloneStats stats = byType(calls.get(0)).get(Item.class);
+
+            assertEquals(2, stats.getCloned());
+            assertEquals(0, stats.getIdentityHits());
+        }
+
+        @Test
+        public void test_metricsSumClones() throws Exception {
+            CloneMetrics metrics = new CloneMetrics();
+            Cloner cloner = Cloner.builder().listener(metrics).build();
+
+            Item a = new Item();
+            a.next = new Item();
+
+            for (int i = 0; i < 3; ++i) {
+                cloner.deepClone(a);
+            }
+
+            assertEquals(3, metrics.getCloneCount());
+
+            ClassCloneStats items = metrics.getClassStats().stream()
+                .filter(s -> s.type() == Item.class)
+                .findFirst()
+                .orElseThrow();
+
+            assertEquals(6, items.getCloned());
+
+            javax.management.ObjectName name = metrics.register("test_metricsSumClones");
+
+            try {
+                javax.management.MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+                assertEquals(3L, server.getAttribute(name, "CloneCount"));
+                assertTrue(((Object[])server.getAttribute(name, "ClassStats")).length >= 2);
+
+                server.invoke(name, "reset", null, null);
+
+                assertEquals(0, metrics.getCloneCount());
+                assertTrue(metrics.getClassStats().isEmpty());
+            }
+            finally {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+            }
+        }
+
+        @Test
+        public void test_scopesAreReusedWithMetrics() throws IllegalAccessException {
+            List<List<ClassCloneStats>> calls = new ArrayList<>();
+            Cloner cloner = Cloner.builder().listener(calls::add).build();
+
+            Item a = new Item();
+
+            cloner.deepClone(a);
+            cloner.deepClone(a);
+
+            //Статистика не накапливается между вызовами
+            assertEquals(1, byType(calls.get(1)).get(Item.class).getCloned());
+        }
+    }
+
+    @Nested
+    class Encoding {
+        enum Color {
+            RED,
+            GREEN {
+                @Override
+                public String toString() {
+                    return "green";
+                }
+            }
+        }
+
+        record Pair(Object left, Object right) { }
+
+        static class Holder {
+            public int i = 7;
+            public long l = -1;
+            public double d = 0.5;
+            public boolean b = true;
+            public char c = 'ж';
+            public final String name;
+            public Holder self;
+            public Object any;
+
+            Holder(String name) {
+                this.name = name;
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private <T> T roundTrip(T original) throws IllegalAccessException {
+            ByteBuffer buffer = cloner.encode(original, ByteBuffer.allocate(16));
+            buffer.flip();
+
+            T copy = (T)cloner.decode(buffer);
+
+            assertFalse(buffer.hasRemaining());
+
+            return copy;
+        }
+
+        @Test
+        public void test_fieldsAndCycles() throws IllegalAccessException {
+            Holder original = new Holder("имя");
+            original.self = original;
+            original.any = new int[] { 1, 2, 3 };
+
+            Holder copy = roundTrip(original);
+
+            assertNotSame(original, copy);
+            assertSame(copy, copy.self);
+            assertEquals(7, copy.i);
+            assertEquals(-1, copy.l);
+            assertEquals(0.5, copy.d);
+            assertTrue(copy.b);
+            assertEquals('ж', copy.c);
+            assertEquals("имя", copy.name);
+            assertArrayEquals(new int[] { 1, 2, 3 }, (int[])copy.any);
+        }
+
+        @Test
+        public void test_sharedReferences() throws IllegalAccessException {
+            Holder shared = new Holder("shared");
+            Object[] original = { shared, shared, new Object[] { shared } };
+
+            Object[] copy = roundTrip(original);
+
+            assertNotSame(shared, copy[0]);
+            assertSame(copy[0], copy[1]);
+            assertSame(copy[0], ((Object[])copy[2])[0]);
+        }
+
+        @Test
+        public void test_valuesAndCollections() throws IllegalAccessException {
+            Map<Object, Object> map = new HashMap<>();
+            map.put("list", new ArrayList<>(List.of(1, 2L, 3.0, 'c', (byte)4, (short)5, 6f, false)));
+            map.put("set", new HashSet<>(Set.of(Color.RED, Color.GREEN)));
+            map.put("tree", new TreeMap<>(Map.of("b", 2, "a", 1)));
+            map.put("values", List.of(
+                new BigDecimal("1.50"),
+                BigInteger.TEN,
+                UUID.randomUUID(),
+                LocalDate.of(2020, 1, 1),
+                ZoneId.of("Europe/Paris"),
+                Duration.ofSeconds(5),
+                String.class,
+                int.class
+            ));
+            map.put("immutable", Map.of("k", Set.of("v")));
+            map.put("asList", Arrays.asList("x", null));
+            map.put("optional", Optional.of(new ArrayList<>(List.of("o"))));
+            map.put("record", new Pair(new Holder("left"), Color.GREEN));
+            map.put("linked", new LinkedList<>(List.of("l")));
+
+            Map<Object, Object> copy = roundTrip(map);
+
+            assertEquals(map.keySet(), copy.keySet());
+
+            for (Object key : map.keySet()) {
+                if (!key.equals("record")) {
+                    assertEquals(map.get(key), copy.get(key));
+                }
+            }
+
+            assertEquals(TreeMap.class, copy.get("tree").getClass());
+            assertSame(Color.GREEN, ((Pair)copy.get("record")).right());
+            assertEquals("left", ((Holder)((Pair)copy.get("record")).left()).name);
+        }
+
+        @Test
+        public void test_mutableKeys() throws IllegalAccessException {
+            //Хеш ключа зависит от элементов, которые читаются после него
+            Map<List<String>, String> original = new HashMap<>();
+            original.put(new ArrayList<>(List.of("a", "b")), "ab");
+
+            Map<List<String>, String> copy = roundTrip(original);
+
+            assertEquals("ab", copy.get(List.of("a", "b")));
+        }
+
+        @Test
+        public void test_longChain() throws IllegalAccessException {
+            Holder head = new Holder("0");
+            Holder tail = head;
+
+            for (int i = 1; i < 100_000; ++i) {
+                Holder next = new Holder(Integer.toString(i));
+                tail.self = next;
+                tail = next;
+            }
+
+            Holder copy = roundTrip(head);
+
+            for (int i = 0; i < 100_000; ++i) {
+                assertEquals(Integer.toString(i), copy.name);
+                copy = copy.self;
+            }
+
+            assertNull(copy);
+        }
+
+        @Test
+        public void test_directBufferAndOffset() throws IllegalAccessException {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(4).order(java.nio.ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(42);
+
+            double[] original = { 1, 2, 3 };
+            ByteBuffer result = cloner.encode(new Object[] { original, "строка" }, buffer);
+
+            assertTrue(result.isDirect());
+            assertEquals(java.nio.ByteOrder.LITTLE_ENDIAN, result.order());
+
+            result.flip();
+            assertEquals(42, result.getInt());
+
+            Object[] copy = (Object[])cloner.decode(result);
+
+            assertArrayEquals(original, (double[])copy[0]);
+            assertEquals("строка", copy[1]);
+        }
+
+        @Test
+        public void test_textValuesUseExplicitCodecs() throws IllegalAccessException {
+            Locale serbianLatin = new Locale.Builder()
+                .setLanguage("sr")
+                .setRegion("RS")
+                .setScript("Latn")
+                .build();
+
+            List<Object> original = List.of(
+                Locale.US,
+                serbianLatin,
+                URI.create("https://example.com/a?b=c"),
+                ZonedDateTime.of(2020, 3, 29, 2, 30, 0, 0, ZoneId.of("Europe/Paris")),
+                ZoneOffset.ofHours(3),
+                Year.of(12_345)
+            );
+
+            assertEquals(original, roundTrip(original));
+
+            assertThrows(
+                IllegalArgumentException.class,
+                () -> cloner.encode(Pattern.compile("a", Pattern.CASE_INSENSITIVE), ByteBuffer.allocate(16))
+            );
+        }
+
+        @Test
+        public void test_byteOrderIsInHeader() throws IllegalAccessException {
+            Holder original = new Holder("h");
+            original.any = new long[] { 1, -2 };
+
+            ByteBuffer buffer = cloner.encode(
+                original,
+                ByteBuffer.allocate(256).order(java.nio.ByteOrder.LITTLE_ENDIAN)
+            );
+
+            buffer.flip().order(java.nio.ByteOrder.BIG_ENDIAN);
+
+            Holder copy = (Holder)cloner.decode(buffer);
+
+            assertEquals(7, copy.i);
+            assertEquals(-1, copy.l);
+            assertArrayEquals(new long[] { 1, -2 }, (long[])copy.any);
+            assertEquals(java.nio.ByteOrder.BIG_ENDIAN, buffer.order());
+        }
+
+        @Test
+        public void test_decodeFilter() throws IllegalAccessException {
+            ByteBuffer buffer = cloner.encode(new Holder[] { new Holder("h") }, ByteBuffer.allocate(64));
+            buffer.flip();
+
+            Cloner strict = Cloner.builder()
+                .decodeFilter(c -> c == String.class)
+                .build();
+
+            assertThrows(IllegalArgumentException.class, () -> strict.decode(buffer.duplicate()));
+
+            Cloner allowing = Cloner.builder()
+                .decodeFilter(c -> c == String.class || c == Holder.class)
+                .build();
+
+            Holder[] copy = (Holder[])allowing.decode(buffer);
+
+            assertEquals("h", copy[0].name);
+        }
+
+        @Test
+        public void test_accessOrderedLinkedHashMap() throws IllegalAccessException {
+            Map<String, Integer> original = new LinkedHashMap<>(16, 0.75f, true);
+            original.put("a", 1);
+            original.put("b", 2);
+
+            Map<String, Integer> copy = roundTrip(original);
+            copy.get("a");
+
+            assertIterableEquals(List.of("b", "a"), copy.keySet());
+        }
+
+        @Test
+        public void test_sharedSetKeyDeclaredAfterMap() throws IllegalAccessException {
+            ClonesMapsAndSets.SetKeyHolder original = new ClonesMapsAndSets.SetKeyHolder();
+            original.set.add(new Key("a"));
+            original.map.put(original.set, "v");
+
+            ClonesMapsAndSets.SetKeyHolder copy = roundTrip(original);
+
+            assertEquals("v", copy.map.get(copy.set));
+        }
+
+        @Test
+        public void test_corruptedData() {
+            //Версия, порядок байтов, затем ссылка
+            byte[] backReference = { 3, 0, 1, 5 };
+            byte[] negativeLength = { 3, 0, 2, 0, 2, '[', 'I', -1, -1, -1, -1, 15 };
+            byte[] hugeLength = { 3, 0, 2, 0, 2, '[', 'I', -1, -1, -1, -1, 7 };
+            byte[] unknownClass = { 3, 0, 2, 7 };
+
+            for (byte[] data : List.of(backReference, negativeLength, hugeLength, unknownClass)) {
+                assertThrows(IllegalArgumentException.class, () -> cloner.decode(ByteBuffer.wrap(data)));
+            }
+        }
+
+        @Test
+        public void test_bufferIsReused() throws IllegalAccessException {
+            ByteBuffer buffer = ByteBuffer.allocate(1024);
+            ByteBuffer result = cloner.encode(new Holder("h"), buffer);
+
+            assertSame(buffer, result);
+        }
+
+        @Test
+        public void test_unsupported() {
+            assertThrows(
+                IllegalArgumentException.class,
+                () -> cloner.encode(new TreeSet<>(Comparator.reverseOrder()), ByteBuffer.allocate(16))
+            );
+
+            assertThrows(
+                IllegalArgumentException.class,
+                () -> cloner.encode(new StringBuilder(), ByteBuffer.allocate(16))
+            );
+        }
+    }
+
+    @Nested
+    class Snapshots {
+        @TempDir
+        Path directory;
+
+        private final List<Class<?>> instantiated = new ArrayList<>();
+
+        private final Cloner cloner = new Cloner(c -> {
+            instantiated.add(c);
+            return InstantiationStrategy.objenesis().newInstance(c);
+        });
+
+        private LazyCloning.SimpleAccount accounts(int depth) {
+            LazyCloning.SimpleAccount account = new LazyCloning.SimpleAccount(0);
+
+            for (int i = 1; i <= depth; ++i) {
+                LazyCloning.SimpleAccount child = new LazyCloning.SimpleAccount(i);
+                child.deposit(i);
+                child.parent = account;
+                account = child;
+            }
+
+            return account;
+        }
+
+        @Test
+        public void test_roundTrip() throws Exception {
+            Path file = directory.resolve("accounts.snapshot");
+            LazyCloning.SimpleAccount original = accounts(3);
+
+            cloner.writeSnapshot(original, file);
+
+            try (Snapshot snapshot = cloner.openSnapshot(file)) {
+                LazyCloning.Account root = snapshot.root(LazyCloning.Account.class);
+
+                assertTrue(Proxy.isProxyClass(root.getClass()));
+                assertEquals(6, root.balance());
+                assertEquals(4, root.parent().balance());
+                assertEquals(List.of(2.0), root.parent().history().stream().map(e -> e.value).toList());
+                assertNull(root.parent().parent().parent().parent());
+            }
+        }
+
+        @Test
+        public void test_objectsAreReadOnDemand() throws Exception {
+            Path file = directory.resolve("lazy.snapshot");
+
+            cloner.writeSnapshot(accounts(100), file);
+
+            try (Snapshot snapshot = cloner.openSnapshot(file)) {
+                LazyCloning.Account root = snapshot.root(LazyCloning.Account.class);
+
+                assertTrue(instantiated.isEmpty());
+
+                root.balance();
+
+                //Корень и его last; history и parent - отдельные сегменты
+                assertEquals(
+                    List.of(LazyCloning.SimpleAccount.class, Element.class),
+                    instantiated
+                );
+            }
+        }
+
+        @Test
+        public void test_classRootAndSharedSegments() throws Exception {
+            Path file = directory.resolve("shared.snapshot");
+            LazyCloning.SimpleAccount parent = new LazyCloning.SimpleAccount(1);
+
+            Object[] pair = { new LazyCloning.SimpleAccount(2), new LazyCloning.SimpleAccount(3) };
+            ((LazyCloning.SimpleAccount)pair[0]).parent = parent;
+            ((LazyCloning.SimpleAccount)pair[1]).parent = parent;
+
+            LazyCloning.SimpleAccount root = new LazyCloning.SimpleAccount(0);
+            root.parent = (LazyCloning.SimpleAccount)pair[0];
+            root.parent().deposit(1);
+
+            cloner.writeSnapshot(root, file);
+
+            try (Snapshot snapshot = cloner.openSnapshot(file)) {
+                LazyCloning.SimpleAccount copy = snapshot.root(LazyCloning.SimpleAccount.class);
+
+                assertNotSame(root, copy);
+                assertSame(copy, snapshot.root(LazyCloning.SimpleAccount.class));
+                assertEquals(3, copy.parent().balance());
+                assertEquals(1, copy.parent().parent().balance());
+            }
+        }
+
+        @Test
+        public void test_cycleThroughSegments() throws Exception {
+            Path file = directory.resolve("cycle.snapshot");
+
+            LazyCloning.SimpleAccount a = new LazyCloning.SimpleAccount(1);
+            LazyCloning.SimpleAccount b = new LazyCloning.SimpleAccount(2);
+            a.parent = b;
+            b.parent = a;
+
+            cloner.writeSnapshot(a, file);
+
+            try (Snapshot snapshot = cloner.openSnapshot(file)) {
+                LazyCloning.Account root = snapshot.root(LazyCloning.Account.class);
+
+                assertSame(root, root.parent().parent());
+                assertEquals(2, root.parent().balance());
+            }
+        }
+
+        static class Parent {
+            public List<Child> children = new ArrayList<>();
+            public Child first;
+            public List<Child> favourites = new ArrayList<>();
+        }
+
+        static class Child {
+            public Parent parent;
+            public List<Child> friends;
+        }
+
+        @Test
+        public void test_backReferencesAcrossSegments() throws Exception {
+            Path file = directory.resolve("family.snapshot");
+
+            Parent original = new Parent();
+
+            for (int i = 0; i < 3; ++i) {
+                Child child = new Child();
+                child.parent = original;
+                original.children.add(child);
+            }
+
+            original.first = original.children.get(0);
+
+            //Список сегмента favourites раньше встречается внутри
+            //сегмента children
+            original.favourites.add(original.children.get(2));
+            original.children.get(1).friends = original.favourites;
+
+            cloner.writeSnapshot(original, file);
+
+            try (Snapshot snapshot = cloner.openSnapshot(file)) {
+                Parent root = snapshot.root(Parent.class);
+
+                assertTrue(Proxy.isProxyClass(root.children.getClass()));
+
+                for (Child child : root.children) {
+                    assertSame(root, child.parent);
+                }
+
+                assertSame(root.first, root.children.get(0));
+                assertSame(root.children.get(2), root.favourites.get(0));
+                assertSame(root.children.get(2), root.children.get(1).friends.get(0));
+            }
+        }
+
+        @Test
+        public void test_largeSegmentsGrowTheFile() throws Exception {
+            Path file = directory.resolve("large.snapshot");
+            LazyCloning.SimpleAccount root = new LazyCloning.SimpleAccount(0);
+
+            for (int i = 0; i < 200_000; ++i) {
+                root.deposit(1);
+            }
+
+            cloner.writeSnapshot(root, file);
+
+            try (Snapshot snapshot = cloner.openSnapshot(file)) {
+                assertEquals(200_000, snapshot.root(LazyCloning.Account.class).history().size());
+            }
+        }
+
+        @Test
+        public void test_notASnapshot() throws Exception {
+            Path file = directory.resolve("garbage");
+            Files.write(file, new byte[64]);
+
+            assertThrows(IllegalArgumentException.class, () -> cloner.openSnapshot(file));
+        }
+    }
+
+    @Nested
+    class CloneInto {
+        static class Tick {
+            public long sequence;
+            public double[] prices = new double[8];
+            public Quote best;
+            public Quote[] book = new Quote[4];
+            public List<Quote> trades = new ArrayList<>();
+            public Map<String, Quote> byVenue = new HashMap<>();
+            public Set<String> flags = new LinkedHashSet<>();
+            public String symbol = "SYM";
+        }
+
+        static class Quote {
+            public double price;
+            public long size;
+            public Quote previous;
+
+            Quote(double price, long size) {
+                this.price = price;
+                this.size = size;
+            }
+        }
+
+        private Tick tick(long sequence) {
+            Tick t = new Tick();
+            t.sequence = sequence;
+
+            for (int i = 0; i < t.prices.length; ++i) {
+                t.prices[i] = sequence + i;
+            }
+
+            for (int i = 0; i < t.book.length; ++i) {
+                t.book[i] = new Quote(sequence * 10 + i, i);
+            }
+
+            t.best = t.book[0];
+            t.book[1].previous = t.book[0];
+
+            for (int i = 0; i < 3; ++i) {
+                t.trades.add(new Quote(i, sequence));
+            }
+
+            t.byVenue.put("A", t.book[2]);
+            t.byVenue.put("B", new Quote(-1, sequence));
+
+            t.flags.add("open");
+            t.flags.add("s" + sequence % 2);
+
+            return t;
+        }
+
+        private void assertSameContents(Tick expected, Tick actual) {
+            assertEquals(expected.sequence, actual.sequence);
+            assertArrayEquals(expected.prices, actual.prices);
+            assertEquals(expected.book.length, actual.book.length);
+
+            for (int i = 0; i < expected.book.length; ++i) {
+                assertEquals(expected.book[i].price, actual.book[i].price);
+            }
+
+            assertSame(actual.book[0], actual.best);
+            assertSame(actual.book[0], actual.book[1].previous);
+            assertSame(actual.book[2], actual.byVenue.get("A"));
+            assertEquals(expected.trades.size(), actual.trades.size());
+            assertEquals(expected.byVenue.keySet(), actual.byVenue.keySet());
+            assertEquals(new ArrayList<>(expected.flags), new ArrayList<>(actual.flags));
+        }
+
+        @Test
+        public void test_targetIsOverwrittenInPlace() throws IllegalAccessException {
+            Tick target = cloner.deepClone(tick(1));
+
+            double[] prices = target.prices;
+            Quote[] book = target.book;
+            Quote best = target.best;
+            List<Quote> trades = target.trades;
+            Quote trade = target.trades.get(0);
+
+            Tick source = tick(2);
+            Tick result = cloner.cloneInto(source, target);
+
+            assertSame(target, result);
+            assertSame(prices, result.prices);
+            assertSame(book, result.book);
+            assertSame(best, result.best);
+            assertSame(trades, result.trades);
+            assertSame(trade, result.trades.get(0));
+            assertNotSame(source.best, result.best);
+            assertSameContents(source, result);
+        }
+
+        @Test
+        public void test_divergingShapes() throws IllegalAccessException {
+            Tick target = cloner.deepClone(tick(1));
+            Tick source = tick(2);
+
+            source.prices = new double[3];
+            source.trades.remove(0);
+            source.byVenue.remove("B");
+            source.byVenue.put("C", new Quote(7, 7));
+            source.flags.clear();
+            source.flags.add("closed");
+            source.best = null;
+            source.book[3] = null;
+
+            Tick result = cloner.cloneInto(source, target);
+
+            assertSame(target, result);
+            assertEquals(3, result.prices.length);
+            assertNull(result.best);
+            assertNull(result.book[3]);
+            assertEquals(2, result.trades.size());
+            assertEquals(Set.of("A", "C"), result.byVenue.keySet());
+            assertEquals(7, result.byVenue.get("C").price);
+            assertEquals(List.of("closed"), new ArrayList<>(result.flags));
+            assertSame(result.book[2], result.byVenue.get("A"));
+        }
+
+        @Test
+        public void test_sourceIsNotChanged() throws IllegalAccessException {
+            Tick source = tick(2);
+            Tick target = cloner.deepClone(tick(1));
+
+            cloner.cloneInto(source, target);
+            target.book[0].price = -100;
+            target.trades.clear();
+
+            assertEquals(20, source.book[0].price);
+            assertEquals(3, source.trades.size());
+        }
+
+        @Test
+        public void test_incompatibleTarget() throws IllegalAccessException {
+            Tick source = tick(2);
+
+            assertSameContents(source, cloner.cloneInto(source, null));
+
+            Object[] array = { source };
+            Object[] clone = cloner.cloneInto(array, new Object[] { "not a tick" });
+
+            assertNotSame(source, clone[0]);
+            assertSameContents(source, (Tick)clone[0]);
+        }
+
+        @Test
+        public void test_linkedMapOrder() throws IllegalAccessException {
+            Map<String, int[]> target = new LinkedHashMap<>();
+            target.put("a", new int[1]);
+            target.put("b", new int[1]);
+
+            Map<String, int[]> source = new LinkedHashMap<>();
+            source.put("c", new int[] { 3 });
+            source.put("b", new int[] { 2 });
+            source.put("a", new int[] { 1 });
+
+            int[] b = target.get("b");
+            Map<String, int[]> result = cloner.cloneInto(source, target);
+
+            assertSame(target, result);
+            assertEquals(List.of("c", "b", "a"), new ArrayList<>(result.keySet()));
+            assertSame(b, result.get("b"));
+            assertEquals(2, result.get("b")[0]);
+        }
+
+        @Test
+        public void test_cycles() throws IllegalAccessException {
+            Quote a = new Quote(1, 1);
+            Quote b = new Quote(2, 2);
+            a.previous = b;
+            b.previous = a;
+
+            Quote target = cloner.deepClone(a);
+            Quote other = target.previous;
+
+            a.price = 10;
+
+            Quote result = cloner.cloneInto(a, target);
+
+            assertSame(target, result);
+            assertSame(other, result.previous);
+            assertSame(result, result.previous.previous);
+            assertEquals(10, result.price);
+        }
+
+        static class Priced {
+            public RegisteredStrategies.Money price = new RegisteredStrategies.Money(3);
+        }
+
+        @Test
+        public void test_strategyForEffectivelyImmutableField() throws IllegalAccessException {
+            Cloner nullOut = Cloner.builder()
+                .strategy(RegisteredStrategies.Money.class, CloneStrategy.nullOut())
+                .build();
+
+            Priced target = new Priced();
+            Priced result = nullOut.cloneInto(new Priced(), target);
+
+            assertSame(target, result);
+            assertNull(result.price);
+        }
+
+        @Test
+        public void test_steadyStateAllocatesLittle() throws IllegalAccessException {
+            Tick source = tick(1);
+            Tick target = cloner.deepClone(source);
+
+            long into = allocatedPerCall(() -> cloner.cloneInto(source, target));
+            long clone = allocatedPerCall(() -> cloner.deepClone(source));
+
+            //Остаются только итераторы коллекций, которые не всегда
+            //убирает JIT
+            assertTrue(into * 4 < clone, "cloneInto: " + into + ", deepClone: " + clone);
+        }
+
+        private long allocatedPerCall(Callable<?> call) {
+            var threads = (com.sun.management.ThreadMXBean)
+                ManagementFactory.getThreadMXBean();
+
+            long threadId = Thread.currentThread().getId();
+            final int iterations = 20_000;
+
+            try {
+                for (int i = 0; i < iterations; ++i) {
+                    call.call();
+                }
+
+                long before = threads.getThreadAllocatedBytes(threadId);
+
+                for (int i = 0; i < iterations; ++i) {
+                    call.call();
+                }
+
+                return (threads.getThreadAllocatedBytes(threadId) - before) / iterations;
+            }
+            catch (Exception e) {
+                throw new AssertionError(e);
+            }
+        }
+    }
+
+    @Nested
+    class BatchCloning {
+        static class Instrument {
+            public String symbol;
+            public Map<Instrument, Integer> related = new HashMap<>();
+
+            Instrument(String symbol) {
+                this.symbol = symbol;
+            }
+
+            @Override
+            public boolean equals(Object o) {
+                return o instanceof Instrument i && i.symbol.equals(symbol);
+            }
+
+            @Override
+            public int hashCode() {
+                return symbol.hashCode();
+            }
+        }
+
+        static class Order {
+            public long id;
+            public Instrument instrument;
+            public Order parent;
+
+            Order(long id, Instrument instrument) {
+                this.id = id;
+                this.instrument = instrument;
+            }
+        }
+
+        private List<Order> orders() {
+            Instrument a = new Instrument("A");
+            Instrument b = new Instrument("B");
+            a.related.put(b, 1);
+            b.related.put(a, 2);
+
+            List<Order> orders = new ArrayList<>();
+
+            for (int i = 0; i < 100; ++i) {
+                Order order = new Order(i, i % 2 == 0 ? a : b);
+
+                if (i > 0) {
+                    order.parent = orders.get(i - 1);
+                }
+
+                orders.add(order);
+            }
+
+            return orders;
+        }
+
+        private void assertSharedGraph(List<Order> originals, List<Order> clones) {
+            assertEquals(originals.size(), clones.size());
+
+            Instrument a = clones.get(0).instrument;
+            Instrument b = clones.get(1).instrument;
+
+            assertNotSame(originals.get(0).instrument, a);
+
+            for (int i = 0; i < clones.size(); ++i) {
+                Order clone = clones.get(i);
+
+                assertNotSame(originals.get(i), clone);
+                assertEquals(i, clone.id);
+                assertSame(i % 2 == 0 ? a : b, clone.instrument);
+
+                if (i > 0) {
+                    assertSame(clones.get(i - 1), clone.parent);
+                }
+            }
+
+            assertSame(b, a.related.keySet().iterator().next());
+            assertEquals(1, a.related.get(b));
+        }
+
+        @Test
+        public void test_collection() throws IllegalAccessException {
+            List<Order> originals = orders();
+            List<Order> clones = cloner.deepCloneAll(originals);
+
+            assertSharedGraph(originals, clones);
+
+            clones.add(null);
+        }
+
+        @Test
+        public void test_stream() {
+            List<Order> originals = orders();
+            List<Order> clones;
+
+            try (Stream<Order> stream = cloner.deepCloneAll(originals.stream())) {
+                clones = stream.toList();
+            }
+
+            assertSharedGraph(originals, clones);
+        }
+
+        @Test
+        public void test_streamClonesLazily() {
+            List<Order> originals = orders();
+
+            try (Stream<Order> stream = cloner.deepCloneAll(originals.stream())) {
+                Iterator<Order> clones = stream.iterator();
+
+                Order first = clones.next();
+                originals.get(1).id = -1;
+                Order second = clones.next();
+
+                assertEquals(-1, second.id);
+                assertSame(first, second.parent);
+            }
+        }
+
+        @Test
+        public void test_metricsPerStreamRoot() {
+            List<List<ClassCloneStats>> calls = new ArrayList<>();
+            Cloner cloner = Cloner.builder().listener(calls::add).build();
+
+            try (Stream<Order> stream = cloner.deepCloneAll(orders().stream().limit(3))) {
+                assertEquals(3, stream.toList().size());
+            }
+
+            assertEquals(3, calls.size());
+        }
+
+        @Test
+        public void test_nullRootsInStream() {
+            List<Order> originals = new ArrayList<>(orders().subList(0, 2));
+            originals.add(1, null);
+
+            try (Stream<Order> stream = cloner.deepCloneAll(originals.stream())) {
+                List<Order> clones = stream.toList();
+
+                assertNull(clones.get(1));
+                assertSame(clones.get(0), clones.get(2).parent);
+            }
+        }
+
+        @Test
+        public void test_emptyBatch() throws IllegalAccessException {
+            assertTrue(cloner.deepCloneAll(List.of()).isEmpty());
+        }
+    }
+
+    @Nested
+    class AsyncCloning {
+        //Задачи не выполняются, пока тест не запустит их сам
+        private final List<Runnable> queued = new ArrayList<>();
+
+        private final AtomicInteger instances = new AtomicInteger();
+
+        private LongChainsDoNotOverflowStack.Node chain(int length) {
+            LongChainsDoNotOverflowStack.Node head = null;
+
+            for (int i = length - 1; i >= 0; --i) {
+                head = new LongChainsDoNotOverflowStack.Node(i, head);
+            }
+
+            return head;
+        }
+
+        private void assertChain(LongChainsDoNotOverflowStack.Node original, LongChainsDoNotOverflowStack.Node clone) {
+            while (original != null) {
+                assertNotSame(original, clone);
+                assertEquals(original.value, clone.value);
+
+                original = original.next;
+                clone = clone.next;
+            }
+
+            assertNull(clone);
+        }
+
+        private Cloner.Builder countingInstances() {
+            return Cloner.builder().instantiationStrategy(c -> {
+                instances.incrementAndGet();
+                return InstantiationStrategy.objenesis().newInstance(c);
+            });
+        }
+
+        @Test
+        public void test_defaultExecutor() throws Exception {
+            var original = new LinkedListWithHeadAndTail.LinkedList(1, 2, 3);
+            var clone = cloner.deepCloneAsync(original).get(1, TimeUnit.MINUTES);
+
+            assertEqualButNotSame(original, clone);
+            assertFalse(clone.isBroken());
+        }
+
+        @Test
+        public void test_customExecutor() {
+            Cloner cloner = Cloner.builder().asyncExecutor(queued::add).build();
+            Element original = new Element(1);
+
+            CompletableFuture<Element> future = cloner.deepCloneAsync(original);
+
+            assertFalse(future.isDone());
+            assertEquals(1, queued.size());
+
+            queued.get(0).run();
+
+            assertEqualButNotSame(original, future.join());
+        }
+
+        @Test
+        public void test_concurrencyLimit() throws Exception {
+            AtomicInteger current = new AtomicInteger();
+            AtomicInteger max = new AtomicInteger();
+
+            Cloner cloner = Cloner.builder()
+                .asyncConcurrency(2)
+                .strategy(Element.class, (original, context) -> {
+                    max.accumulateAndGet(current.incrementAndGet(), Math::max);
+
+                    try {
+                        Thread.sleep(20);
+                    }
+                    catch (InterruptedException e) {
+                        throw new IllegalStateException(e);
+                    }
+
+                    current.decrementAndGet();
+                    return new Element(original.value);
+                })
+                .build();
+
+            List<CompletableFuture<Element>> futures = new ArrayList<>();
+
+            for (int i = 0; i < 8; ++i) {
+                futures.add(cloner.deepCloneAsync(new Element(i)));
+            }
+
+            for (int i = 0; i < 8; ++i) {
+                assertEquals(new Element(i), futures.get(i).get(1, TimeUnit.MINUTES));
+            }
+
+            assertEquals(2, max.get());
+        }
+
+        @Test
+        public void test_cancelStopsTraversal() {
+            final int length = 100_000;
+
+            AtomicReference<CompletableFuture<?>> self = new AtomicReference<>();
+
+            Cloner cloner = Cloner.builder()
+                .asyncExecutor(queued::add)
+                .instantiationStrategy(c -> {
+                    if (instances.incrementAndGet() == 1_000) {
+                        self.get().cancel(true);
+                    }
+
+                    return InstantiationStrategy.objenesis().newInstance(c);
+                })
+                .build();
+
+            CompletableFuture<LongChainsDoNotOverflowStack.Node> future = cloner.deepCloneAsync(chain(length));
+            self.set(future);
+
+            queued.get(0).run();
+
+            assertTrue(future.isCancelled());
+            assertThrows(CancellationException.class, future::join);
+            assertTrue(instances.get() < length / 10, "Создано объектов: " + instances.get());
+            assertFalse(Thread.currentThread().isInterrupted());
+        }
+
+        @Test
+        public void test_cancelBeforeStart() {
+            Cloner cloner = countingInstances().asyncExecutor(queued::add).build();
+
+            CompletableFuture<Element> future = cloner.deepCloneAsync(new Element(1));
+            future.cancel(true);
+
+            queued.get(0).run();
+
+            assertTrue(future.isCancelled());
+            assertEquals(0, instances.get());
+        }
+
+        @Test
+        public void test_cancelWhileWaitingReleasesNothing() throws Exception {
+            CountDownLatch started = new CountDownLatch(1);
+            CountDownLatch release = new CountDownLatch(1);
+
+            Cloner cloner = Cloner.builder()
+                .asyncConcurrency(1)
+                .strategy(Element.class, (original, context) -> {
+                    if (original.value == 1) {
+                        started.countDown();
+
+                        try {
+                            release.await();
+                        }
+                        catch (InterruptedException e) {
+                            throw new IllegalStateException(e);
+                        }
+                    }
+
+                    return new Element(original.value);
+                })
+                .build();
+
+            CompletableFuture<Element> first = cloner.deepCloneAsync(new Element(1));
+            assertTrue(started.await(1, TimeUnit.MINUTES));
+
+            CompletableFuture<Element> second = cloner.deepCloneAsync(new Element(2));
+            assertTrue(second.cancel(true));
+
+            release.countDown();
+
+            assertEquals(new Element(1), first.get(1, TimeUnit.MINUTES));
+            assertEquals(new Element(3), cloner.deepCloneAsync(new Element(3)).get(1, TimeUnit.MINUTES));
+        }
+
+        @Test
+        public void test_memoryBudget() throws Exception {
+            //Бюджет меньше любого графа: клонирования идут по очереди,
+            //но не ждут друг друга вечно
+            Cloner cloner = Cloner.builder()
+                .asyncConcurrency(4)
+                .asyncMemoryBudget(1)
+                .build();
+
+            List<LongChainsDoNotOverflowStack.Node> originals = new ArrayList<>();
+            List<CompletableFuture<LongChainsDoNotOverflowStack.Node>> futures = new ArrayList<>();
+
+            for (int i = 0; i < 8; ++i) {
+                originals.add(chain(10_000));
+                futures.add(cloner.deepCloneAsync(originals.get(i)));
+            }
+
+            for (int i = 0; i < 8; ++i) {
+                assertChain(originals.get(i), futures.get(i).get(1, TimeUnit.MINUTES));
+            }
+        }
+
+        @Test
+        public void test_memoryBudgetCountsArrays() throws Exception {
+            CountDownLatch started = new CountDownLatch(1);
+            CountDownLatch release = new CountDownLatch(1);
+
+            Cloner cloner = Cloner.builder()
+                .asyncConcurrency(2)
+                .asyncMemoryBudget(1 << 20)
+                .strategy(Element.class, (original, context) -> {
+                    started.countDown();
+
+                    try {
+                        release.await();
+                    }
+                    catch (InterruptedException e) {
+                        throw new IllegalStateException(e);
+                    }
+
+                    return new Element(original.value);
+                })
+                .build();
+
+            CompletableFuture<Object[]> first = cloner.deepCloneAsync(
+                new Object[] { new long[200_000], new Element(1) }
+            );
+
+            assertTrue(started.await(1, TimeUnit.MINUTES));
+
+            //Массив копируется одним клоном без заполнений, но его
+            //1,6 МБ не помещаются в бюджет, пока идет первое клонирование
+            long[] original = new long[200_000];
+            original[1] = 7;
+
+            CompletableFuture<long[]> second = cloner.deepCloneAsync(original);
+
+            assertThrows(TimeoutException.class, () -> second.get(200, TimeUnit.MILLISECONDS));
+
+            release.countDown();
+
+            assertEquals(new Element(1), first.get(1, TimeUnit.MINUTES)[1]);
+            assertArrayEquals(original, second.get(1, TimeUnit.MINUTES));
+        }
+
+        @Test
+        public void test_failure() {
+            Cloner cloner = Cloner.builder()
+                .strategy(Element.class, (original, context) -> {
+                    throw new IllegalStateException("Сбой стратегии");
+                })
+                .build();
+
+            CompletableFuture<Element> future = cloner.deepCloneAsync(new Element(1));
+
+            ExecutionException e = assertThrows(
+                ExecutionException.class,
+                () -> future.get(1, TimeUnit.MINUTES)
+            );
+
+            assertInstanceOf(IllegalStateException.class, e.getCause());
+            assertEquals("Сбой стратегии", e.getCause().getMessage());
+        }
+
+        @Test
+        public void test_invalidSettings() {
+            assertThrows(IllegalArgumentException.class, () -> Cloner.builder().asyncConcurrency(0));
+            assertThrows(IllegalArgumentException.class, () -> Cloner.builder().asyncMemoryBudget(0));
+        }
+    }
 }
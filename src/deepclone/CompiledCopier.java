@@ -0,0 +1,155 @@
+package deepclone;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+
+final class CompiledCopier {
+    private static final MethodType copyType = MethodType.methodType(
+        void.class,
+        Object.class,
+        Object.class,
+        CloneContext.class
+    );
+
+    private final MethodHandle[] levels;
+    private final ClonePlan.PlannedField[] reflectiveFields;
+
+    private CompiledCopier(
+        MethodHandle[] levels,
+        ClonePlan.PlannedField[] reflectiveFields
+    ) {
+        this.levels = levels;
+        this.reflectiveFields = reflectiveFields;
+    }
+
+    //Для каждого класса иерархии генерируется скрытый класс-сосед
+    //по гнезду (nestmate), которому доступны приватные поля.
+    //Поля, которые так скопировать нельзя (final, недоступный тип,
+    //закрытый модуль), остаются на рефлексии
+    static CompiledCopier compile(Class<?> c, ClonePlan.PlannedField[] fields) {
+        List<MethodHandle> levels = new ArrayList<>();
+        List<ClonePlan.PlannedField> reflectiveFields = new ArrayList<>();
+
+        for (Class<?> level = c; level != null; level = level.getSuperclass()) {
+            List<ClonePlan.PlannedField> levelFields = new ArrayList<>();
+
+            for (ClonePlan.PlannedField pf : fields) {
+                if (pf.field.getDeclaringClass() == level) {
+                    levelFields.add(pf);
+                }
+            }
+
+            if (levelFields.isEmpty()) {
+                continue;
+            }
+
+            MethodHandles.Lookup lookup = lookupIn(level);
+            List<ClonePlan.PlannedField> generated = new ArrayList<>();
+
+            for (ClonePlan.PlannedField pf : levelFields) {
+                if (lookup != null && isGeneratable(lookup, pf)) {
+                    generated.add(pf);
+                }
+                else {
+                    reflectiveFields.add(pf);
+                }
+            }
+
+            if (generated.isEmpty()) {
+                continue;
+            }
+
+            try {
+                byte[] bytes = CopierGenerator.generate(level, generated);
+
+                MethodHandles.Lookup hidden = lookup.defineHiddenClass(
+                    bytes,
+                    true,
+                    MethodHandles.Lookup.ClassOption.NESTMATE
+                );
+
+                levels.add(hidden.findStatic(hidden.lookupClass(), "copy", copyType));
+            }
+            catch (ReflectiveOperationException | LinkageError e) {
+                reflectiveFields.addAll(generated);
+            }
+        }
+
+        return new CompiledCopier(
+            levels.toArray(new MethodHandle[0]),
+            reflectiveFields.toArray(new ClonePlan.PlannedField[0])
+        );
+    }
+
+    private static MethodHandles.Lookup lookupIn(Class<?> c) {
+        if (c.isHidden()) {
+            return null;
+        }
+
+        try {
+            //Сгенерированный класс ссылается на CloneContext по имени
+            Class<?> visible = Class.forName(
+                CloneContext.class.getName(),
+                false,
+                c.getClassLoader()
+            );
+
+            if (visible != CloneContext.class) {
+                return null;
+            }
+
+            MethodHandles.Lookup lookup =
+                MethodHandles.privateLookupIn(c, MethodHandles.lookup());
+
+            return lookup.hasFullPrivilegeAccess() ? lookup : null;
+        }
+        catch (ClassNotFoundException | IllegalAccessException e) {
+            return null;
+        }
+    }
+
+    private static boolean isGeneratable(
+        MethodHandles.Lookup lookup,
+        ClonePlan.PlannedField pf
+    ) {
+        //putfield в final поле разрешен только внутри конструктора
+        if (Modifier.isFinal(pf.field.getModifiers())) {
+            return false;
+        }
+
+        try {
+            lookup.accessClass(pf.field.getType());
+            return true;
+        }
+        catch (IllegalAccessException e) {
+            return false;
+        }
+    }
+
+    void copy(Object original, Object clone, CloneContext context)
+        throws IllegalAccessException
+    {
+        for (MethodHandle level : levels) {
+            try {
+                level.invokeExact(original, clone, context);
+            }
+            catch (RuntimeException | Error e) {
+                throw e;
+            }
+            catch (Throwable e) {
+                throw new AssertionError(
+                    "Этого никогда не должно было произойти. Время отладки!",
+                    e
+                );
+            }
+        }
+
+        for (ClonePlan.PlannedField pf : reflectiveFields) {
+            pf.copy(original, clone, context);
+        }
+    }
+}
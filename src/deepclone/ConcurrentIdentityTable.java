@@ -0,0 +1,60 @@
+package deepclone;
+
+import java.util.function.BiConsumer;
+
+//Таблица original -> clone для параллельного клонирования: набор
+//IdentityTable, каждая под своим монитором. Полоса выбирается
+//по младшим битам identityHashCode, а внутри IdentityTable
+//индекс берется из старших битов, поэтому ключи одной полосы
+//не скучиваются
+final class ConcurrentIdentityTable {
+    private final IdentityTable[] stripes;
+    private final int mask;
+
+    ConcurrentIdentityTable(int expectedSize, int parallelism) {
+        int count = Integer.highestOneBit(Math.max(1, parallelism) * 8 - 1) << 1;
+
+        stripes = new IdentityTable[count];
+        mask = count - 1;
+
+        for (int i = 0; i < count; ++i) {
+            stripes[i] = new IdentityTable(expectedSize / count);
+        }
+    }
+
+    Object get(Object key) {
+        IdentityTable stripe = stripeOf(key);
+
+        synchronized (stripe) {
+            return stripe.get(key);
+        }
+    }
+
+    //Возвращает уже записанный клон или null, если записан value
+    Object putIfAbsent(Object key, Object value) {
+        IdentityTable stripe = stripeOf(key);
+
+        synchronized (stripe) {
+            Object existing = stripe.get(key);
+
+            if (existing != null) {
+                return existing;
+            }
+
+            stripe.put(key, value);
+            return null;
+        }
+    }
+
+    void forEach(BiConsumer<Object, Object> action) {
+        for (IdentityTable stripe : stripes) {
+            synchronized (stripe) {
+                stripe.forEach(action);
+            }
+        }
+    }
+
+    private IdentityTable stripeOf(Object key) {
+        return stripes[System.identityHashCode(key) & mask];
+    }
+}
@@ -0,0 +1,29 @@
+package deepclone;
+
+//Способ клонирования объектов одного класса. Выбирается один раз
+//на класс, см. Copiers
+abstract class Copier {
+    //Создает клон. Если его содержимое нужно заполнить, клон
+    //возвращается пустым, а заполнение планируется через
+    //scope.scheduleFill и выполняется позже вызовом fill
+    abstract Object create(Object original, CloneScope scope);
+
+    void fill(Object original, Object clone, CloneScope scope)
+        throws IllegalAccessException
+    {
+    }
+
+    //Вызывается через scope.defer, когда заполнены все клоны графа.
+    //Нужно коллекциям, которые хешируют или сравнивают свои элементы
+    void complete(Object state, Object clone, CloneScope scope) {
+    }
+
+    //Только заполнение: клон создает другой Copier, а этот лишь
+    //передается в scope.scheduleFill
+    abstract static class FillOnly extends Copier {
+        @Override
+        final Object create(Object original, CloneScope scope) {
+            throw new AssertionError("Этого никогда не должно было произойти. Время отладки!");
+        }
+    }
+}
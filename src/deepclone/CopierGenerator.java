@@ -0,0 +1,246 @@
+package deepclone;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+//Пишет class-файл с единственным методом
+//static void copy(Object original, Object clone, CloneContext context),
+//который копирует поля прямыми getfield/putfield без ветвлений
+final class CopierGenerator {
+    private static final int classFileVersion = 55;
+
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_STATIC = 0x0008;
+    private static final int ACC_FINAL = 0x0010;
+    private static final int ACC_SUPER = 0x0020;
+
+    private static final int CONSTANT_Utf8 = 1;
+    private static final int CONSTANT_Class = 7;
+    private static final int CONSTANT_Fieldref = 9;
+    private static final int CONSTANT_InterfaceMethodref = 11;
+    private static final int CONSTANT_NameAndType = 12;
+
+    private static final int ALOAD_0 = 0x2a;
+    private static final int ALOAD_1 = 0x2b;
+    private static final int ALOAD_2 = 0x2c;
+    private static final int CHECKCAST = 0xc0;
+    private static final int GETFIELD = 0xb4;
+    private static final int PUTFIELD = 0xb5;
+    private static final int INVOKEINTERFACE = 0xb9;
+    private static final int RETURN = 0xb1;
+
+    private final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+    private final DataOutputStream pool = new DataOutputStream(poolBytes);
+    private final Map<String, Integer> poolIndexes = new HashMap<>();
+    private int poolCount = 1;
+
+    private CopierGenerator() { }
+
+    static byte[] generate(Class<?> c, List<ClonePlan.PlannedField> fields) {
+        try {
+            return new CopierGenerator().write(c, fields);
+        }
+        catch (IOException e) {
+            throw new AssertionError(
+                "Этого никогда не должно было произойти. Время отладки!",
+                e
+            );
+        }
+    }
+
+    private byte[] write(Class<?> c, List<ClonePlan.PlannedField> fields)
+        throws IOException
+    {
+        String owner = internalName(c);
+
+        int thisClass = classConstant(owner + "$$Copier");
+        int superClass = classConstant("java/lang/Object");
+        int ownerClass = classConstant(owner);
+        int methodName = utf8("copy");
+        int methodDescriptor = utf8(
+            "(Ljava/lang/Object;Ljava/lang/Object;Ldeepclone/CloneContext;)V"
+        );
+        int codeName = utf8("Code");
+        int cloneReference = interfaceMethodConstant(
+            "deepclone/CloneContext",
+            "cloneReference",
+            "(Ljava/lang/Object;)Ljava/lang/Object;"
+        );
+
+        ByteArrayOutputStream codeBytes = new ByteArrayOutputStream();
+        DataOutputStream code = new DataOutputStream(codeBytes);
+
+        for (ClonePlan.PlannedField pf : fields) {
+            Class<?> type = pf.field.getType();
+            int field = fieldConstant(owner, pf.field.getName(), descriptor(type));
+
+            code.writeByte(ALOAD_1);
+            code.writeByte(CHECKCAST);
+            code.writeShort(ownerClass);
+
+            if (pf.kind == ClonePlan.Kind.REFERENCE) {
+                code.writeByte(ALOAD_2);
+            }
+
+            code.writeByte(ALOAD_0);
+            code.writeByte(CHECKCAST);
+            code.writeShort(ownerClass);
+            code.writeByte(GETFIELD);
+            code.writeShort(field);
+
+            if (pf.kind == ClonePlan.Kind.REFERENCE) {
+                code.writeByte(INVOKEINTERFACE);
+                code.writeShort(cloneReference);
+                code.writeByte(2);
+                code.writeByte(0);
+
+                code.writeByte(CHECKCAST);
+                code.writeShort(classConstant(
+                    type.isArray() ? descriptor(type) : internalName(type)
+                ));
+            }
+
+            code.writeByte(PUTFIELD);
+            code.writeShort(field);
+        }
+
+        code.writeByte(RETURN);
+
+        ByteArrayOutputStream classBytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(classBytes);
+
+        out.writeInt(0xCAFEBABE);
+        out.writeShort(0);
+        out.writeShort(classFileVersion);
+
+        out.writeShort(poolCount);
+        poolBytes.writeTo(out);
+
+        out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+        out.writeShort(thisClass);
+        out.writeShort(superClass);
+        out.writeShort(0);
+        out.writeShort(0);
+
+        out.writeShort(1);
+        out.writeShort(ACC_PUBLIC | ACC_STATIC);
+        out.writeShort(methodName);
+        out.writeShort(methodDescriptor);
+        out.writeShort(1);
+
+        out.writeShort(codeName);
+        out.writeInt(2 + 2 + 4 + codeBytes.size() + 2 + 2);
+        out.writeShort(4);
+        out.writeShort(3);
+        out.writeInt(codeBytes.size());
+        codeBytes.writeTo(out);
+        out.writeShort(0);
+        out.writeShort(0);
+
+        out.writeShort(0);
+
+        return classBytes.toByteArray();
+    }
+
+    private int utf8(String value) throws IOException {
+        String key = "U" + value;
+        Integer index = poolIndexes.get(key);
+
+        if (index == null) {
+            pool.writeByte(CONSTANT_Utf8);
+            pool.writeUTF(value);
+            index = poolCount++;
+            poolIndexes.put(key, index);
+        }
+
+        return index;
+    }
+
+    private int classConstant(String internalName) throws IOException {
+        String key = "C" + internalName;
+        Integer index = poolIndexes.get(key);
+
+        if (index == null) {
+            int name = utf8(internalName);
+
+            pool.writeByte(CONSTANT_Class);
+            pool.writeShort(name);
+            index = poolCount++;
+            poolIndexes.put(key, index);
+        }
+
+        return index;
+    }
+
+    private int nameAndType(String name, String descriptor) throws IOException {
+        String key = "N" + name + ":" + descriptor;
+        Integer index = poolIndexes.get(key);
+
+        if (index == null) {
+            int nameIndex = utf8(name);
+            int descriptorIndex = utf8(descriptor);
+
+            pool.writeByte(CONSTANT_NameAndType);
+            pool.writeShort(nameIndex);
+            pool.writeShort(descriptorIndex);
+            index = poolCount++;
+            poolIndexes.put(key, index);
+        }
+
+        return index;
+    }
+
+    private int fieldConstant(String owner, String name, String descriptor)
+        throws IOException
+    {
+        return memberConstant(CONSTANT_Fieldref, owner, name, descriptor);
+    }
+
+    private int interfaceMethodConstant(String owner, String name, String descriptor)
+        throws IOException
+    {
+        return memberConstant(CONSTANT_InterfaceMethodref, owner, name, descriptor);
+    }
+
+    private int memberConstant(int tag, String owner, String name, String descriptor)
+        throws IOException
+    {
+        String key = tag + owner + "." + name + ":" + descriptor;
+        Integer index = poolIndexes.get(key);
+
+        if (index == null) {
+            int ownerIndex = classConstant(owner);
+            int nameAndTypeIndex = nameAndType(name, descriptor);
+
+            pool.writeByte(tag);
+            pool.writeShort(ownerIndex);
+            pool.writeShort(nameAndTypeIndex);
+            index = poolCount++;
+            poolIndexes.put(key, index);
+        }
+
+        return index;
+    }
+
+    private static String internalName(Class<?> c) {
+        return c.getName().replace('.', '/');
+    }
+
+    private static String descriptor(Class<?> c) {
+        if (c == boolean.class) return "Z";
+        if (c == char.class) return "C";
+        if (c == byte.class) return "B";
+        if (c == short.class) return "S";
+        if (c == int.class) return "I";
+        if (c == long.class) return "J";
+        if (c == float.class) return "F";
+        if (c == double.class) return "D";
+        if (c.isArray()) return internalName(c);
+
+        return "L" + internalName(c) + ";";
+    }
+}
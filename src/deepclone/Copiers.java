@@ -0,0 +1,166 @@
+package deepclone;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Modifier;
+import java.util.Optional;
+
+final class Copiers {
+    private static final ClassValue<Copier> copiers = new ClassValue<>() {
+        @Override
+        protected Copier computeValue(Class<?> c) {
+            return builtIn(c);
+        }
+    };
+
+    //SHARE и NULL_OUT CloneScope распознает по ссылке
+    //и не запоминает в таблице клонов
+    static final Copier SHARE = new Copier() {
+        @Override
+        Object create(Object original, CloneScope scope) {
+            return original;
+        }
+    };
+
+    static final Copier NULL_OUT = new Copier() {
+        @Override
+        Object create(Object original, CloneScope scope) {
+            return null;
+        }
+    };
+
+    //Optional неизменяем, но значение в нем может быть изменяемым
+    static final Copier OPTIONAL = new Copier() {
+        @Override
+        Object create(Object original, CloneScope scope) {
+            Object value = ((Optional<?>)original).orElse(null);
+
+            if (isShared(value, scope.cloner())) {
+                return original;
+            }
+
+            //Стратегия NULL_OUT заменяет значение на null
+            return Optional.ofNullable(scope.cloneReference(value));
+        }
+    };
+
+    static final Copier BULK_ARRAY = new Copier() {
+        @Override
+        Object create(Object original, CloneScope scope) {
+            int length = Array.getLength(original);
+            Object clone = Array.newInstance(original.getClass().componentType(), length);
+
+            System.arraycopy(original, 0, clone, 0, length);
+
+            return clone;
+        }
+    };
+
+    static final Copier ARRAY = new Copier() {
+        @Override
+        Object create(Object original, CloneScope scope) {
+            int length = Array.getLength(original);
+            Object clone = Array.newInstance(original.getClass().componentType(), length);
+
+            scope.scheduleFill(this, original, clone);
+
+            return clone;
+        }
+
+        @Override
+        void fill(Object original, Object clone, CloneScope scope) {
+            Object[] originalElements = (Object[])original;
+            Object[] cloneElements = (Object[])clone;
+
+            for (int i = 0; i < originalElements.length; ++i) {
+                cloneElements[i] = scope.cloneReference(originalElements[i]);
+            }
+        }
+    };
+
+    static final Copier OBJECT = new Copier() {
+        @Override
+        Object create(Object original, CloneScope scope) {
+            Object clone = scope.cloner().instantiationStrategy.newInstance(original.getClass());
+            scope.scheduleFill(this, original, clone);
+
+            return clone;
+        }
+
+        @Override
+        void fill(Object original, Object clone, CloneScope scope)
+            throws IllegalAccessException
+        {
+            Class<?> c = original.getClass();
+
+            if (scope.cloner().overridesImmutableFields(c)) {
+                ClonePlan.of(c).copyThroughContext(original, clone, scope);
+                return;
+            }
+
+            @SuppressWarnings("unchecked")
+            GeneratedCloner<Object> generated =
+                (GeneratedCloner<Object>)GeneratedCloners.of(c);
+
+            if (generated != null) {
+                generated.copy(original, clone, scope);
+                return;
+            }
+
+            ClonePlan.of(c).copy(original, clone, scope, scope.cloner().compilationThreshold);
+        }
+    };
+
+    private Copiers() { }
+
+    static Copier of(Class<?> c) {
+        return copiers.get(c);
+    }
+
+    private static Copier builtIn(Class<?> c) {
+        if (Cloner.isImmutable(c)) {
+            return SHARE;
+        }
+
+        if (c.isRecord()) {
+            return RecordCopier.of(c);
+        }
+
+        if (c == Optional.class) {
+            return OPTIONAL;
+        }
+
+        if (c.isArray()) {
+            return isBulkCopyable(c.componentType()) ? BULK_ARRAY : ARRAY;
+        }
+
+        Copier copier = ListCopiers.of(c);
+
+        if (copier == null) {
+            copier = MapCopiers.of(c);
+        }
+
+        return copier != null ? copier : OBJECT;
+    }
+
+    //Элементы таких массивов не нужно клонировать по одному
+    private static boolean isBulkCopyable(Class<?> component) {
+        return component.isPrimitive() ||
+            Modifier.isFinal(component.getModifiers()) && Cloner.isImmutable(component);
+    }
+
+    //Значение переносится в клон как есть: оно неизменяемое и без
+    //своей стратегии или его стратегия - share
+    static boolean isShared(Object value, Cloner cloner) {
+        return value == null || cloner.copierOf(value.getClass()) == SHARE;
+    }
+
+    static boolean allShared(Iterable<?> values, Cloner cloner) {
+        for (Object v : values) {
+            if (!isShared(v, cloner)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
@@ -0,0 +1,13 @@
+package deepclone;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+//Для класса с этой аннотацией DeepCloneableProcessor генерирует
+//GeneratedCloner, и Cloner копирует его поля без рефлексии
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.TYPE)
+public @interface DeepCloneable {
+}
@@ -0,0 +1,278 @@
+package deepclone;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+@SupportedAnnotationTypes("deepclone.DeepCloneable")
+public class DeepCloneableProcessor extends AbstractProcessor {
+    private static final String servicesFile =
+        "META-INF/services/" + GeneratedCloner.class.getName();
+
+    private static final Set<String> immutableTypes = Set.of(
+        "java.lang.Boolean",
+        "java.lang.Character",
+        "java.lang.Byte",
+        "java.lang.Short",
+        "java.lang.Integer",
+        "java.lang.Long",
+        "java.lang.Float",
+        "java.lang.Double",
+        "java.lang.String"
+    );
+
+    private final Set<String> generatedCloners = new LinkedHashSet<>();
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment round) {
+        for (Element e : round.getElementsAnnotatedWith(DeepCloneable.class)) {
+            if (e.getKind() != ElementKind.CLASS) {
+                error(e, "@DeepCloneable можно поставить только на класс");
+                continue;
+            }
+
+            TypeElement type = (TypeElement)e;
+
+            if (isSupported(type)) {
+                generate(type);
+            }
+        }
+
+        if (round.processingOver() && !generatedCloners.isEmpty()) {
+            writeServicesFile();
+        }
+
+        return true;
+    }
+
+    private boolean isSupported(TypeElement type) {
+        for (Element e = type; e instanceof TypeElement t; e = t.getEnclosingElement()) {
+            if (t.getNestingKind() == NestingKind.LOCAL ||
+                t.getNestingKind() == NestingKind.ANONYMOUS)
+            {
+                error(type, "@DeepCloneable не поддерживается для локальных классов");
+                return false;
+            }
+
+            if (t.getModifiers().contains(Modifier.PRIVATE)) {
+                error(type, "@DeepCloneable класс не должен быть вложен в private класс");
+                return false;
+            }
+
+            if (t.getNestingKind() == NestingKind.MEMBER &&
+                !t.getModifiers().contains(Modifier.STATIC))
+            {
+                error(type, "@DeepCloneable не поддерживается для внутренних (не static) классов");
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private void generate(TypeElement type) {
+        String packageName = packageOf(type).getQualifiedName().toString();
+        String typeName = erasure(type.asType());
+        String clonerName = clonerSimpleName(type);
+
+        List<String> statements = new ArrayList<>();
+        boolean ok = true;
+
+        for (TypeElement level = type; level != null; level = superclassOf(level)) {
+            boolean inherited = level != type;
+            boolean samePackage = packageOf(level).equals(packageOf(type));
+
+            for (VariableElement f : ElementFilter.fieldsIn(level.getEnclosedElements())) {
+                Set<Modifier> modifiers = f.getModifiers();
+
+                if (modifiers.contains(Modifier.STATIC)) {
+                    continue;
+                }
+
+                if (modifiers.contains(Modifier.FINAL)) {
+                    error(f, "Поле не может быть final: сгенерированный клонер присваивает его вне конструктора");
+                    ok = false;
+                    continue;
+                }
+
+                if (modifiers.contains(Modifier.PRIVATE) ||
+                    !samePackage && !modifiers.contains(Modifier.PUBLIC))
+                {
+                    error(f, "Поле недоступно сгенерированному клонеру " + clonerName);
+                    ok = false;
+                    continue;
+                }
+
+                statements.add(copyStatement(f, inherited ? erasure(level.asType()) : null));
+            }
+        }
+
+        if (!ok) {
+            return;
+        }
+
+        String qualifiedName = packageName.isEmpty()
+            ? clonerName
+            : packageName + "." + clonerName;
+
+        try (Writer writer = processingEnv.getFiler()
+            .createSourceFile(qualifiedName, type)
+            .openWriter();
+            PrintWriter out = new PrintWriter(writer))
+        {
+            if (!packageName.isEmpty()) {
+                out.println("package " + packageName + ";");
+                out.println();
+            }
+
+            out.println("@javax.annotation.processing.Generated(\"" + getClass().getName() + "\")");
+            out.println("@SuppressWarnings({\"unchecked\", \"rawtypes\"})");
+            out.println("public final class " + clonerName +
+                " implements deepclone.GeneratedCloner<" + typeName + "> {");
+            out.println("    @Override");
+            out.println("    public Class<" + typeName + "> type() {");
+            out.println("        return " + typeName + ".class;");
+            out.println("    }");
+            out.println();
+            out.println("    @Override");
+            out.println("    public void copy(" + typeName + " original, " + typeName +
+                " clone, deepclone.CloneContext context) {");
+
+            for (String s : statements) {
+                out.println("        " + s);
+            }
+
+            out.println("    }");
+            out.println("}");
+        }
+        catch (IOException e) {
+            error(type, "Не удалось записать " + qualifiedName + ": " + e.getMessage());
+            return;
+        }
+
+        generatedCloners.add(qualifiedName);
+    }
+
+    private String copyStatement(VariableElement f, String ownerCast) {
+        String name = f.getSimpleName().toString();
+        TypeMirror fieldType = f.asType();
+
+        String target = ownerCast == null
+            ? "clone." + name
+            : "((" + ownerCast + ")clone)." + name;
+
+        String source = ownerCast == null
+            ? "original." + name
+            : "((" + ownerCast + ")original)." + name;
+
+        if (fieldType.getKind().isPrimitive() ||
+            immutableTypes.contains(erasure(fieldType)))
+        {
+            return target + " = " + source + ";";
+        }
+
+        return target + " = (" + erasure(fieldType) + ")context.cloneReference(" + source + ");";
+    }
+
+    private void writeServicesFile() {
+        Set<String> lines = new LinkedHashSet<>();
+
+        //При инкрементальной компиляции файл мог остаться с прошлого раза
+        try {
+            FileObject existing = processingEnv.getFiler()
+                .getResource(StandardLocation.CLASS_OUTPUT, "", servicesFile);
+
+            try (BufferedReader reader = new BufferedReader(existing.openReader(true))) {
+                reader.lines()
+                    .map(String::trim)
+                    .filter(l -> !l.isEmpty())
+                    .forEach(lines::add);
+            }
+        }
+        catch (IOException e) {
+            //Файла еще нет
+        }
+
+        lines.addAll(generatedCloners);
+
+        try (Writer writer = processingEnv.getFiler()
+            .createResource(StandardLocation.CLASS_OUTPUT, "", servicesFile)
+            .openWriter();
+            PrintWriter out = new PrintWriter(writer))
+        {
+            lines.forEach(out::println);
+        }
+        catch (IOException e) {
+            processingEnv.getMessager().printMessage(
+                Diagnostic.Kind.ERROR,
+                "Не удалось записать " + servicesFile + ": " + e.getMessage()
+            );
+        }
+    }
+
+    private TypeElement superclassOf(TypeElement type) {
+        TypeMirror superclass = type.getSuperclass();
+
+        if (superclass.getKind() != TypeKind.DECLARED) {
+            return null;
+        }
+
+        TypeElement element = (TypeElement)((DeclaredType)superclass).asElement();
+
+        if (element.getQualifiedName().contentEquals("java.lang.Object")) {
+            return null;
+        }
+
+        return element;
+    }
+
+    private PackageElement packageOf(Element e) {
+        return processingEnv.getElementUtils().getPackageOf(e);
+    }
+
+    private String erasure(TypeMirror type) {
+        return processingEnv.getTypeUtils().erasure(type).toString();
+    }
+
+    private static String clonerSimpleName(TypeElement type) {
+        String name = type.getSimpleName().toString();
+
+        for (Element e = type.getEnclosingElement(); e instanceof TypeElement t; e = t.getEnclosingElement()) {
+            name = t.getSimpleName() + "_" + name;
+        }
+
+        return name + "Cloner";
+    }
+
+    private void error(Element e, String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, e);
+    }
+}
@@ -0,0 +1,187 @@
+package deepclone;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DeepCloneableProcessorTests {
+    @TempDir
+    Path sources;
+
+    @TempDir
+    Path classes;
+
+    private DiagnosticCollector<JavaFileObject> diagnostics;
+
+    @BeforeEach
+    public void createDiagnostics() {
+        diagnostics = new DiagnosticCollector<>();
+    }
+
+    @Test
+    public void test_generatedClonerIsUsed() throws Exception {
+        boolean compiled = compile("gen/Point.java", """
+            package gen;
+
+            import java.util.List;
+
+            @deepclone.DeepCloneable
+            public class Point extends Base {
+                public int x;
+                double y;
+                protected String label;
+                public int[] data;
+                public List<Point> neighbours;
+                public Point next;
+
+                public static Point sample() {
+                    Point p = new Point();
+                    p.id = 7;
+                    p.x = 1;
+                    p.y = 2.5;
+                    p.label = "p";
+                    p.data = new int[] { 1, 2, 3 };
+                    p.neighbours = new java.util.ArrayList<>(List.of(new Point()));
+                    p.next = p;
+                    return p;
+                }
+
+                public boolean isDeepCloneOf(Point o) {
+                    return this != o &&
+                        id == o.id && x == o.x && y == o.y && label == o.label &&
+                        data != o.data && java.util.Arrays.equals(data, o.data) &&
+                        neighbours != o.neighbours &&
+                        neighbours.get(0) != o.neighbours.get(0) &&
+                        next == this;
+                }
+            }
+            """, "gen/Base.java", """
+            package gen;
+
+            public class Base {
+                long id;
+            }
+            """);
+
+        assertTrue(compiled, diagnostics.getDiagnostics().toString());
+        assertTrue(Files.exists(classes.resolve("gen/PointCloner.class")));
+
+        try (URLClassLoader loader = new URLClassLoader(
+            new URL[] { classes.toUri().toURL() },
+            getClass().getClassLoader()
+        )) {
+            Class<?> point = loader.loadClass("gen.Point");
+
+            assertNotNull(GeneratedCloners.of(point));
+
+            Object original = point.getMethod("sample").invoke(null);
+            Object clone = new Cloner().deepClone(original);
+
+            assertTrue((Boolean)point.getMethod("isDeepCloneOf", point).invoke(clone, original));
+        }
+    }
+
+    @Test
+    public void test_brokenServiceFallsBackToReflection() throws Exception {
+        boolean compiled = compile("gen/Plain.java", """
+            package gen;
+
+            public class Plain {
+                public int[] data = { 1, 2 };
+            }
+            """);
+
+        assertTrue(compiled, diagnostics.getDiagnostics().toString());
+
+        Path services = classes.resolve("META-INF/services/" + GeneratedCloner.class.getName());
+        Files.createDirectories(services.getParent());
+        Files.writeString(services, "gen.MissingCloner\n");
+
+        try (URLClassLoader loader = new URLClassLoader(
+            new URL[] { classes.toUri().toURL() },
+            getClass().getClassLoader()
+        )) {
+            Class<?> plain = loader.loadClass("gen.Plain");
+
+            assertNull(GeneratedCloners.of(plain));
+
+            Object original = plain.getConstructor().newInstance();
+            Object clone = new Cloner().deepClone(original);
+
+            assertNotSame(plain.getField("data").get(original), plain.getField("data").get(clone));
+        }
+    }
+
+    @Test
+    public void test_inaccessibleFieldsAreReported() throws IOException {
+        boolean compiled = compile("gen/Broken.java", """
+            package gen;
+
+            @deepclone.DeepCloneable
+            public class Broken {
+                private int hidden;
+                final int fixed = 1;
+            }
+            """);
+
+        assertFalse(compiled);
+
+        long errors = diagnostics.getDiagnostics().stream()
+            .filter(d -> d.getKind() == Diagnostic.Kind.ERROR)
+            .count();
+
+        assertEquals(2, errors);
+    }
+
+    private boolean compile(String... pathsAndSources) throws IOException {
+        for (int i = 0; i < pathsAndSources.length; i += 2) {
+            Path file = sources.resolve(pathsAndSources[i]);
+
+            Files.createDirectories(file.getParent());
+            Files.writeString(file, pathsAndSources[i + 1]);
+        }
+
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+
+        try (StandardJavaFileManager files =
+                 compiler.getStandardFileManager(diagnostics, null, null))
+        {
+            List<Path> toCompile;
+
+            try (var walk = Files.walk(sources)) {
+                toCompile = walk.filter(p -> p.toString().endsWith(".java")).toList();
+            }
+
+            JavaCompiler.CompilationTask task = compiler.getTask(
+                null,
+                files,
+                diagnostics,
+                List.of(
+                    "-classpath", System.getProperty("java.class.path"),
+                    "-d", classes.toString()
+                ),
+                null,
+                files.getJavaFileObjectsFromPaths(toCompile)
+            );
+
+            task.setProcessors(List.of(new DeepCloneableProcessor()));
+
+            return task.call();
+        }
+    }
+}
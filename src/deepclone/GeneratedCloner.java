@@ -0,0 +1,7 @@
+package deepclone;
+
+public interface GeneratedCloner<T> {
+    Class<T> type();
+
+    void copy(T original, T clone, CloneContext context);
+}
@@ -0,0 +1,64 @@
+package deepclone;
+
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.WeakHashMap;
+
+final class GeneratedCloners {
+    //Клонеры загрузчика ссылаются на его классы, поэтому значение
+    //держится слабо: иначе WeakHashMap не отпустит загрузчик никогда.
+    //Найденный клонер класса остается в ClassValue cloners, а таблица
+    //загрузчика нужна, только пока его классы запрашиваются впервые
+    private static final Map<ClassLoader, WeakReference<Map<Class<?>, GeneratedCloner<?>>>> byLoader =
+        new WeakHashMap<>();
+
+    private static final ClassValue<GeneratedCloner<?>> cloners = new ClassValue<>() {
+        @Override
+        protected GeneratedCloner<?> computeValue(Class<?> c) {
+            return loadedBy(c.getClassLoader()).get(c);
+        }
+    };
+
+    private GeneratedCloners() { }
+
+    //null, если для класса нет сгенерированного клонера
+    @SuppressWarnings("unchecked")
+    static <T> GeneratedCloner<T> of(Class<T> c) {
+        return (GeneratedCloner<T>)cloners.get(c);
+    }
+
+    private static synchronized Map<Class<?>, GeneratedCloner<?>> loadedBy(
+        ClassLoader loader
+    ) {
+        WeakReference<Map<Class<?>, GeneratedCloner<?>>> reference = byLoader.get(loader);
+        Map<Class<?>, GeneratedCloner<?>> loaded = reference != null ? reference.get() : null;
+
+        if (loaded == null) {
+            loaded = load(loader);
+            byLoader.put(loader, new WeakReference<>(loaded));
+        }
+
+        return loaded;
+    }
+
+    //Сломанное описание сервиса или клонер, который не загружается,
+    //не должны ломать клонирование: классы без клонера копируются
+    //через рефлексию
+    private static Map<Class<?>, GeneratedCloner<?>> load(ClassLoader loader) {
+        Map<Class<?>, GeneratedCloner<?>> loaded = new HashMap<>();
+
+        try {
+            for (GeneratedCloner<?> g : ServiceLoader.load(GeneratedCloner.class, loader)) {
+                loaded.putIfAbsent(g.type(), g);
+            }
+        }
+        catch (ServiceConfigurationError e) {
+            //Остаются клонеры, загруженные до ошибки
+        }
+
+        return loaded;
+    }
+}
@@ -0,0 +1,1274 @@
+package deepclone;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.MonthDay;
+import java.time.OffsetDateTime;
+import java.time.OffsetTime;
+import java.time.Period;
+import java.time.Year;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.UUID;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+//Двоичный формат графа объектов для Cloner.encode/decode. Поля
+//обходятся по тому же ClonePlan, что и при клонировании, а граф - тем
+//же стеком pending: запись и чтение идут в одном порядке (LIFO),
+//поэтому длинные цепочки не переполняют стек потока.
+//
+//Заголовок - версия формата и порядок байтов буфера, в котором граф
+//записан. Чтение переключает буфер на этот порядок и возвращает
+//прежний, поэтому граф читается из буфера с любым порядком.
+//
+//Ссылка в потоке:
+//  NULL
+//  BACK_REFERENCE номер      - объект, уже встреченный в этом графе
+//  NEW_OBJECT класс заголовок - новый объект; номер ему дается по порядку
+//  EXTERNAL сегмент номер    - объект другого сегмента снимка
+//Класс записывается именем при первой встрече и номером потом.
+//Заголовок LinkedHashMap - флаг accessOrder, массива - длина, у
+//остальных объектов он пустой. Наследники коллекций JDK из кода
+//пользователя пишутся как обычные объекты.
+//
+//Граф сегмента снимка (см. SnapshotWriter) может начинаться с объекта-
+//оболочки, который пишется и читается снаружи и получает номер 0.
+//Объекты с полями, массивы и коллекции, уже записанные в другие
+//сегменты, пишутся ссылкой EXTERNAL, поэтому в снимке у объектов одна
+//нумерация на все сегменты. Значения (строки, числа, записи и т.п.)
+//в каждом сегменте пишутся заново: их идентичность не важна, а ссылка
+//заставила бы читать чужой сегмент.
+//
+//Поля объекта, элементы массивов и коллекций пишутся позже, из стека,
+//и при чтении заполняют уже созданный объект, поэтому общие и
+//циклические ссылки восстанавливаются. Значения, которые создаются
+//сразу целиком (записи, Optional, List.of и т.п.), пишутся вместе со
+//своим подграфом, и цикл через такое значение не поддерживается.
+//
+//Прочитать граф можно только с теми же версиями классов, с которыми
+//он был записан. Стратегии Cloner в формате не участвуют.
+//
+//Чтение создает объекты классов, названных в потоке, и заполняет их
+//поля в обход конструкторов. Без Cloner.Builder.decodeFilter читать
+//можно только данные из доверенного источника
+final class GraphCodec {
+    private static final byte version = 3;
+
+    private static final byte BIG_ENDIAN = 0;
+    private static final byte LITTLE_ENDIAN = 1;
+
+    private static final byte NULL = 0;
+    private static final byte BACK_REFERENCE = 1;
+    private static final byte NEW_OBJECT = 2;
+    private static final byte EXTERNAL = 3;
+
+    //Номер объекта, подграф которого еще пишется
+    private static final int inProgress = -2;
+
+    private enum Format {
+        STRING,
+        BOOLEAN,
+        CHAR,
+        BYTE,
+        SHORT,
+        INT,
+        LONG,
+        FLOAT,
+        DOUBLE,
+        CLASS,
+        ENUM,
+        //Неизменяемый класс JDK со своим TextCodec
+        TEXT,
+        RECORD,
+        OPTIONAL,
+        IMMUTABLE_LIST,
+        IMMUTABLE_SET,
+        IMMUTABLE_MAP,
+        ARRAYS_AS_LIST,
+        ARRAY,
+        COLLECTION,
+        MAP,
+        OBJECT,
+        UNSUPPORTED;
+
+        //Изменяемые объекты: только у них идентичность важна
+        //и сохраняется между сегментами снимка
+        boolean hasIdentity() {
+            return this == ARRAY || this == COLLECTION || this == MAP || this == OBJECT;
+        }
+
+        //Создаются из уже прочитанного содержимого
+        boolean isBuiltFromContents() {
+            return this == RECORD ||
+                this == OPTIONAL ||
+                this == IMMUTABLE_LIST ||
+                this == IMMUTABLE_SET ||
+                this == IMMUTABLE_MAP ||
+                this == ARRAYS_AS_LIST;
+        }
+    }
+
+    private static final Set<String> immutableLists = Set.of(
+        "java.util.ImmutableCollections$List12",
+        "java.util.ImmutableCollections$ListN"
+    );
+
+    private static final Set<String> immutableSets = Set.of(
+        "java.util.ImmutableCollections$Set12",
+        "java.util.ImmutableCollections$SetN"
+    );
+
+    private static final Set<String> immutableMaps = Set.of(
+        "java.util.ImmutableCollections$Map1",
+        "java.util.ImmutableCollections$MapN"
+    );
+
+    private static final String arraysAsList = "java.util.Arrays$ArrayList";
+
+    private static final ClassValue<Format> formats = new ClassValue<>() {
+        @Override
+        protected Format computeValue(Class<?> c) {
+            return formatOf(c);
+        }
+    };
+
+    private static final ClassValue<RecordCopier> records = new ClassValue<>() {
+        @Override
+        protected RecordCopier computeValue(Class<?> c) {
+            return RecordCopier.of(c);
+        }
+    };
+
+    private static final ClassValue<Object[]> enumConstants = new ClassValue<>() {
+        @Override
+        protected Object[] computeValue(Class<?> c) {
+            return c.getEnumConstants();
+        }
+    };
+
+    //Неизменяемые классы JDK, которые пишутся строкой. У каждого свое
+    //явное представление: угадать фабрику по toString нельзя, например
+    //Locale.toString не читается обратно ни одним методом Locale
+    private static final Map<Class<?>, TextCodec> textCodecs = new HashMap<>();
+
+    static {
+        text(BigDecimal.class, BigDecimal::toString, BigDecimal::new);
+        text(BigInteger.class, BigInteger::toString, BigInteger::new);
+        text(UUID.class, UUID::toString, UUID::fromString);
+        text(Locale.class, Locale::toLanguageTag, Locale::forLanguageTag);
+        text(URI.class, URI::toString, URI::create);
+        text(Instant.class, Instant::toString, Instant::parse);
+        text(LocalDate.class, LocalDate::toString, LocalDate::parse);
+        text(LocalTime.class, LocalTime::toString, LocalTime::parse);
+        text(LocalDateTime.class, LocalDateTime::toString, LocalDateTime::parse);
+        text(OffsetTime.class, OffsetTime::toString, OffsetTime::parse);
+        text(OffsetDateTime.class, OffsetDateTime::toString, OffsetDateTime::parse);
+        text(ZonedDateTime.class, ZonedDateTime::toString, ZonedDateTime::parse);
+        text(Duration.class, Duration::toString, Duration::parse);
+        text(Period.class, Period::toString, Period::parse);
+        text(MonthDay.class, MonthDay::toString, MonthDay::parse);
+        text(YearMonth.class, YearMonth::toString, YearMonth::parse);
+        //Year.parse не принимает годы больше 9999 без знака
+        text(Year.class, y -> Integer.toString(y.getValue()), t -> Year.of(Integer.parseInt(t)));
+        text(ZoneOffset.class, ZoneOffset::getId, ZoneOffset::of);
+        //Для непубличного ZoneRegion
+        text(ZoneId.class, ZoneId::getId, ZoneId::of);
+    }
+
+    //Класс или ближайший предок с TextCodec; null - нет
+    private static final ClassValue<TextCodec> texts = new ClassValue<>() {
+        @Override
+        protected TextCodec computeValue(Class<?> c) {
+            for (Class<?> k = c; k != null; k = k.getSuperclass()) {
+                TextCodec codec = textCodecs.get(k);
+
+                if (codec != null) {
+                    return codec;
+                }
+            }
+
+            return null;
+        }
+    };
+
+    //()Object для COLLECTION и MAP
+    private static final ClassValue<MethodHandle> constructors = new ClassValue<>() {
+        @Override
+        protected MethodHandle computeValue(Class<?> c) {
+            return noArgConstructor(c);
+        }
+    };
+
+    private final Cloner cloner;
+
+    private ByteBuffer buffer;
+
+    private final ArrayDeque<Object> pending = new ArrayDeque<>();
+
+    //Запись: объект -> номер
+    private final IdentityIndex objectIds;
+    private final IdentityIndex classIds;
+    private int objectCount = 0;
+    private int classCount = 0;
+
+    //Чтение: номер -> объект. Добавление в коллекции откладывается,
+    //как в MapCopiers: хеш элемента зависит от полей, которые
+    //читаются позже. state, коллекция - парами
+    private Object[] objects = new Object[64];
+    private Class<?>[] classes = new Class<?>[16];
+    private final ArrayDeque<Object> deferred = new ArrayDeque<>();
+
+    //Коллекция -> ее еще не добавленное содержимое
+    private final Map<Object, Object[]> unfinished = new IdentityHashMap<>();
+
+    //null вне снимка
+    private Segments segments;
+
+    GraphCodec(Cloner cloner) {
+        this.cloner = cloner;
+
+        objectIds = new IdentityIndex(cloner.expectedGraphSize);
+        classIds = new IdentityIndex(16);
+    }
+
+    int capacity() {
+        return Math.max(objectIds.capacity(), objects.length);
+    }
+
+    void reset() {
+        buffer = null;
+        segments = null;
+        pending.clear();
+        deferred.clear();
+        unfinished.clear();
+
+        objectIds.clear();
+        classIds.clear();
+
+        Arrays.fill(objects, 0, Math.min(objectCount, objects.length), null);
+        Arrays.fill(classes, 0, Math.min(classCount, classes.length), null);
+
+        objectCount = 0;
+        classCount = 0;
+    }
+
+    ByteBuffer encode(Object original, ByteBuffer buffer) throws IllegalAccessException {
+        return encode(original, buffer, null, null);
+    }
+
+    //shell - оболочка сегмента или null
+    ByteBuffer encode(Object original, ByteBuffer buffer, Object shell, Segments segments)
+        throws IllegalAccessException
+    {
+        this.buffer = buffer;
+        this.segments = segments;
+
+        ensure(2);
+        this.buffer.put(version);
+        this.buffer.put(buffer.order() == ByteOrder.LITTLE_ENDIAN ? LITTLE_ENDIAN : BIG_ENDIAN);
+
+        if (shell != null) {
+            define(shell);
+        }
+
+        writeReference(original);
+        drainWrites(0);
+
+        return this.buffer;
+    }
+
+    Object decode(ByteBuffer buffer) throws IllegalAccessException {
+        return decode(buffer, null, null);
+    }
+
+    Object decode(ByteBuffer buffer, Object shell, Segments segments) throws IllegalAccessException {
+        this.buffer = buffer;
+        this.segments = segments;
+
+        byte v = buffer.get();
+
+        if (v != version) {
+            throw new IllegalArgumentException("Неизвестная версия формата: " + v);
+        }
+
+        byte order = buffer.get();
+
+        if (order != BIG_ENDIAN && order != LITTLE_ENDIAN) {
+            throw new IllegalArgumentException("Поврежденные данные: порядок байтов " + order);
+        }
+
+        ByteOrder callerOrder = buffer.order();
+        buffer.order(order == LITTLE_ENDIAN ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+
+        try {
+            if (shell != null) {
+                register(shell);
+            }
+
+            Object original = readReference();
+            drainReads(0);
+            completeDeferred(0);
+
+            if (segments != null) {
+                segments.decoded(Arrays.copyOf(objects, objectCount));
+            }
+
+            return original;
+        }
+        finally {
+            buffer.order(callerOrder);
+        }
+    }
+
+    //Запись
+
+    private void writeReference(Object o) throws IllegalAccessException {
+        if (o == null) {
+            ensure(1);
+            buffer.put(NULL);
+            return;
+        }
+
+        int id = objectIds.get(o);
+
+        if (id >= 0) {
+            ensure(6);
+            buffer.put(BACK_REFERENCE);
+            writeVarint(id);
+            return;
+        }
+
+        if (id == inProgress) {
+            throw new IllegalArgumentException(
+                "Цикл через " + o.getClass().getName() +
+                    ": такие объекты создаются из готового содержимого"
+            );
+        }
+
+        Class<?> c = o instanceof Enum<?> e ? e.getDeclaringClass() : o.getClass();
+        Format format = formats.get(c);
+
+        if (format == Format.UNSUPPORTED) {
+            throw new IllegalArgumentException("Формат не поддерживает " + c.getName());
+        }
+
+        if (segments != null && format.hasIdentity()) {
+            long external = segments.find(o);
+
+            if (external >= 0) {
+                ensure(11);
+                buffer.put(EXTERNAL);
+                writeVarint((int)(external >>> 32));
+                writeVarint((int)external);
+                return;
+            }
+        }
+
+        checkComparator(o);
+
+        ensure(1);
+        buffer.put(NEW_OBJECT);
+        writeClass(c);
+
+        if (format.isBuiltFromContents()) {
+            objectIds.put(o, inProgress);
+
+            int mark = pending.size();
+
+            writeContents(format, o);
+            drainWrites(mark);
+        }
+        else if (format == Format.ARRAY) {
+            ensure(5);
+            writeVarint(Array.getLength(o));
+
+            pending.push(o);
+        }
+        else if (c == LinkedHashMap.class) {
+            ensure(1);
+            buffer.put(MapCopiers.isAccessOrdered((Map<?, ?>)o) ? (byte)1 : (byte)0);
+
+            pending.push(o);
+        }
+        else if (format == Format.COLLECTION || format == Format.MAP || format == Format.OBJECT) {
+            pending.push(o);
+        }
+        else {
+            writeValue(format, o);
+        }
+
+        if (segments != null && format.hasIdentity()) {
+            define(o);
+        }
+        else {
+            objectIds.put(o, objectCount++);
+        }
+    }
+
+    private void define(Object o) {
+        int id = objectCount++;
+
+        objectIds.put(o, id);
+        segments.defined(o, id);
+    }
+
+    //Компаратор - обычно лямбда, записать его нельзя
+    private static void checkComparator(Object o) {
+        boolean hasComparator =
+            o instanceof SortedMap<?, ?> map && map.comparator() != null ||
+            o instanceof SortedSet<?> set && set.comparator() != null;
+
+        if (hasComparator) {
+            throw new IllegalArgumentException(
+                "Формат не поддерживает " + o.getClass().getName() + " с компаратором"
+            );
+        }
+    }
+
+    private void writeValue(Format format, Object o) {
+        switch (format) {
+            case STRING -> writeString((String)o);
+            case BOOLEAN -> {
+                ensure(1);
+                buffer.put((Boolean)o ? (byte)1 : (byte)0);
+            }
+            case CHAR -> {
+                ensure(2);
+                buffer.putChar((Character)o);
+            }
+            case BYTE -> {
+                ensure(1);
+                buffer.put((Byte)o);
+            }
+            case SHORT -> {
+                ensure(2);
+                buffer.putShort((Short)o);
+            }
+            case INT -> {
+                ensure(4);
+                buffer.putInt((Integer)o);
+            }
+            case LONG -> {
+                ensure(8);
+                buffer.putLong((Long)o);
+            }
+            case FLOAT -> {
+                ensure(4);
+                buffer.putFloat((Float)o);
+            }
+            case DOUBLE -> {
+                ensure(8);
+                buffer.putDouble((Double)o);
+            }
+            case CLASS -> writeClass((Class<?>)o);
+            case ENUM -> {
+                ensure(5);
+                writeVarint(((Enum<?>)o).ordinal());
+            }
+            case TEXT -> writeString(texts.get(o.getClass()).write.apply(o));
+            default -> throw new AssertionError(format);
+        }
+    }
+
+    private void writeContents(Format format, Object o) throws IllegalAccessException {
+        switch (format) {
+            case RECORD -> {
+                for (Object component : records.get(o.getClass()).components(o)) {
+                    writeReference(component);
+                }
+            }
+            case OPTIONAL -> writeReference(((Optional<?>)o).orElse(null));
+            case IMMUTABLE_LIST, IMMUTABLE_SET, ARRAYS_AS_LIST -> writeElements((Collection<?>)o);
+            case IMMUTABLE_MAP -> writeEntries((Map<?, ?>)o);
+            default -> throw new AssertionError(format);
+        }
+    }
+
+    private void drainWrites(int mark) throws IllegalAccessException {
+        while (pending.size() > mark) {
+            writeBody(pending.pop());
+        }
+    }
+
+    private void writeBody(Object o) throws IllegalAccessException {
+        Class<?> c = o.getClass();
+
+        switch (formats.get(c)) {
+            case ARRAY -> writeArray(o, c.componentType());
+            case COLLECTION -> writeElements((Collection<?>)o);
+            case MAP -> writeEntries((Map<?, ?>)o);
+            case OBJECT -> {
+                ClonePlan plan = ClonePlan.of(c);
+                ClonePlan.PlannedField[] primitives = plan.primitiveFields();
+
+                ensure(primitives.length * 8);
+
+                for (ClonePlan.PlannedField pf : primitives) {
+                    pf.writePrimitive(o, buffer);
+                }
+
+                for (ClonePlan.PlannedField pf : plan.objectFields()) {
+                    writeReference(pf.field.get(o));
+                }
+            }
+            default -> throw new AssertionError(c);
+        }
+    }
+
+    private void writeElements(Collection<?> collection) throws IllegalAccessException {
+        Object[] elements = collection.toArray();
+
+        ensure(5);
+        writeVarint(elements.length);
+
+        for (Object e : elements) {
+            writeReference(e);
+        }
+    }
+
+    private void writeEntries(Map<?, ?> map) throws IllegalAccessException {
+        ensure(5);
+        writeVarint(map.size());
+
+        for (Map.Entry<?, ?> e : map.entrySet()) {
+            writeReference(e.getKey());
+            writeReference(e.getValue());
+        }
+    }
+
+    //Массивы примитивов копируются в буфер целиком через его представления
+    private void writeArray(Object array, Class<?> component) throws IllegalAccessException {
+        int length = Array.getLength(array);
+
+        if (!component.isPrimitive()) {
+            for (Object e : (Object[])array) {
+                writeReference(e);
+            }
+
+            return;
+        }
+
+        long bytes = (long)length * sizeOf(component);
+
+        if (bytes > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Массив не помещается в ByteBuffer");
+        }
+
+        ensure((int)bytes);
+
+        int position = buffer.position();
+
+        if (component == byte.class) {
+            buffer.put((byte[])array);
+        }
+        else if (component == boolean.class) {
+            for (boolean b : (boolean[])array) {
+                buffer.put(b ? (byte)1 : (byte)0);
+            }
+        }
+        else {
+            if (component == char.class) {
+                buffer.asCharBuffer().put((char[])array);
+            }
+            else if (component == short.class) {
+                buffer.asShortBuffer().put((short[])array);
+            }
+            else if (component == int.class) {
+                buffer.asIntBuffer().put((int[])array);
+            }
+            else if (component == long.class) {
+                buffer.asLongBuffer().put((long[])array);
+            }
+            else if (component == float.class) {
+                buffer.asFloatBuffer().put((float[])array);
+            }
+            else {
+                buffer.asDoubleBuffer().put((double[])array);
+            }
+
+            buffer.position(position + (int)bytes);
+        }
+    }
+
+    private void writeClass(Class<?> c) {
+        int id = classIds.get(c);
+
+        ensure(5);
+
+        if (id != IdentityIndex.absent) {
+            writeVarint(id + 1);
+            return;
+        }
+
+        writeVarint(0);
+        writeString(c.getName());
+
+        classIds.put(c, classCount++);
+    }
+
+    private void writeString(String s) {
+        int length = s.length();
+
+        //ASCII - частый случай: UTF-8 совпадает с char, массив не нужен
+        if (isAscii(s, length)) {
+            ensure(5 + length);
+            writeVarint(length);
+
+            for (int i = 0; i < length; ++i) {
+                buffer.put((byte)s.charAt(i));
+            }
+
+            return;
+        }
+
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+
+        ensure(5 + bytes.length);
+        writeVarint(bytes.length);
+        buffer.put(bytes);
+    }
+
+    private static boolean isAscii(String s, int length) {
+        for (int i = 0; i < length; ++i) {
+            if (s.charAt(i) >= 0x80) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private void writeVarint(int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer.put((byte)(value & 0x7F | 0x80));
+            value >>>= 7;
+        }
+
+        buffer.put((byte)value);
+    }
+
+    //Буфер растет так же, как его бы вырастил вызывающий: новый буфер
+    //того же вида и порядка байтов с уже записанными данными
+    private void ensure(int bytes) {
+        if (buffer.remaining() >= bytes) {
+            return;
+        }
+
+        long wanted = Math.max((long)buffer.capacity() * 2, (long)buffer.position() + bytes);
+        int capacity = (int)Math.min(Integer.MAX_VALUE - 8, wanted);
+
+        if (capacity - buffer.position() < bytes) {
+            throw new IllegalArgumentException("Граф не помещается в ByteBuffer");
+        }
+
+        ByteBuffer grown = buffer.isDirect()
+            ? ByteBuffer.allocateDirect(capacity)
+            : ByteBuffer.allocate(capacity);
+
+        grown.order(buffer.order());
+        grown.put(buffer.flip());
+
+        buffer = grown;
+    }
+
+    //Чтение
+
+    private Object readReference() throws IllegalAccessException {
+        byte tag = buffer.get();
+
+        return switch (tag) {
+            case NULL -> null;
+            case BACK_REFERENCE -> objects[readId(objectCount, "объект")];
+            case NEW_OBJECT -> readObject();
+            case EXTERNAL -> readExternal();
+            default -> throw new IllegalArgumentException("Поврежденные данные: метка " + tag);
+        };
+    }
+
+    private Object readObject() throws IllegalAccessException {
+        Class<?> c = readClass();
+        Format format = formats.get(c);
+        Object o;
+
+        if (format.isBuiltFromContents()) {
+            int mark = pending.size();
+            int deferredMark = deferred.size();
+
+            Object[] contents = readContents(format, c);
+
+            //Элементы Set.of и ключи Map.of должны быть готовы
+            //до того, как по ним посчитают хеш
+            drainReads(mark);
+            completeDeferred(deferredMark);
+
+            o = buildFromContents(format, c, contents);
+        }
+        else if (format == Format.ARRAY) {
+            o = Array.newInstance(c.componentType(), readLength(1));
+            pending.push(o);
+        }
+        else if (c == LinkedHashMap.class) {
+            o = new LinkedHashMap<>(16, 0.75f, buffer.get() != 0);
+            pending.push(o);
+        }
+        else if (format == Format.COLLECTION || format == Format.MAP) {
+            o = newCollection(constructors.get(c));
+            pending.push(o);
+        }
+        else if (format == Format.OBJECT) {
+            o = cloner.instantiationStrategy.newInstance(c);
+            pending.push(o);
+        }
+        else if (format == Format.UNSUPPORTED) {
+            throw new IllegalArgumentException("Формат не поддерживает " + c.getName());
+        }
+        else {
+            o = readValue(format, c);
+        }
+
+        register(o);
+
+        return o;
+    }
+
+    private void register(Object o) {
+        if (objectCount == objects.length) {
+            objects = Arrays.copyOf(objects, objects.length * 2);
+        }
+
+        objects[objectCount++] = o;
+    }
+
+    private Object readExternal() {
+        if (segments == null) {
+            throw new IllegalArgumentException("Поврежденные данные: ссылка на сегмент вне снимка");
+        }
+
+        int segment = readVarint();
+        int id = readVarint();
+
+        return segments.resolve(segment, id);
+    }
+
+    private Object readValue(Format format, Class<?> c) {
+        return switch (format) {
+            case STRING -> readString();
+            case BOOLEAN -> buffer.get() != 0;
+            case CHAR -> buffer.getChar();
+            case BYTE -> buffer.get();
+            case SHORT -> buffer.getShort();
+            case INT -> buffer.getInt();
+            case LONG -> buffer.getLong();
+            case FLOAT -> buffer.getFloat();
+            case DOUBLE -> buffer.getDouble();
+            case CLASS -> readClass();
+            case ENUM -> {
+                Object[] constants = enumConstants.get(c);
+                yield constants[readId(constants.length, "элемент перечисления")];
+            }
+            case TEXT -> texts.get(c).read.apply(readString());
+            default -> throw new AssertionError(format);
+        };
+    }
+
+    private Object[] readContents(Format format, Class<?> c) throws IllegalAccessException {
+        return switch (format) {
+            case RECORD -> readReferences(records.get(c).componentCount());
+            case OPTIONAL -> readReferences(1);
+            case IMMUTABLE_MAP -> readReferences(readLength(2) * 2);
+            default -> readReferences(readLength(1));
+        };
+    }
+
+    private Object[] readReferences(int count) throws IllegalAccessException {
+        Object[] references = new Object[count];
+
+        for (int i = 0; i < count; ++i) {
+            references[i] = readReference();
+        }
+
+        return references;
+    }
+
+    private static Object buildFromContents(Format format, Class<?> c, Object[] contents) {
+        return switch (format) {
+            case RECORD -> records.get(c).construct(contents);
+            case OPTIONAL -> Optional.ofNullable(contents[0]);
+            case IMMUTABLE_LIST -> List.of(contents);
+            case IMMUTABLE_SET -> Set.of(contents);
+            case ARRAYS_AS_LIST -> Arrays.asList(contents);
+            case IMMUTABLE_MAP -> {
+                Map.Entry<?, ?>[] entries = new Map.Entry<?, ?>[contents.length / 2];
+
+                for (int i = 0; i < entries.length; ++i) {
+                    entries[i] = Map.entry(contents[i * 2], contents[i * 2 + 1]);
+                }
+
+                yield Map.ofEntries(entries);
+            }
+            default -> throw new AssertionError(format);
+        };
+    }
+
+    private void drainReads(int mark) throws IllegalAccessException {
+        while (pending.size() > mark) {
+            readBody(pending.pop());
+        }
+    }
+
+    private void readBody(Object o) throws IllegalAccessException {
+        Class<?> c = o.getClass();
+
+        switch (formats.get(c)) {
+            case ARRAY -> readArray(o, c.componentType());
+            case COLLECTION -> defer(readReferences(readLength(1)), o);
+            case MAP -> defer(readReferences(readLength(2) * 2), o);
+            case OBJECT -> {
+                ClonePlan plan = ClonePlan.of(c);
+
+                for (ClonePlan.PlannedField pf : plan.primitiveFields()) {
+                    pf.readPrimitive(buffer, o);
+                }
+
+                for (ClonePlan.PlannedField pf : plan.objectFields()) {
+                    pf.field.set(o, readReference());
+                }
+            }
+            default -> throw new AssertionError(c);
+        }
+    }
+
+    private void readArray(Object array, Class<?> component) throws IllegalAccessException {
+        int length = Array.getLength(array);
+
+        if (!component.isPrimitive()) {
+            Object[] elements = (Object[])array;
+
+            for (int i = 0; i < length; ++i) {
+                elements[i] = readReference();
+            }
+
+            return;
+        }
+
+        int position = buffer.position();
+
+        if (component == byte.class) {
+            buffer.get((byte[])array);
+            return;
+        }
+
+        if (component == boolean.class) {
+            boolean[] elements = (boolean[])array;
+
+            for (int i = 0; i < length; ++i) {
+                elements[i] = buffer.get() != 0;
+            }
+
+            return;
+        }
+
+        if (component == char.class) {
+            buffer.asCharBuffer().get((char[])array);
+        }
+        else if (component == short.class) {
+            buffer.asShortBuffer().get((short[])array);
+        }
+        else if (component == int.class) {
+            buffer.asIntBuffer().get((int[])array);
+        }
+        else if (component == long.class) {
+            buffer.asLongBuffer().get((long[])array);
+        }
+        else if (component == float.class) {
+            buffer.asFloatBuffer().get((float[])array);
+        }
+        else {
+            buffer.asDoubleBuffer().get((double[])array);
+        }
+
+        buffer.position(position + length * sizeOf(component));
+    }
+
+    private void defer(Object[] contents, Object collection) {
+        deferred.push(collection);
+        deferred.push(contents);
+        unfinished.put(collection, contents);
+    }
+
+    private void completeDeferred(int mark) {
+        while (deferred.size() > mark) {
+            deferred.pop();
+            finish(deferred.pop());
+        }
+    }
+
+    //Порядок в стеке не гарантирует, что коллекция-ключ заполнена
+    //раньше той, в которую она добавляется, поэтому она заполняется
+    //здесь же, как CloneScope.finish
+    @SuppressWarnings("unchecked")
+    private void finish(Object collection) {
+        Object[] contents = unfinished.remove(collection);
+
+        if (contents == null) {
+            return;
+        }
+
+        if (collection instanceof Map<?, ?>) {
+            Map<Object, Object> map = (Map<Object, Object>)collection;
+
+            for (int i = 0; i < contents.length; i += 2) {
+                finish(contents[i]);
+                map.put(contents[i], contents[i + 1]);
+            }
+        }
+        else {
+            Collection<Object> elements = (Collection<Object>)collection;
+
+            for (Object e : contents) {
+                finish(e);
+                elements.add(e);
+            }
+        }
+    }
+
+    private Class<?> readClass() {
+        int id = readVarint();
+
+        if (id != 0) {
+            return classes[checkId(id - 1, classCount, "класс")];
+        }
+
+        Class<?> c = classForName(readString(), cloner.decodeFilter);
+
+        if (classCount == classes.length) {
+            classes = Arrays.copyOf(classes, classes.length * 2);
+        }
+
+        classes[classCount++] = c;
+
+        return c;
+    }
+
+    private String readString() {
+        int length = readLength(1);
+
+        if (buffer.hasArray()) {
+            int position = buffer.position();
+            String s = new String(
+                buffer.array(),
+                buffer.arrayOffset() + position,
+                length,
+                StandardCharsets.UTF_8
+            );
+
+            buffer.position(position + length);
+
+            return s;
+        }
+
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private int readId(int count, String what) {
+        return checkId(readVarint(), count, what);
+    }
+
+    private static int checkId(int id, int count, String what) {
+        if (id < 0 || id >= count) {
+            throw new IllegalArgumentException("Поврежденные данные: " + what + " с номером " + id);
+        }
+
+        return id;
+    }
+
+    //Число элементов, каждый из которых занимает в потоке не меньше
+    //minBytes. Длина больше остатка буфера - признак поврежденных
+    //данных, и память под нее не выделяется
+    private int readLength(int minBytes) {
+        int length = readVarint();
+
+        if (length < 0 || (long)length * minBytes > buffer.remaining()) {
+            throw new IllegalArgumentException("Поврежденные данные: длина " + length);
+        }
+
+        return length;
+    }
+
+    private int readVarint() {
+        int value = 0;
+
+        for (int shift = 0; ; shift += 7) {
+            byte b = buffer.get();
+            value |= (b & 0x7F) << shift;
+
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+
+    //filter - Cloner.Builder.decodeFilter; для массивов проверяется
+    //тип элементов, примитивы разрешены всегда
+    static Class<?> classForName(String name, Predicate<Class<?>> filter) {
+        Class<?> primitive = switch (name) {
+            case "boolean" -> boolean.class;
+            case "char" -> char.class;
+            case "byte" -> byte.class;
+            case "short" -> short.class;
+            case "int" -> int.class;
+            case "long" -> long.class;
+            case "float" -> float.class;
+            case "double" -> double.class;
+            case "void" -> void.class;
+            default -> null;
+        };
+
+        if (primitive != null) {
+            return primitive;
+        }
+
+        ClassLoader loader = Thread.currentThread().getContextClassLoader();
+
+        if (loader == null) {
+            loader = GraphCodec.class.getClassLoader();
+        }
+
+        Class<?> c;
+
+        //Без инициализации: до проверки фильтром код класса не выполняется
+        try {
+            c = Class.forName(name, false, loader);
+        }
+        catch (ClassNotFoundException e) {
+            throw new IllegalArgumentException("Класс из потока не найден: " + name, e);
+        }
+
+        Class<?> element = c;
+
+        while (element.isArray()) {
+            element = element.componentType();
+        }
+
+        if (filter != null && !element.isPrimitive() && !filter.test(element)) {
+            throw new IllegalArgumentException("Класс из потока запрещен фильтром: " + name);
+        }
+
+        return c;
+    }
+
+    //Классы
+
+    private static Format formatOf(Class<?> c) {
+        if (c == String.class) {
+            return Format.STRING;
+        }
+
+        if (c == Boolean.class) {
+            return Format.BOOLEAN;
+        }
+
+        if (c == Character.class) {
+            return Format.CHAR;
+        }
+
+        if (c == Byte.class) {
+            return Format.BYTE;
+        }
+
+        if (c == Short.class) {
+            return Format.SHORT;
+        }
+
+        if (c == Integer.class) {
+            return Format.INT;
+        }
+
+        if (c == Long.class) {
+            return Format.LONG;
+        }
+
+        if (c == Float.class) {
+            return Format.FLOAT;
+        }
+
+        if (c == Double.class) {
+            return Format.DOUBLE;
+        }
+
+        if (c == Class.class) {
+            return Format.CLASS;
+        }
+
+        if (c.isEnum()) {
+            return Format.ENUM;
+        }
+
+        if (c.isArray()) {
+            return Format.ARRAY;
+        }
+
+        if (c.isRecord()) {
+            return Format.RECORD;
+        }
+
+        if (c == Optional.class) {
+            return Format.OPTIONAL;
+        }
+
+        String name = c.getName();
+
+        if (immutableLists.contains(name)) {
+            return Format.IMMUTABLE_LIST;
+        }
+
+        if (immutableSets.contains(name)) {
+            return Format.IMMUTABLE_SET;
+        }
+
+        if (immutableMaps.contains(name)) {
+            return Format.IMMUTABLE_MAP;
+        }
+
+        if (name.equals(arraysAsList)) {
+            return Format.ARRAYS_AS_LIST;
+        }
+
+        //Поля классов JDK закрыты модулями: они записываются через
+        //публичное API или не записываются вовсе
+        if (isJdkClass(c) && c != Object.class) {
+            if (texts.get(c) != null) {
+                return Format.TEXT;
+            }
+
+            if (Cloner.isImmutable(c) || constructors.get(c) == null) {
+                return Format.UNSUPPORTED;
+            }
+
+            if (Collection.class.isAssignableFrom(c)) {
+                return Format.COLLECTION;
+            }
+
+            return Map.class.isAssignableFrom(c) ? Format.MAP : Format.UNSUPPORTED;
+        }
+
+        return Format.OBJECT;
+    }
+
+    private static boolean isJdkClass(Class<?> c) {
+        String name = c.getName();
+
+        return name.startsWith("java.") ||
+            name.startsWith("javax.") ||
+            name.startsWith("jdk.") ||
+            name.startsWith("sun.");
+    }
+
+    private static MethodHandle noArgConstructor(Class<?> c) {
+        try {
+            return MethodHandles.publicLookup()
+                .findConstructor(c, MethodType.methodType(void.class))
+                .asType(MethodType.methodType(Object.class));
+        }
+        catch (NoSuchMethodException | IllegalAccessException e) {
+            return null;
+        }
+    }
+
+    private static Object newCollection(MethodHandle constructor) {
+        try {
+            return (Object)constructor.invokeExact();
+        }
+        catch (RuntimeException | Error e) {
+            throw e;
+        }
+        catch (Throwable e) {
+            throw new AssertionError(
+                "Этого никогда не должно было произойти. Время отладки!",
+                e
+            );
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> void text(
+        Class<T> type,
+        Function<T, String> write,
+        Function<String, T> read
+    ) {
+        textCodecs.put(type, new TextCodec((Function<Object, String>)write, read::apply));
+    }
+
+    private static int sizeOf(Class<?> primitive) {
+        if (primitive == long.class || primitive == double.class) {
+            return 8;
+        }
+
+        if (primitive == int.class || primitive == float.class) {
+            return 4;
+        }
+
+        if (primitive == char.class || primitive == short.class) {
+            return 2;
+        }
+
+        return 1;
+    }
+
+    private static final class TextCodec {
+        final Function<Object, String> write;
+        final Function<String, Object> read;
+
+        TextCodec(Function<Object, String> write, Function<String, Object> read) {
+            this.write = write;
+            this.read = read;
+        }
+    }
+
+    //Другие сегменты снимка. Запись вызывает find и defined, чтение -
+    //resolve и decoded
+    interface Segments {
+        //Сегмент (старшие 32 бита) и номер в нем объекта, уже
+        //записанного в другой сегмент; -1, если такого нет
+        long find(Object o);
+
+        void defined(Object o, int id);
+
+        Object resolve(int segment, int id);
+
+        //Объекты прочитанного графа по номерам
+        void decoded(Object[] objects);
+    }
+}
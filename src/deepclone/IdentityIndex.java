@@ -0,0 +1,113 @@
+package deepclone;
+
+import java.util.Arrays;
+
+//Как IdentityTable, но значения - int без упаковки в Integer.
+//Нужен для нумерации объектов графа в Reclone
+final class IdentityIndex {
+    static final int absent = -1;
+
+    private static final int minCapacity = 16;
+
+    private Object[] keys;
+    private int[] values;
+    private int size;
+    private int shift;
+
+    IdentityIndex(int expectedSize) {
+        allocate(capacityFor(expectedSize));
+    }
+
+    int size() {
+        return size;
+    }
+
+    int capacity() {
+        return keys.length;
+    }
+
+    int get(Object key) {
+        Object[] keys = this.keys;
+        int mask = keys.length - 1;
+        int i = indexOf(key);
+
+        while (true) {
+            Object k = keys[i];
+
+            if (k == key) {
+                return values[i];
+            }
+
+            if (k == null) {
+                return absent;
+            }
+
+            i = (i + 1) & mask;
+        }
+    }
+
+    void put(Object key, int value) {
+        Object[] keys = this.keys;
+        int mask = keys.length - 1;
+        int i = indexOf(key);
+
+        while (true) {
+            Object k = keys[i];
+
+            if (k == key) {
+                values[i] = value;
+                return;
+            }
+
+            if (k == null) {
+                keys[i] = key;
+                values[i] = value;
+
+                if (++size * 3 > keys.length * 2) {
+                    resize();
+                }
+
+                return;
+            }
+
+            i = (i + 1) & mask;
+        }
+    }
+
+    void clear() {
+        if (size > 0) {
+            Arrays.fill(keys, null);
+            size = 0;
+        }
+    }
+
+    private int indexOf(Object key) {
+        int h = System.identityHashCode(key) * 0x9E3779B9;
+        return h >>> shift;
+    }
+
+    private void resize() {
+        Object[] oldKeys = keys;
+        int[] oldValues = values;
+
+        allocate(keys.length * 2);
+        size = 0;
+
+        for (int i = 0; i < oldKeys.length; ++i) {
+            if (oldKeys[i] != null) {
+                put(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new Object[capacity];
+        values = new int[capacity];
+        shift = Integer.numberOfLeadingZeros(capacity) + 1;
+    }
+
+    private static int capacityFor(int expectedSize) {
+        long wanted = Math.max(minCapacity, (long)expectedSize * 3 / 2 + 1);
+        return (int)Math.min(1 << 30, Long.highestOneBit(wanted - 1) << 1);
+    }
+}
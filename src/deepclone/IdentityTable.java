@@ -0,0 +1,124 @@
+package deepclone;
+
+import java.util.Arrays;
+import java.util.function.BiConsumer;
+
+//Таблица original -> clone с открытой адресацией и линейным
+//пробированием. В отличие от IdentityHashMap, ее можно заранее
+//создать нужного размера и очищать без выделения нового массива
+final class IdentityTable {
+    private static final int minCapacity = 16;
+
+    //Ключи в четных ячейках, значения - в следующих за ними нечетных
+    private Object[] table;
+    private int size;
+    private int shift;
+
+    IdentityTable(int expectedSize) {
+        allocate(capacityFor(expectedSize));
+    }
+
+    int size() {
+        return size;
+    }
+
+    int capacity() {
+        return table.length / 2;
+    }
+
+    Object get(Object key) {
+        Object[] table = this.table;
+        int mask = table.length - 1;
+        int i = indexOf(key);
+
+        while (true) {
+            Object k = table[i];
+
+            if (k == key) {
+                return table[i + 1];
+            }
+
+            if (k == null) {
+                return null;
+            }
+
+            i = (i + 2) & mask;
+        }
+    }
+
+    void put(Object key, Object value) {
+        Object[] table = this.table;
+        int mask = table.length - 1;
+        int i = indexOf(key);
+
+        while (true) {
+            Object k = table[i];
+
+            if (k == key) {
+                table[i + 1] = value;
+                return;
+            }
+
+            if (k == null) {
+                table[i] = key;
+                table[i + 1] = value;
+
+                if (++size * 3 > capacity() * 2) {
+                    resize();
+                }
+
+                return;
+            }
+
+            i = (i + 2) & mask;
+        }
+    }
+
+    void forEach(BiConsumer<Object, Object> action) {
+        Object[] table = this.table;
+
+        for (int i = 0; i < table.length; i += 2) {
+            if (table[i] != null) {
+                action.accept(table[i], table[i + 1]);
+            }
+        }
+    }
+
+    void clear() {
+        if (size > 0) {
+            Arrays.fill(table, null);
+            size = 0;
+        }
+    }
+
+    private int indexOf(Object key) {
+        //Фибоначчиево хеширование: старшие биты произведения
+        //лучше распределены, чем младшие биты identityHashCode
+        int h = System.identityHashCode(key) * 0x9E3779B9;
+        return (h >>> shift) << 1;
+    }
+
+    private void resize() {
+        Object[] old = table;
+
+        allocate(capacity() * 2);
+        size = 0;
+
+        for (int i = 0; i < old.length; i += 2) {
+            if (old[i] != null) {
+                put(old[i], old[i + 1]);
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        table = new Object[capacity * 2];
+        shift = Integer.numberOfLeadingZeros(capacity) + 1;
+    }
+
+    private static int capacityFor(int expectedSize) {
+        //Заполненность не выше 2/3
+        long wanted = Math.max(minCapacity, (long)expectedSize * 3 / 2 + 1);
+        return (int)Math.min(1 << 29, Long.highestOneBit(wanted - 1) << 1);
+    }
+}
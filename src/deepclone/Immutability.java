@@ -0,0 +1,140 @@
+package deepclone;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.net.URI;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.OptionalDouble;
+import java.util.OptionalInt;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.UUID;
+import java.util.regex.Pattern;
+
+//Решает, можно ли переносить объекты класса в клон без копирования.
+//Вердикт вычисляется один раз на класс
+final class Immutability {
+    private static final Set<Class<?>> knownImmutableTypes = Set.of(
+        Boolean.class,
+        Character.class,
+        Byte.class,
+        Short.class,
+        Integer.class,
+        Long.class,
+        Float.class,
+        Double.class,
+        Void.class,
+        String.class,
+        Class.class,
+        BigDecimal.class,
+        BigInteger.class,
+        UUID.class,
+        OptionalInt.class,
+        OptionalLong.class,
+        OptionalDouble.class,
+        Locale.class,
+        URI.class,
+        Pattern.class
+    );
+
+    //Все классы пакета java.time неизменяемые, включая
+    //непубличные наследники ZoneId и Clock
+    private static final String javaTime = "java.time";
+
+    private static final ClassValue<Boolean> verdicts = new ClassValue<>() {
+        @Override
+        protected Boolean computeValue(Class<?> c) {
+            return analyze(c, new HashSet<>());
+        }
+    };
+
+    private Immutability() { }
+
+    static boolean isImmutable(Class<?> c) {
+        return c.isPrimitive() || verdicts.get(c);
+    }
+
+    //Константы и значения JDK: переносятся как есть даже при
+    //стратегии для их пакета. Для остальных неизменяемых классов
+    //стратегии важнее вердикта
+    static boolean isBuiltIn(Class<?> c) {
+        return c.isPrimitive() ||
+            knownImmutableTypes.contains(c) ||
+            Enum.class.isAssignableFrom(c) ||
+            c.getPackageName().equals(javaTime);
+    }
+
+    //Внутри анализа ClassValue не используется: он не защищен
+    //от повторного входа для того же класса на циклах типов
+    private static boolean analyze(Class<?> c, Set<Class<?>> visited) {
+        if (isImmutableHierarchy(c)) {
+            return true;
+        }
+
+        //Пустой new Object() обычно служит монитором, и его
+        //идентичность важна
+        if (c.isArray() || c.isInterface() || c == Object.class) {
+            return false;
+        }
+
+        return isEffectivelyImmutable(c, visited);
+    }
+
+    //Неизменяемы все наследники: такие типы можно считать
+    //неизменяемыми, даже если объявленный тип поля не final
+    private static boolean isImmutableHierarchy(Class<?> c) {
+        return c.isPrimitive() ||
+            knownImmutableTypes.contains(c) ||
+            Enum.class.isAssignableFrom(c) ||
+            c.getPackageName().equals(javaTime) ||
+            isAnnotatedImmutable(c);
+    }
+
+    private static boolean isAnnotatedImmutable(Class<?> c) {
+        for (Annotation a : c.getAnnotations()) {
+            if (a.annotationType().getSimpleName().equals("Immutable")) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    //Все поля иерархии final и неизменяемого типа. Класс, который уже
+    //проверяется выше по стеку, считается неизменяемым: если это
+    //не так, неудача найдется в другом поле и вернется наверх
+    private static boolean isEffectivelyImmutable(Class<?> c, Set<Class<?>> visited) {
+        if (!visited.add(c)) {
+            return true;
+        }
+
+        for (Class<?> level = c; level != Object.class; level = level.getSuperclass()) {
+            for (Field f : level.getDeclaredFields()) {
+                int modifiers = f.getModifiers();
+
+                if (Modifier.isStatic(modifiers)) {
+                    continue;
+                }
+
+                if (!Modifier.isFinal(modifiers) || !isImmutableFieldType(f.getType(), visited)) {
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    //В поле не final типа может лежать изменяемый наследник
+    private static boolean isImmutableFieldType(Class<?> type, Set<Class<?>> visited) {
+        if (isImmutableHierarchy(type)) {
+            return true;
+        }
+
+        return Modifier.isFinal(type.getModifiers()) && analyze(type, visited);
+    }
+}
@@ -0,0 +1,14 @@
+package deepclone;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+//Объекты класса не меняются после создания, и Cloner переносит их
+//в клон как есть. Так же понимается любая другая аннотация
+//с именем Immutable, если она видна во время выполнения
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface Immutable {
+}
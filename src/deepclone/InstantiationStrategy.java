@@ -0,0 +1,17 @@
+package deepclone;
+
+public interface InstantiationStrategy {
+    Object newInstance(Class<?> c);
+
+    static InstantiationStrategy objenesis() {
+        return Instantiators.OBJENESIS;
+    }
+
+    static InstantiationStrategy noArgConstructor() {
+        return Instantiators.NO_ARG_CONSTRUCTOR;
+    }
+
+    static InstantiationStrategy unsafe() {
+        return Instantiators.unsafe();
+    }
+}
@@ -0,0 +1,124 @@
+package deepclone;
+
+import org.objenesis.Objenesis;
+import org.objenesis.ObjenesisStd;
+import org.objenesis.instantiator.ObjectInstantiator;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+
+final class Instantiators {
+    //Собственный кеш Objenesis не нужен: инстанциаторы и так
+    //хранятся в ClassValue ниже
+    private static final Objenesis objenesis = new ObjenesisStd(false);
+
+    static final InstantiationStrategy OBJENESIS = new Cached() {
+        @Override
+        protected ObjectInstantiator<?> create(Class<?> c) {
+            return objenesis.getInstantiatorOf(c);
+        }
+    };
+
+    static final InstantiationStrategy NO_ARG_CONSTRUCTOR = new Cached() {
+        @Override
+        protected ObjectInstantiator<?> create(Class<?> c) {
+            Constructor<?> constructor;
+
+            try {
+                constructor = c.getDeclaredConstructor();
+            }
+            catch (NoSuchMethodException e) {
+                throw new IllegalArgumentException(
+                    "У класса " + c.getName() + " нет конструктора без параметров",
+                    e
+                );
+            }
+
+            constructor.setAccessible(true);
+
+            return () -> {
+                try {
+                    return constructor.newInstance();
+                }
+                catch (ReflectiveOperationException e) {
+                    throw new IllegalStateException(
+                        "Не удалось создать экземпляр " + c.getName(),
+                        e
+                    );
+                }
+            };
+        }
+    };
+
+    private static InstantiationStrategy unsafe;
+
+    private Instantiators() { }
+
+    static synchronized InstantiationStrategy unsafe() {
+        if (unsafe == null) {
+            unsafe = createUnsafeStrategy();
+        }
+
+        return unsafe;
+    }
+
+    private static InstantiationStrategy createUnsafeStrategy() {
+        MethodHandle allocateInstance;
+
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+
+            field.setAccessible(true);
+
+            allocateInstance = MethodHandles.lookup()
+                .unreflect(unsafeClass.getMethod("allocateInstance", Class.class))
+                .bindTo(field.get(null));
+        }
+        catch (ReflectiveOperationException | RuntimeException e) {
+            throw new UnsupportedOperationException(
+                "sun.misc.Unsafe недоступен в этой JVM",
+                e
+            );
+        }
+
+        return new Cached() {
+            @Override
+            protected ObjectInstantiator<?> create(Class<?> c) {
+                return () -> {
+                    try {
+                        return (Object)allocateInstance.invokeExact(c);
+                    }
+                    catch (RuntimeException | Error e) {
+                        throw e;
+                    }
+                    catch (Throwable e) {
+                        throw new IllegalStateException(
+                            "Не удалось создать экземпляр " + c.getName(),
+                            e
+                        );
+                    }
+                };
+            }
+        };
+    }
+
+    private abstract static class Cached implements InstantiationStrategy {
+        private final ClassValue<ObjectInstantiator<?>> instantiators =
+            new ClassValue<>() {
+                @Override
+                protected ObjectInstantiator<?> computeValue(Class<?> c) {
+                    return create(c);
+                }
+            };
+
+        protected abstract ObjectInstantiator<?> create(Class<?> c);
+
+        @Override
+        public Object newInstance(Class<?> c) {
+            return instantiators.get(c).newInstance();
+        }
+    }
+}
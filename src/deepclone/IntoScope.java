@@ -0,0 +1,443 @@
+package deepclone;
+
+import java.lang.reflect.Array;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.RandomAccess;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+
+//Клонирование в существующий граф для Cloner.cloneInto. Исходный граф
+//обходится вместе с целевым: объект цели на том же месте, того же
+//класса и формы перезаписывается на месте, а не создается заново.
+//Массивы переиспользуются при той же длине, списки, словари и
+//множества - с неизменяемыми ключами и элементами.
+//
+//Объекты цели, которые остались без пары (например, поле источника
+//стало null), откладываются и занимают место новых объектов того же
+//класса в этом же вызове. Новые объекты создаются только там, где
+//формы графов расходятся и запасного объекта нет.
+//
+//Цель не должна разделять изменяемые объекты с источником
+final class IntoScope extends CloneScope {
+    //Объекты цели, которые уже получили пару
+    private final IdentityTable used;
+
+    //Объекты цели без пары, по классам
+    private final Map<Class<?>, ArrayDeque<Object>> spares = new IdentityHashMap<>();
+
+    private static final Copier OBJECT_INTO = new Copier.FillOnly() {
+        @Override
+        void fill(Object original, Object clone, CloneScope scope)
+            throws IllegalAccessException
+        {
+            IntoScope into = (IntoScope)scope;
+            Class<?> c = original.getClass();
+            ClonePlan plan = ClonePlan.of(c);
+
+            //Как в Copiers.OBJECT: при стратегии для неизменяемого типа
+            //его поля тоже идут через into
+            boolean overrides = into.cloner().overridesImmutableFields(c);
+
+            plan.copyPrimitives(original, clone);
+
+            for (ClonePlan.PlannedField pf : plan.objectFields()) {
+                Object value = pf.field.get(original);
+
+                if (overrides || pf.kind != ClonePlan.Kind.IMMUTABLE) {
+                    value = into.into(value, pf.field.get(clone));
+                }
+
+                pf.field.set(clone, value);
+            }
+        }
+    };
+
+    private static final Copier ARRAY_INTO = new Copier.FillOnly() {
+        @Override
+        void fill(Object original, Object clone, CloneScope scope) {
+            IntoScope into = (IntoScope)scope;
+            Object[] originalElements = (Object[])original;
+            Object[] cloneElements = (Object[])clone;
+
+            for (int i = 0; i < originalElements.length; ++i) {
+                cloneElements[i] = into.into(originalElements[i], cloneElements[i]);
+            }
+        }
+    };
+
+    //Элементы сопоставляются по индексу, лишние удаляются с конца.
+    //ArrayList обходится по индексам, без итераторов
+    private static final Copier LIST_INTO = new Copier.FillOnly() {
+        @Override
+        @SuppressWarnings("unchecked")
+        void fill(Object original, Object clone, CloneScope scope) {
+            IntoScope into = (IntoScope)scope;
+            List<?> source = (List<?>)original;
+            List<Object> target = (List<Object>)clone;
+
+            if (!(target instanceof RandomAccess)) {
+                fillSequential(into, source, target);
+                return;
+            }
+
+            int size = source.size();
+            int common = Math.min(size, target.size());
+
+            for (int i = 0; i < common; ++i) {
+                target.set(i, into.into(source.get(i), target.get(i)));
+            }
+
+            for (int i = common; i < size; ++i) {
+                target.add(into.into(source.get(i), null));
+            }
+
+            for (int i = target.size() - 1; i >= size; --i) {
+                into.spare(target.remove(i));
+            }
+        }
+
+        private static void fillSequential(IntoScope into, List<?> source, List<Object> target) {
+            ListIterator<Object> targets = target.listIterator();
+
+            for (Object o : source) {
+                if (targets.hasNext()) {
+                    targets.set(into.into(o, targets.next()));
+                }
+                else {
+                    targets.add(into.into(o, null));
+                }
+            }
+
+            while (targets.hasNext()) {
+                into.spare(targets.next());
+                targets.remove();
+            }
+        }
+    };
+
+    //Ключи неизменяемые, значения сопоставляются по ключу. put
+    //существующего ключа не создает запись, поэтому при тех же ключах
+    //словарь не выделяет память. У LinkedHashMap важен и порядок:
+    //если ключи те же и в том же порядке, меняются значения записей
+    private static final Copier MAP_INTO = new Copier.FillOnly() {
+        @Override
+        @SuppressWarnings("unchecked")
+        void fill(Object original, Object clone, CloneScope scope) {
+            IntoScope into = (IntoScope)scope;
+            Map<?, ?> source = (Map<?, ?>)original;
+            Map<Object, Object> target = (Map<Object, Object>)clone;
+            boolean ordered = target instanceof LinkedHashMap<?, ?>;
+
+            if (ordered && source.size() == target.size() && setValuesInOrder(into, source, target)) {
+                return;
+            }
+
+            for (Map.Entry<?, ?> e : source.entrySet()) {
+                Object key = e.getKey();
+                target.put(key, into.into(e.getValue(), target.get(key)));
+            }
+
+            if (target.size() != source.size()) {
+                Iterator<Map.Entry<Object, Object>> entries = target.entrySet().iterator();
+
+                while (entries.hasNext()) {
+                    Map.Entry<Object, Object> e = entries.next();
+
+                    if (!source.containsKey(e.getKey())) {
+                        into.spare(e.getValue());
+                        entries.remove();
+                    }
+                }
+            }
+
+            //Новые ключи добавились в конец: порядок восстанавливается
+            //перестановкой записей
+            if (ordered && !sameOrder(source.keySet(), target.keySet())) {
+                for (Object key : source.keySet()) {
+                    target.put(key, target.remove(key));
+                }
+            }
+        }
+
+        private static boolean setValuesInOrder(
+            IntoScope into,
+            Map<?, ?> source,
+            Map<Object, Object> target
+        ) {
+            Iterator<? extends Map.Entry<?, ?>> sources = source.entrySet().iterator();
+            Iterator<Map.Entry<Object, Object>> targets = target.entrySet().iterator();
+
+            while (sources.hasNext()) {
+                Map.Entry<?, ?> s = sources.next();
+                Map.Entry<Object, Object> t = targets.next();
+
+                if (!Objects.equals(s.getKey(), t.getKey())) {
+                    return false;
+                }
+
+                t.setValue(into.into(s.getValue(), t.getValue()));
+            }
+
+            return true;
+        }
+    };
+
+    //Элементы неизменяемые и не клонируются
+    private static final Copier SET_INTO = new Copier.FillOnly() {
+        @Override
+        @SuppressWarnings("unchecked")
+        void fill(Object original, Object clone, CloneScope scope) {
+            Set<?> source = (Set<?>)original;
+            Set<Object> target = (Set<Object>)clone;
+
+            if (target instanceof LinkedHashSet<?>) {
+                if (!sameOrder(source, target)) {
+                    target.clear();
+                    target.addAll(source);
+                }
+
+                return;
+            }
+
+            if (source.size() != target.size() || !target.containsAll(source)) {
+                target.retainAll(source);
+                target.addAll(source);
+            }
+        }
+    };
+
+    IntoScope(Cloner cloner) {
+        super(cloner);
+        used = new IdentityTable(cloner.expectedGraphSize);
+    }
+
+    @Override
+    int capacity() {
+        return Math.max(super.capacity(), used.capacity());
+    }
+
+    @Override
+    void reset() {
+        super.reset();
+
+        used.clear();
+        spares.clear();
+    }
+
+    Object cloneInto(Object source, Object target) throws IllegalAccessException {
+        Object clone = into(source, target);
+
+        drainPending();
+        completeDeferred();
+
+        return clone;
+    }
+
+    //Ссылки, для которых в цели нет пары: объекты создаются заново
+    //или берутся из запасных
+    @Override
+    public Object cloneReference(Object original) {
+        return into(original, null);
+    }
+
+    Object into(Object original, Object target) {
+        if (original == null) {
+            spare(target);
+            return null;
+        }
+
+        Copier copier = cloner().copierOf(original.getClass());
+
+        if (copier == Copiers.SHARE || copier == Copiers.NULL_OUT) {
+            spare(target);
+            return copier == Copiers.SHARE ? original : null;
+        }
+
+        Object clone = existingClone(original);
+
+        if (clone != null) {
+            if (clone != target) {
+                spare(target);
+            }
+
+            return clone;
+        }
+
+        Copier inPlace = inPlaceCopier(copier);
+
+        if (inPlace != null) {
+            if (!isReusable(original, target, copier)) {
+                spare(target);
+                target = takeSpare(original, copier);
+            }
+
+            if (target != null) {
+                used.put(target, target);
+                seed(original, target);
+
+                if (copier == Copiers.BULK_ARRAY) {
+                    System.arraycopy(original, 0, target, 0, Array.getLength(original));
+                }
+                else {
+                    scheduleFill(inPlace, original, target);
+                }
+
+                return target;
+            }
+        }
+        else {
+            spare(target);
+        }
+
+        return cloneOnce(original, copier);
+    }
+
+    //Без параллельного режима: копировщики на месте работают
+    //только с IntoScope
+    @Override
+    void drainPending() throws IllegalAccessException {
+        while (!pending.isEmpty()) {
+            Object original = pending.pop();
+            Object clone = pending.pop();
+            Copier copier = (Copier)pending.pop();
+
+            copier.fill(original, clone, this);
+        }
+    }
+
+    private static Copier inPlaceCopier(Copier copier) {
+        if (copier == Copiers.OBJECT) {
+            return OBJECT_INTO;
+        }
+
+        if (copier == Copiers.ARRAY || copier == Copiers.BULK_ARRAY) {
+            return ARRAY_INTO;
+        }
+
+        if (copier == ListCopiers.ARRAY_LIST || copier == ListCopiers.LINKED_LIST) {
+            return LIST_INTO;
+        }
+
+        if (copier == MapCopiers.HASH_MAP ||
+            copier == MapCopiers.LINKED_HASH_MAP ||
+            copier == MapCopiers.CONCURRENT_HASH_MAP ||
+            copier == MapCopiers.TREE_MAP)
+        {
+            return MAP_INTO;
+        }
+
+        if (copier == MapCopiers.HASH_SET ||
+            copier == MapCopiers.LINKED_HASH_SET ||
+            copier == MapCopiers.TREE_SET)
+        {
+            return SET_INTO;
+        }
+
+        return null;
+    }
+
+    private boolean isReusable(Object original, Object target, Copier copier) {
+        if (target == null ||
+            target == original ||
+            target.getClass() != original.getClass() ||
+            used.get(target) != null)
+        {
+            return false;
+        }
+
+        if (copier == Copiers.ARRAY || copier == Copiers.BULK_ARRAY) {
+            return Array.getLength(original) == Array.getLength(target);
+        }
+
+        //Хеш и порядок изменяемого ключа зависят от полей, которые
+        //перезаписываются позже, поэтому такие коллекции строятся заново
+        if (original instanceof Map<?, ?> map) {
+            return Copiers.allShared(map.keySet(), cloner()) &&
+                sameComparator(original, target) &&
+                MapCopiers.isAccessOrdered(map) == MapCopiers.isAccessOrdered((Map<?, ?>)target);
+        }
+
+        if (original instanceof Set<?> set) {
+            return Copiers.allShared(set, cloner()) && sameComparator(original, target);
+        }
+
+        return true;
+    }
+
+    private static boolean sameComparator(Object original, Object target) {
+        if (original instanceof SortedMap<?, ?> map) {
+            return map.comparator() == ((SortedMap<?, ?>)target).comparator();
+        }
+
+        if (original instanceof SortedSet<?> set) {
+            return set.comparator() == ((SortedSet<?>)target).comparator();
+        }
+
+        return true;
+    }
+
+    private static boolean sameOrder(Collection<?> a, Collection<?> b) {
+        if (a.size() != b.size()) {
+            return false;
+        }
+
+        Iterator<?> bs = b.iterator();
+
+        for (Object o : a) {
+            if (!Objects.equals(o, bs.next())) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    //Объект цели остался без пары на своем месте
+    private void spare(Object target) {
+        if (target == null || used.get(target) != null) {
+            return;
+        }
+
+        Class<?> c = target.getClass();
+
+        if (inPlaceCopier(cloner().copierOf(c)) == null) {
+            return;
+        }
+
+        spares.computeIfAbsent(c, k -> new ArrayDeque<>()).push(target);
+    }
+
+    private Object takeSpare(Object original, Copier copier) {
+        ArrayDeque<Object> candidates = spares.get(original.getClass());
+
+        if (candidates == null) {
+            return null;
+        }
+
+        //Запасной мог уже получить пару в другом месте цели или
+        //не подойти по длине: тогда он ждет другого объекта
+        for (int i = candidates.size(); i > 0; --i) {
+            Object candidate = candidates.pop();
+
+            if (isReusable(original, candidate, copier)) {
+                return candidate;
+            }
+
+            if (used.get(candidate) == null) {
+                candidates.addLast(candidate);
+            }
+        }
+
+        return null;
+    }
+}
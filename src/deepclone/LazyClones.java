@@ -0,0 +1,130 @@
+package deepclone;
+
+import java.lang.reflect.Proxy;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+//Ленивый клон одного вызова Cloner.lazyClone. Корень копируется сразу:
+//его поля и все, что достижимо из них не через поля, объявленные
+//интерфейсом. Вместо корня возвращается прокси интерфейса, а объекты
+//в полях-интерфейсах получают свои прокси и копируются так же, но
+//только при первом вызове метода прокси.
+//
+//Все копии одного вызова делают одну таблицу клонов, поэтому общие
+//и обратные ссылки между ленивыми и сразу склонированными частями
+//ведут к одним и тем же клонам и не клонируются повторно.
+//
+//Состояние корня фиксируется в момент lazyClone. Объекты за полями-
+//интерфейсами копируются в том состоянии, в котором они были при
+//первом обращении к ним через клон, поэтому их нельзя менять, пока
+//ленивый клон используется
+final class LazyClones {
+    private final Cloner cloner;
+    private final CloneScope scope;
+
+    //original -> обработчик; общий для всех прокси одного оригинала,
+    //так что циклические ссылки через интерфейсы ведут к одному прокси
+    private final Map<Object, Handler> handlers = new IdentityHashMap<>();
+
+    LazyClones(Cloner cloner) {
+        this.cloner = cloner;
+
+        scope = new CloneScope(cloner);
+    }
+
+    synchronized Object cloneRoot(Object original, Class<?> type) {
+        Handler handler = new Handler(original);
+        handler.clone = copyOrFail(original);
+        handlers.put(original, handler);
+
+        return handler.proxyFor(type);
+    }
+
+    synchronized Object proxy(Object original, Class<?> type) {
+        Handler handler = handlers.computeIfAbsent(original, Handler::new);
+        return handler.proxyFor(type);
+    }
+
+    static boolean canBeLazy(Object value, Class<?> declaredType) {
+        return declaredType.isInterface() &&
+            !Cloner.isImmutable(value.getClass()) &&
+            !Proxy.isProxyClass(value.getClass());
+    }
+
+    private synchronized Object copyOrFail(Object original) {
+        try {
+            return copy(original);
+        }
+        catch (IllegalAccessException e) {
+            throw new IllegalStateException(
+                "Не удалось склонировать " + original.getClass().getName(),
+                e
+            );
+        }
+    }
+
+    private Object copy(Object original) throws IllegalAccessException {
+        Object existing = scope.existingClone(original);
+
+        if (existing != null) {
+            return existing;
+        }
+
+        Class<?> c = original.getClass();
+
+        //Коллекции, массивы и типы со своими стратегиями
+        //копируются целиком
+        if (cloner.copierOf(c) != Copiers.OBJECT) {
+            return scope.cloneNext(original);
+        }
+
+        ClonePlan plan = ClonePlan.of(c);
+        boolean throughScope = cloner.overridesImmutableFields(c);
+
+        Object clone = cloner.instantiationStrategy.newInstance(c);
+        scope.seed(original, clone);
+        plan.copyPrimitives(original, clone);
+
+        for (ClonePlan.PlannedField pf : plan.objectFields()) {
+            Object value = pf.field.get(original);
+
+            if (value == null || pf.kind == ClonePlan.Kind.IMMUTABLE && !throughScope) {
+                pf.field.set(clone, value);
+            }
+            else if (isLazy(value, pf.field.getType())) {
+                pf.field.set(clone, proxy(value, pf.field.getType()));
+            }
+            else {
+                pf.field.set(clone, scope.cloneReference(value));
+            }
+        }
+
+        scope.drainPending();
+        scope.completeDeferred();
+
+        return clone;
+    }
+
+    //Объект, который уже склонирован сразу, переносится клоном,
+    //а не новым прокси, если прокси для него еще нет
+    private boolean isLazy(Object value, Class<?> declaredType) {
+        return canBeLazy(value, declaredType) &&
+            (handlers.containsKey(value) || scope.existingClone(value) == null);
+    }
+
+    private final class Handler extends LazyProxy {
+        private final Object original;
+
+        //Клон, сделанный заранее, - у корня
+        private Object clone;
+
+        Handler(Object original) {
+            this.original = original;
+        }
+
+        @Override
+        Object materialize() {
+            return clone != null ? clone : copyOrFail(original);
+        }
+    }
+}
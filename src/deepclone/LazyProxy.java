@@ -0,0 +1,69 @@
+package deepclone;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+//Обработчик прокси интерфейса, за которым объект создается при первом
+//вызове метода. Один обработчик на объект, поэтому все прокси одного
+//объекта ведут к одному и тому же результату materialize
+abstract class LazyProxy implements InvocationHandler {
+    private Class<?> proxyType;
+    private Object proxy;
+
+    private volatile Object target;
+
+    abstract Object materialize();
+
+    //Вызывается под монитором владельца обработчиков
+    Object proxyFor(Class<?> type) {
+        if (proxy == null) {
+            proxyType = type;
+            proxy = newProxy(type);
+        }
+
+        return proxyType == type ? proxy : newProxy(type);
+    }
+
+    private Object newProxy(Class<?> type) {
+        return Proxy.newProxyInstance(
+            type.getClassLoader(),
+            new Class<?>[] { type },
+            this
+        );
+    }
+
+    Object target() {
+        Object target = this.target;
+
+        if (target == null) {
+            synchronized (this) {
+                target = this.target;
+
+                if (target == null) {
+                    target = materialize();
+                    this.target = target;
+                }
+            }
+        }
+
+        return target;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        Object target = target();
+
+        try {
+            if (!method.canAccess(target)) {
+                method.setAccessible(true);
+            }
+
+            return method.invoke(target, args);
+        }
+        catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+}
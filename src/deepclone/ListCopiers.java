@@ -0,0 +1,215 @@
+package deepclone;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+
+final class ListCopiers {
+    //Классы List.of(...) и Stream.toList()
+    private static final Set<String> immutableLists = Set.of(
+        "java.util.ImmutableCollections$List12",
+        "java.util.ImmutableCollections$ListN"
+    );
+
+    private static final Set<String> unmodifiableLists = Set.of(
+        "java.util.Collections$UnmodifiableList",
+        "java.util.Collections$UnmodifiableRandomAccessList"
+    );
+
+    private static final String arraysAsList = "java.util.Arrays$ArrayList";
+
+    //Заполняет клон, созданный копировщиком класса
+    private static final Copier ADD_ALL = new Copier.FillOnly() {
+        @Override
+        @SuppressWarnings("unchecked")
+        void fill(Object original, Object clone, CloneScope scope) {
+            Collection<Object> collection = (Collection<Object>)clone;
+
+            for (Object o : (Collection<?>)original) {
+                collection.add(scope.cloneReference(o));
+            }
+        }
+    };
+
+    static final Copier ARRAY_LIST = new Copier() {
+        @Override
+        Object create(Object original, CloneScope scope) {
+            ArrayList<?> list = (ArrayList<?>)original;
+
+            //Копирует внутренний массив одним toArray
+            if (Copiers.allShared(list, scope.cloner())) {
+                return new ArrayList<>(list);
+            }
+
+            ArrayList<Object> clone = new ArrayList<>(list.size());
+            scope.scheduleFill(this, original, clone);
+
+            return clone;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        void fill(Object original, Object clone, CloneScope scope) {
+            ArrayList<?> list = (ArrayList<?>)original;
+            ArrayList<Object> cloneList = (ArrayList<Object>)clone;
+            int size = list.size();
+
+            for (int i = 0; i < size; ++i) {
+                cloneList.add(scope.cloneReference(list.get(i)));
+            }
+        }
+    };
+
+    static final Copier LINKED_LIST = new Copier() {
+        @Override
+        Object create(Object original, CloneScope scope) {
+            LinkedList<?> list = (LinkedList<?>)original;
+
+            if (Copiers.allShared(list, scope.cloner())) {
+                return new LinkedList<>(list);
+            }
+
+            LinkedList<Object> clone = new LinkedList<>();
+            scope.scheduleFill(ADD_ALL, original, clone);
+
+            return clone;
+        }
+    };
+
+    static final Copier ARRAY_DEQUE = new Copier() {
+        @Override
+        Object create(Object original, CloneScope scope) {
+            ArrayDeque<?> deque = (ArrayDeque<?>)original;
+
+            if (Copiers.allShared(deque, scope.cloner())) {
+                return deque.clone();
+            }
+
+            ArrayDeque<Object> clone = new ArrayDeque<>(deque.size());
+            scope.scheduleFill(ADD_ALL, original, clone);
+
+            return clone;
+        }
+    };
+
+    //Такой список нельзя изменить после создания, поэтому элементы
+    //клонируются сразу. Их собственные поля заполнятся позже
+    static final Copier IMMUTABLE_LIST = new Copier() {
+        @Override
+        Object create(Object original, CloneScope scope) {
+            List<?> list = (List<?>)original;
+
+            if (Copiers.allShared(list, scope.cloner())) {
+                return original;
+            }
+
+            Object[] elements = cloneElements(list, scope);
+
+            return Arrays.asList(elements).contains(null)
+                ? Arrays.stream(elements).toList()
+                : List.of(elements);
+        }
+    };
+
+    //Обертка может смотреть на список, который кто-то продолжает
+    //менять, поэтому ее нельзя вернуть как есть даже с неизменяемыми
+    //элементами. Клон оборачивает собственную копию элементов
+    static final Copier UNMODIFIABLE_LIST = new Copier() {
+        @Override
+        Object create(Object original, CloneScope scope) {
+            List<?> list = (List<?>)original;
+
+            if (Copiers.allShared(list, scope.cloner())) {
+                return Collections.unmodifiableList(new ArrayList<>(list));
+            }
+
+            ArrayList<Object> copy = new ArrayList<>(list.size());
+            scope.scheduleFill(ADD_ALL, original, copy);
+
+            return Collections.unmodifiableList(copy);
+        }
+    };
+
+    static final Copier ARRAYS_AS_LIST = new Copier() {
+        @Override
+        Object create(Object original, CloneScope scope) {
+            List<Object> clone = Arrays.asList(((List<?>)original).toArray());
+            scope.scheduleFill(this, original, clone);
+
+            return clone;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        void fill(Object original, Object clone, CloneScope scope) {
+            List<?> list = (List<?>)original;
+            List<Object> cloneList = (List<Object>)clone;
+
+            for (int i = 0; i < list.size(); ++i) {
+                cloneList.set(i, scope.cloneReference(list.get(i)));
+            }
+        }
+    };
+
+    //Прочие списки: конструктор без параметров и add
+    static final Copier OTHER_LIST = new Copier() {
+        @Override
+        Object create(Object original, CloneScope scope) {
+            Object clone = InstantiationStrategy.noArgConstructor()
+                .newInstance(original.getClass());
+
+            scope.scheduleFill(ADD_ALL, original, clone);
+
+            return clone;
+        }
+    };
+
+    private ListCopiers() { }
+
+    static Copier of(Class<?> c) {
+        if (c == ArrayList.class) {
+            return ARRAY_LIST;
+        }
+
+        if (c == LinkedList.class) {
+            return LINKED_LIST;
+        }
+
+        if (c == ArrayDeque.class) {
+            return ARRAY_DEQUE;
+        }
+
+        if (immutableLists.contains(c.getName())) {
+            return IMMUTABLE_LIST;
+        }
+
+        if (unmodifiableLists.contains(c.getName())) {
+            return UNMODIFIABLE_LIST;
+        }
+
+        if (c.getName().equals(arraysAsList)) {
+            return ARRAYS_AS_LIST;
+        }
+
+        if (List.class.isAssignableFrom(c)) {
+            return OTHER_LIST;
+        }
+
+        return null;
+    }
+
+    private static Object[] cloneElements(List<?> list, CloneScope scope) {
+        Object[] elements = list.toArray();
+
+        for (int i = 0; i < elements.length; ++i) {
+            elements[i] = scope.cloneReference(elements[i]);
+        }
+
+        return elements;
+    }
+}
@@ -0,0 +1,356 @@
+package deepclone;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+
+//Копирование HashMap и т.п. через внутренние table/Node ломается
+//на закрытых модулях java.base, поэтому словари и множества строятся
+//заново через публичное API: целевая коллекция создается нужного
+//размера и не перестраивается при заполнении.
+//
+//Хеш и порядок изменяемого ключа зависят от его полей, которые
+//заполняются позже самого ключа. Такие ключи кладутся в коллекцию
+//через scope.defer, когда весь граф уже заполнен; ключ-коллекция
+//с собственным отложенным заполнением перед этим достраивается
+//через scope.finish
+final class MapCopiers {
+    //LinkedHashMap.accessOrder закрыт в java.base и без --add-opens
+    //недоступен рефлексии, поэтому читается через sun.misc.Unsafe.
+    //Без Unsafe все словари считаются упорядоченными по вставке
+    private static final MethodHandle accessOrder = findAccessOrder();
+
+    //Клоны ключей и значений собираются при заполнении, а в словарь
+    //попадают уже после заполнения всего графа.
+    //state - клоны вперемешку: k0, v0, k1, v1, ...
+    private static final Copier DEFERRED_PUT = new Copier.FillOnly() {
+        @Override
+        void fill(Object original, Object clone, CloneScope scope) {
+            Map<?, ?> map = (Map<?, ?>)original;
+            Object[] entries = new Object[map.size() * 2];
+            int i = 0;
+
+            for (Map.Entry<?, ?> e : map.entrySet()) {
+                entries[i++] = scope.cloneReference(e.getKey());
+                entries[i++] = scope.cloneReference(e.getValue());
+            }
+
+            scope.defer(this, entries, clone);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        void complete(Object state, Object clone, CloneScope scope) {
+            Object[] entries = (Object[])state;
+            Map<Object, Object> map = (Map<Object, Object>)clone;
+
+            for (int i = 0; i < entries.length; i += 2) {
+                scope.finish(entries[i]);
+                map.put(entries[i], entries[i + 1]);
+            }
+        }
+    };
+
+    private static final Copier DEFERRED_ADD = new Copier.FillOnly() {
+        @Override
+        void fill(Object original, Object clone, CloneScope scope) {
+            Object[] elements = ((Collection<?>)original).toArray();
+
+            for (int i = 0; i < elements.length; ++i) {
+                elements[i] = scope.cloneReference(elements[i]);
+            }
+
+            scope.defer(this, elements, clone);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        void complete(Object state, Object clone, CloneScope scope) {
+            Collection<Object> collection = (Collection<Object>)clone;
+
+            for (Object o : (Object[])state) {
+                scope.finish(o);
+                collection.add(o);
+            }
+        }
+    };
+
+    //Ключи неизменяемые, меняются только значения: проход по узлам
+    //клона без пересчета хешей и перебалансировки
+    private static final Copier REPLACE_VALUES = new Copier.FillOnly() {
+        @Override
+        @SuppressWarnings("unchecked")
+        void fill(Object original, Object clone, CloneScope scope) {
+            ((Map<Object, Object>)clone).replaceAll((k, v) -> scope.cloneReference(v));
+        }
+    };
+
+    static final Copier HASH_MAP = new HashMapCopier(
+        HashMap::new,
+        map -> new HashMap<>(hashCapacity(map.size()))
+    );
+
+    //Конструктор копирования всегда упорядочивает по вставке, поэтому
+    //клон LRU-словаря создается пустым с тем же accessOrder. Обход
+    //оригинала не считается обращением и не меняет его порядок
+    static final Copier LINKED_HASH_MAP = new HashMapCopier(
+        map -> {
+            Map<Object, Object> clone = emptyLinkedLike(map);
+            clone.putAll(map);
+
+            return clone;
+        },
+        MapCopiers::emptyLinkedLike
+    );
+
+    //Конструктор ConcurrentHashMap сам учитывает коэффициент заполнения
+    static final Copier CONCURRENT_HASH_MAP = new HashMapCopier(
+        ConcurrentHashMap::new,
+        map -> new ConcurrentHashMap<>(map.size())
+    );
+
+    static final Copier HASH_SET = new HashSetCopier(
+        HashSet::new,
+        size -> new HashSet<>(hashCapacity(size))
+    );
+
+    static final Copier LINKED_HASH_SET = new HashSetCopier(
+        LinkedHashSet::new,
+        size -> new LinkedHashSet<>(hashCapacity(size))
+    );
+
+    //Компаратор переносится в клон как есть
+    static final Copier TREE_MAP = new Copier() {
+        @Override
+        @SuppressWarnings("unchecked")
+        Object create(Object original, CloneScope scope) {
+            TreeMap<Object, Object> map = (TreeMap<Object, Object>)original;
+
+            if (!Copiers.allShared(map.keySet(), scope.cloner())) {
+                TreeMap<Object, Object> clone = new TreeMap<>(map.comparator());
+                scope.scheduleFill(DEFERRED_PUT, original, clone);
+
+                return clone;
+            }
+
+            //Из SortedMap дерево строится за линейное время, без сравнений
+            TreeMap<Object, Object> clone = new TreeMap<>((SortedMap<Object, Object>)map);
+
+            if (!Copiers.allShared(map.values(), scope.cloner())) {
+                scope.scheduleFill(REPLACE_VALUES, original, clone);
+            }
+
+            return clone;
+        }
+    };
+
+    static final Copier TREE_SET = new Copier() {
+        @Override
+        @SuppressWarnings("unchecked")
+        Object create(Object original, CloneScope scope) {
+            TreeSet<Object> set = (TreeSet<Object>)original;
+
+            if (Copiers.allShared(set, scope.cloner())) {
+                return new TreeSet<>((SortedSet<Object>)set);
+            }
+
+            TreeSet<Object> clone = new TreeSet<>(set.comparator());
+            scope.scheduleFill(DEFERRED_ADD, original, clone);
+
+            return clone;
+        }
+    };
+
+    //Ключи enum не клонируются
+    static final Copier ENUM_MAP = new Copier() {
+        @Override
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        Object create(Object original, CloneScope scope) {
+            EnumMap<?, ?> map = (EnumMap<?, ?>)original;
+            EnumMap<?, ?> clone = new EnumMap(map);
+
+            if (!Copiers.allShared(map.values(), scope.cloner())) {
+                scope.scheduleFill(REPLACE_VALUES, original, clone);
+            }
+
+            return clone;
+        }
+    };
+
+    private MapCopiers() { }
+
+    static Copier of(Class<?> c) {
+        if (c == HashMap.class) {
+            return HASH_MAP;
+        }
+
+        //Наследники, например с removeEldestEntry, копируются как
+        //обычные объекты
+        if (c == LinkedHashMap.class) {
+            return LINKED_HASH_MAP;
+        }
+
+        if (c == ConcurrentHashMap.class) {
+            return CONCURRENT_HASH_MAP;
+        }
+
+        if (c == HashSet.class) {
+            return HASH_SET;
+        }
+
+        if (c == LinkedHashSet.class) {
+            return LINKED_HASH_SET;
+        }
+
+        if (c == TreeMap.class) {
+            return TREE_MAP;
+        }
+
+        if (c == TreeSet.class) {
+            return TREE_SET;
+        }
+
+        if (c == EnumMap.class) {
+            return ENUM_MAP;
+        }
+
+        return null;
+    }
+
+    private static final class HashMapCopier extends Copier {
+        private final Function<Map<?, ?>, Map<?, ?>> copyOf;
+
+        //Пустой словарь того же вида под size элементов оригинала
+        private final Function<Map<?, ?>, Map<Object, Object>> emptyLike;
+
+        HashMapCopier(
+            Function<Map<?, ?>, Map<?, ?>> copyOf,
+            Function<Map<?, ?>, Map<Object, Object>> emptyLike
+        ) {
+            this.copyOf = copyOf;
+            this.emptyLike = emptyLike;
+        }
+
+        @Override
+        Object create(Object original, CloneScope scope) {
+            Map<?, ?> map = (Map<?, ?>)original;
+
+            if (!Copiers.allShared(map.keySet(), scope.cloner())) {
+                Map<Object, Object> clone = emptyLike.apply(map);
+                scope.scheduleFill(DEFERRED_PUT, original, clone);
+
+                return clone;
+            }
+
+            if (Copiers.allShared(map.values(), scope.cloner())) {
+                return copyOf.apply(map);
+            }
+
+            //Записи добавляются в порядке обхода оригинала (для HashMap -
+            //по корзинам), так что таблица клона ни разу не растет
+            Map<Object, Object> clone = emptyLike.apply(map);
+            scope.scheduleFill(this, original, clone);
+
+            return clone;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        void fill(Object original, Object clone, CloneScope scope) {
+            Map<Object, Object> cloneMap = (Map<Object, Object>)clone;
+
+            for (Map.Entry<?, ?> e : ((Map<?, ?>)original).entrySet()) {
+                cloneMap.put(e.getKey(), scope.cloneReference(e.getValue()));
+            }
+        }
+    }
+
+    private static final class HashSetCopier extends Copier {
+        private final Function<Set<?>, Set<?>> copyOf;
+        private final IntFunction<Set<Object>> withSize;
+
+        HashSetCopier(
+            Function<Set<?>, Set<?>> copyOf,
+            IntFunction<Set<Object>> withSize
+        ) {
+            this.copyOf = copyOf;
+            this.withSize = withSize;
+        }
+
+        @Override
+        Object create(Object original, CloneScope scope) {
+            Set<?> set = (Set<?>)original;
+
+            if (Copiers.allShared(set, scope.cloner())) {
+                return copyOf.apply(set);
+            }
+
+            Set<Object> clone = withSize.apply(set.size());
+            scope.scheduleFill(DEFERRED_ADD, original, clone);
+
+            return clone;
+        }
+    }
+
+    static boolean isAccessOrdered(Map<?, ?> map) {
+        if (accessOrder == null || !(map instanceof LinkedHashMap<?, ?>)) {
+            return false;
+        }
+
+        try {
+            return (boolean)accessOrder.invokeExact((Object)map);
+        }
+        catch (Throwable e) {
+            throw new AssertionError("Этого никогда не должно было произойти. Время отладки!", e);
+        }
+    }
+
+    private static Map<Object, Object> emptyLinkedLike(Map<?, ?> map) {
+        return new LinkedHashMap<>(hashCapacity(map.size()), 0.75f, isAccessOrdered(map));
+    }
+
+    private static MethodHandle findAccessOrder() {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+
+            theUnsafe.setAccessible(true);
+            Object unsafe = theUnsafe.get(null);
+
+            Field field = LinkedHashMap.class.getDeclaredField("accessOrder");
+            long offset = (long)unsafeClass.getMethod("objectFieldOffset", Field.class).invoke(unsafe, field);
+
+            MethodHandle getBoolean = MethodHandles.lookup().findVirtual(
+                unsafeClass,
+                "getBoolean",
+                MethodType.methodType(boolean.class, Object.class, long.class)
+            );
+
+            return MethodHandles.insertArguments(getBoolean, 2, offset).bindTo(unsafe);
+        }
+        catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    //Емкость, при которой size элементов помещаются без роста таблицы
+    private static int hashCapacity(int size) {
+        return (int)Math.min(Integer.MAX_VALUE, (long)size * 4 / 3 + 1);
+    }
+}
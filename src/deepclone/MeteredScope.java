@@ -0,0 +1,170 @@
+package deepclone;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+//CloneScope, который считает статистику по классам и после каждого
+//клонирования (или корня потока Cloner.deepCloneAll) отдает ее
+//Cloner.listener. Используется вместо
+//CloneScope только при зарегистрированном слушателе, поэтому
+//без слушателя метрики ничего не стоят.
+//
+//Часть графа, которую клонирует параллельный режим, не учитывается
+final class MeteredScope extends CloneScope {
+    private static final ClassValue<Long> instanceSizes = new ClassValue<>() {
+        @Override
+        protected Long computeValue(Class<?> c) {
+            long size = 12;
+
+            for (Class<?> k = c; k != null; k = k.getSuperclass()) {
+                for (Field f : k.getDeclaredFields()) {
+                    if (!Modifier.isStatic(f.getModifiers())) {
+                        size += sizeOf(f.getType());
+                    }
+                }
+            }
+
+            return align(size);
+        }
+    };
+
+    private final Map<Class<?>, ClassCloneStats> stats = new IdentityHashMap<>();
+
+    MeteredScope(Cloner cloner) {
+        super(cloner);
+    }
+
+    @Override
+    Object cloneNext(Object original) throws IllegalAccessException {
+        Object clone = super.cloneNext(original);
+
+        List<ClassCloneStats> result = new ArrayList<>(stats.values());
+        stats.clear();
+
+        cloner().listener.cloned(result);
+
+        return clone;
+    }
+
+    @Override
+    void reset() {
+        super.reset();
+        stats.clear();
+    }
+
+    @Override
+    public Object cloneReference(Object original) {
+        if (original == null) {
+            return null;
+        }
+
+        Class<?> c = original.getClass();
+        Copier copier = cloner().copierOf(c);
+
+        if (copier == Copiers.SHARE) {
+            ++statsOf(c).shared;
+            return original;
+        }
+
+        if (copier == Copiers.NULL_OUT) {
+            return null;
+        }
+
+        if (!tree) {
+            Object clone = existingClone(original);
+
+            if (clone != null) {
+                ++statsOf(c).identityHits;
+                return clone;
+            }
+        }
+
+        Object clone = copier.create(original, this);
+
+        if (!tree) {
+            seed(original, clone);
+        }
+
+        //Копировщик мог вернуть сам оригинал, например Optional
+        //с неизменяемым значением
+        ClassCloneStats s = statsOf(c);
+
+        if (clone == original) {
+            ++s.shared;
+        }
+        else {
+            ++s.cloned;
+            s.estimatedBytes += clone != null ? shallowSize(clone) : 0;
+        }
+
+        return clone;
+    }
+
+    @Override
+    void drainPending() throws IllegalAccessException {
+        int parallelLimit = cloner().parallelPendingLimit;
+
+        while (!pending.isEmpty()) {
+            if (pending.size() > parallelLimit) {
+                super.drainPending();
+                return;
+            }
+
+            Object original = pending.pop();
+            Object clone = pending.pop();
+            Copier copier = (Copier)pending.pop();
+
+            long start = System.nanoTime();
+
+            copier.fill(original, clone, this);
+
+            statsOf(original.getClass()).nanos += System.nanoTime() - start;
+        }
+    }
+
+    private ClassCloneStats statsOf(Class<?> c) {
+        ClassCloneStats s = stats.get(c);
+
+        if (s == null) {
+            s = new ClassCloneStats(c);
+            stats.put(c, s);
+        }
+
+        return s;
+    }
+
+    static long shallowSize(Object o) {
+        Class<?> c = o.getClass();
+
+        if (c.isArray()) {
+            return align(16 + (long)Array.getLength(o) * sizeOf(c.componentType()));
+        }
+
+        return instanceSizes.get(c);
+    }
+
+    private static int sizeOf(Class<?> type) {
+        if (type == long.class || type == double.class) {
+            return 8;
+        }
+
+        if (type == byte.class || type == boolean.class) {
+            return 1;
+        }
+
+        if (type == short.class || type == char.class) {
+            return 2;
+        }
+
+        return 4;
+    }
+
+    private static long align(long size) {
+        return (size + 7) & ~7L;
+    }
+}
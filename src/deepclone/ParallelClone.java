@@ -0,0 +1,213 @@
+package deepclone;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+//Параллельное продолжение клонирования, когда у последовательного
+//CloneScope накопилось больше Cloner.parallelThreshold незаполненных
+//клонов. Каждая задача заполняет клоны из своего стека pending и,
+//пока стек большой, а в пуле мало работы, отдает нижнюю половину
+//стека новой задаче. Нижние элементы стека ближе к корню, поэтому
+//отданная часть обычно тянет за собой большой независимый подграф.
+//
+//Таблица клонов общая, поэтому общие и циклические ссылки по-прежнему
+//клонируются ровно один раз
+final class ParallelClone {
+    private ParallelClone() { }
+
+    static void drain(CloneScope sequential, IdentityTable seed)
+        throws IllegalAccessException
+    {
+        Cloner cloner = sequential.cloner();
+        ForkJoinPool pool = cloner.parallelPool;
+        ConcurrentIdentityTable clones = null;
+
+        if (!sequential.tree) {
+            clones = new ConcurrentIdentityTable(
+                Math.max(cloner.expectedGraphSize, seed.size() * 2),
+                pool.getParallelism()
+            );
+
+            ConcurrentIdentityTable table = clones;
+            seed.forEach(table::putIfAbsent);
+        }
+
+        Scope root = new Scope(cloner, clones, sequential.tree);
+        moveAll(sequential.pending, root.pending);
+
+        Task task = new Task(root);
+
+        try {
+            pool.invoke(task);
+        }
+        catch (FillFailure e) {
+            throw e.getCause();
+        }
+
+        //Последовательный scope продолжает работу после параллельной
+        //части: отложенные действия и следующие корни deepCloneAll
+        //должны найти уже склонированные объекты
+        if (clones != null) {
+            clones.forEach(seed::put);
+        }
+
+        task.moveDeferred(sequential);
+    }
+
+    private static void moveAll(ArrayDeque<Object> from, ArrayDeque<Object> to) {
+        while (!from.isEmpty()) {
+            to.addLast(from.pollFirst());
+        }
+    }
+
+    //IllegalAccessException нельзя бросить из RecursiveAction.compute
+    private static final class FillFailure extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        FillFailure(IllegalAccessException cause) {
+            super(cause);
+        }
+
+        @Override
+        public synchronized IllegalAccessException getCause() {
+            return (IllegalAccessException)super.getCause();
+        }
+    }
+
+    private static final class Task extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Scope scope;
+
+        Task(Scope scope) {
+            this.scope = scope;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                scope.drainPending();
+            }
+            catch (IllegalAccessException e) {
+                throw new FillFailure(e);
+            }
+
+            for (Task child : scope.children) {
+                child.join();
+            }
+        }
+
+        //Отложенные действия всех задач собираются в последовательный
+        //scope и выполняются им после drainPending: ключ-коллекция
+        //из одной задачи может понадобиться словарю из другой, а
+        //scope.finish ищет действие только в своем scope.
+        //Действия подзадач оказываются сверху и выполняются раньше
+        void moveDeferred(CloneScope target) {
+            scope.moveDeferred(target);
+
+            for (Task child : scope.children) {
+                child.moveDeferred(target);
+            }
+        }
+    }
+
+    private static final class Scope extends CloneScope {
+        private final ConcurrentIdentityTable clones;
+        private final int splitLimit;
+        private final List<Task> children = new ArrayList<>();
+
+        Scope(Cloner cloner, ConcurrentIdentityTable clones, boolean tree) {
+            super(cloner, null);
+
+            this.clones = clones;
+            this.tree = tree;
+
+            splitLimit = cloner.parallelPendingLimit;
+        }
+
+        //Два потока могут одновременно склонировать один объект.
+        //В таблицу попадает только один клон, второй выбрасывается
+        //вместе с запланированным для него заполнением
+        @Override
+        Object cloneOnce(Object original, Copier copier) {
+            Object clone = clones.get(original);
+
+            if (clone != null) {
+                return clone;
+            }
+
+            int mark = pending.size();
+
+            clone = copier.create(original, this);
+
+            Object winner = clones.putIfAbsent(original, clone);
+
+            if (winner != null) {
+                discardFills(clone, mark);
+                return winner;
+            }
+
+            return clone;
+        }
+
+        @Override
+        void drainPending() throws IllegalAccessException {
+            while (!pending.isEmpty()) {
+                if (pending.size() > splitLimit &&
+                    ForkJoinTask.getSurplusQueuedTaskCount() < 2)
+                {
+                    split();
+                }
+
+                Object original = pending.pop();
+                Object clone = pending.pop();
+                Copier copier = (Copier)pending.pop();
+
+                copier.fill(original, clone, this);
+            }
+        }
+
+        private void split() {
+            Scope child = new Scope(cloner(), clones, tree);
+            int triples = pending.size() / 6;
+
+            //Снизу стека по тройкам: copier, clone, original
+            for (int i = 0; i < triples * 3; ++i) {
+                child.pending.addFirst(pending.pollLast());
+            }
+
+            Task task = new Task(child);
+            children.add(task);
+            task.fork();
+        }
+
+        //Заполнения, запланированные create, лежат в стеке выше mark.
+        //Среди них могут быть заполнения вложенных клонов, которые
+        //уже записаны в таблицу: их нужно сохранить
+        private void discardFills(Object lostClone, int mark) {
+            int count = pending.size() - mark;
+
+            if (count == 0) {
+                return;
+            }
+
+            Object[] above = new Object[count];
+
+            for (int i = 0; i < count; ++i) {
+                above[i] = pending.pop();
+            }
+
+            for (int i = count - 3; i >= 0; i -= 3) {
+                if (above[i + 1] != lostClone) {
+                    pending.push(above[i + 2]);
+                    pending.push(above[i + 1]);
+                    pending.push(above[i]);
+                }
+            }
+        }
+    }
+}
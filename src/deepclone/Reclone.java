@@ -0,0 +1,466 @@
+package deepclone;
+
+import java.lang.reflect.Array;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Optional;
+
+//Повторное клонирование графа с переиспользованием прошлого клона.
+//
+//1. Оригинал обходится вместе с прошлым клоном: каждому объекту
+//   сопоставляется объект прошлого клона на том же месте, и отмечаются
+//   объекты, у которых изменились примитивные поля, неизменяемые
+//   значения или ссылки.
+//2. Объект нужно копировать заново, если изменился он сам или любой
+//   достижимый из него объект: клон должен ссылаться на новые клоны.
+//   Внутри цикла это касается всех его объектов, поэтому изменения
+//   распространяются по компонентам сильной связности (Тарьян),
+//   которые находятся в порядке "сначала потомки".
+//3. Неизмененные пары original -> прошлый клон записываются в таблицу
+//   клонов, и обычный deepClone достраивает остальное, переиспользуя их.
+//
+//Заново копируются измененные объекты и все объекты на путях к ним
+//от корня. Прошлый клон не меняется. Если его самого изменили после
+//клонирования, измененные части будут скопированы заново
+final class Reclone {
+    private final Cloner cloner;
+
+    //original -> номер; прошлый клон -> номер его оригинала
+    private final IdentityIndex ids;
+    private final IdentityIndex pairedClones;
+
+    private Object[] originals = new Object[64];
+    private Object[] previous = new Object[64];
+    private boolean[] changed = new boolean[64];
+    private int count = 0;
+
+    //Ребра объекта id: edges[edgeStart[id] .. edgeStart[id + 1])
+    private int[] edgeStart = new int[65];
+    private int[] edges = new int[128];
+    private int edgeCount = 0;
+
+    //Состояние алгоритма Тарьяна
+    private int[] index = new int[64];
+    private int[] lowlink = new int[64];
+    private boolean[] onStack = new boolean[64];
+    private boolean[] reachesDirty = new boolean[64];
+    private boolean[] dirty = new boolean[64];
+    private int[] sccStack = new int[64];
+    private int[] callStack = new int[64];
+    private int[] callEdge = new int[64];
+
+    Reclone(Cloner cloner) {
+        this.cloner = cloner;
+
+        ids = new IdentityIndex(cloner.expectedGraphSize);
+        pairedClones = new IdentityIndex(cloner.expectedGraphSize);
+    }
+
+    int capacity() {
+        return originals.length;
+    }
+
+    void reset() {
+        ids.clear();
+        pairedClones.clear();
+
+        Arrays.fill(originals, 0, count, null);
+        Arrays.fill(previous, 0, count, null);
+
+        count = 0;
+        edgeCount = 0;
+    }
+
+    Object reclone(Object original, Object previousClone, CloneScope scope)
+        throws IllegalAccessException
+    {
+        if (original != null && previousClone != null) {
+            pair(original, previousClone);
+
+            for (int id = 0; id < count; ++id) {
+                edgeStart[id] = edgeCount;
+                compare(id);
+            }
+
+            edgeStart[count] = edgeCount;
+
+            findDirty();
+
+            for (int id = 0; id < count; ++id) {
+                if (!dirty[id]) {
+                    scope.seed(originals[id], previous[id]);
+                }
+            }
+        }
+
+        return scope.deepClone(original, false);
+    }
+
+    private void pair(Object original, Object clone) {
+        int id = ids.get(original);
+
+        if (id == IdentityIndex.absent) {
+            link(-1, original, clone);
+        }
+    }
+
+    //Ссылка parent -> x; в прошлом клоне на этом месте была y
+    private void link(int parent, Object x, Object y) {
+        if (x == null) {
+            markChanged(parent, y != null);
+            return;
+        }
+
+        Copier copier = cloner.copierOf(x.getClass());
+
+        if (copier == Copiers.SHARE) {
+            markChanged(parent, x != y);
+            return;
+        }
+
+        if (copier == Copiers.NULL_OUT) {
+            markChanged(parent, y != null);
+            return;
+        }
+
+        if (x == y && isSharedByCopier(copier, x)) {
+            return;
+        }
+
+        int id = ids.get(x);
+
+        if (id == IdentityIndex.absent) {
+            //Прошлый клон уже сопоставлен другому объекту или совпадает
+            //с оригиналом: пары нет, объект будет скопирован заново
+            if (y == x || y != null && pairedClones.get(y) != IdentityIndex.absent) {
+                y = null;
+            }
+
+            id = add(x, y);
+        }
+        else {
+            //Объект уже встречался, и его клон - не тот, на который
+            //ссылается прошлый клон parent
+            markChanged(parent, previous[id] != y);
+        }
+
+        if (parent >= 0) {
+            addEdge(id);
+        }
+    }
+
+    //Такие объекты Copier сам переносит в клон как есть
+    private boolean isSharedByCopier(Copier copier, Object x) {
+        if (copier == ListCopiers.IMMUTABLE_LIST) {
+            return Copiers.allShared((Collection<?>)x, cloner);
+        }
+
+        if (copier == Copiers.OPTIONAL) {
+            return Copiers.isShared(((Optional<?>)x).orElse(null), cloner);
+        }
+
+        return false;
+    }
+
+    private void markChanged(int id, boolean condition) {
+        if (condition && id >= 0) {
+            changed[id] = true;
+        }
+    }
+
+    private int add(Object original, Object clone) {
+        if (count == originals.length) {
+            grow();
+        }
+
+        int id = count++;
+
+        originals[id] = original;
+        previous[id] = clone;
+        changed[id] = clone == null || clone.getClass() != original.getClass();
+
+        ids.put(original, id);
+
+        if (clone != null) {
+            pairedClones.put(clone, id);
+        }
+
+        return id;
+    }
+
+    private void addEdge(int to) {
+        if (edgeCount == edges.length) {
+            edges = Arrays.copyOf(edges, edges.length * 2);
+        }
+
+        edges[edgeCount++] = to;
+    }
+
+    private void compare(int id) throws IllegalAccessException {
+        if (changed[id]) {
+            return;
+        }
+
+        Object x = originals[id];
+        Object y = previous[id];
+        Class<?> c = x.getClass();
+        Copier copier = cloner.copierOf(c);
+
+        if (c.isArray()) {
+            compareArrays(id, x, y);
+        }
+        else if (copier == Copiers.OBJECT || copier instanceof RecordCopier) {
+            compareFields(id, x, y);
+        }
+        else if (copier == Copiers.OPTIONAL) {
+            link(id, ((Optional<?>)x).orElse(null), ((Optional<?>)y).orElse(null));
+        }
+        else if (isOrdered(copier)) {
+            compareInOrder(id, ((Collection<?>)x).iterator(), ((Collection<?>)y).iterator());
+        }
+        else if (copier == MapCopiers.LINKED_HASH_MAP || copier == MapCopiers.TREE_MAP) {
+            compareMapsInOrder(id, (Map<?, ?>)x, (Map<?, ?>)y);
+        }
+        else if (copier == MapCopiers.HASH_MAP ||
+            copier == MapCopiers.CONCURRENT_HASH_MAP ||
+            copier == MapCopiers.ENUM_MAP)
+        {
+            compareMapsByKey(id, (Map<?, ?>)x, (Map<?, ?>)y);
+        }
+        else if (copier == MapCopiers.HASH_SET) {
+            compareHashSets(id, (Collection<?>)x, (Collection<?>)y);
+        }
+        else {
+            //Собственные стратегии и прочие типы не сравниваются
+            changed[id] = true;
+        }
+    }
+
+    private static boolean isOrdered(Copier copier) {
+        return copier == ListCopiers.ARRAY_LIST ||
+            copier == ListCopiers.LINKED_LIST ||
+            copier == ListCopiers.ARRAY_DEQUE ||
+            copier == ListCopiers.IMMUTABLE_LIST ||
+            copier == ListCopiers.UNMODIFIABLE_LIST ||
+            copier == ListCopiers.ARRAYS_AS_LIST ||
+            copier == ListCopiers.OTHER_LIST ||
+            copier == MapCopiers.LINKED_HASH_SET ||
+            copier == MapCopiers.TREE_SET;
+    }
+
+    private void compareFields(int id, Object x, Object y) throws IllegalAccessException {
+        ClonePlan plan = ClonePlan.of(x.getClass());
+
+        for (ClonePlan.PlannedField pf : plan.primitiveFields()) {
+            if (!pf.samePrimitive(x, y)) {
+                changed[id] = true;
+                break;
+            }
+        }
+
+        //Даже если объект изменился, его поддеревья можно переиспользовать
+        for (ClonePlan.PlannedField pf : plan.objectFields()) {
+            Object vx = pf.field.get(x);
+            Object vy = pf.field.get(y);
+
+            if (pf.kind == ClonePlan.Kind.IMMUTABLE) {
+                markChanged(id, vx != vy);
+            }
+            else {
+                link(id, vx, vy);
+            }
+        }
+    }
+
+    private void compareArrays(int id, Object x, Object y) {
+        Class<?> component = x.getClass().componentType();
+
+        if (component.isPrimitive()) {
+            changed[id] = !primitiveArraysEqual(component, x, y);
+            return;
+        }
+
+        Object[] xs = (Object[])x;
+        Object[] ys = (Object[])y;
+
+        markChanged(id, xs.length != ys.length);
+
+        for (int i = 0; i < Math.min(xs.length, ys.length); ++i) {
+            link(id, xs[i], ys[i]);
+        }
+    }
+
+    private static boolean primitiveArraysEqual(Class<?> component, Object x, Object y) {
+        if (component == int.class) return Arrays.equals((int[])x, (int[])y);
+        if (component == long.class) return Arrays.equals((long[])x, (long[])y);
+        if (component == double.class) return Arrays.equals((double[])x, (double[])y);
+        if (component == float.class) return Arrays.equals((float[])x, (float[])y);
+        if (component == byte.class) return Arrays.equals((byte[])x, (byte[])y);
+        if (component == char.class) return Arrays.equals((char[])x, (char[])y);
+        if (component == short.class) return Arrays.equals((short[])x, (short[])y);
+        if (component == boolean.class) return Arrays.equals((boolean[])x, (boolean[])y);
+
+        return Array.getLength(x) == 0 && Array.getLength(y) == 0;
+    }
+
+    private void compareInOrder(int id, Iterator<?> xs, Iterator<?> ys) {
+        while (xs.hasNext() && ys.hasNext()) {
+            link(id, xs.next(), ys.next());
+        }
+
+        markChanged(id, xs.hasNext() || ys.hasNext());
+    }
+
+    private void compareMapsInOrder(int id, Map<?, ?> x, Map<?, ?> y) {
+        Iterator<? extends Map.Entry<?, ?>> xs = x.entrySet().iterator();
+        Iterator<? extends Map.Entry<?, ?>> ys = y.entrySet().iterator();
+
+        while (xs.hasNext() && ys.hasNext()) {
+            Map.Entry<?, ?> ex = xs.next();
+            Map.Entry<?, ?> ey = ys.next();
+
+            link(id, ex.getKey(), ey.getKey());
+            link(id, ex.getValue(), ey.getValue());
+        }
+
+        markChanged(id, xs.hasNext() || ys.hasNext());
+    }
+
+    //Порядок обхода HashMap зависит от емкости, поэтому значения
+    //сопоставляются по ключу. Это возможно только для неизменяемых ключей
+    private void compareMapsByKey(int id, Map<?, ?> x, Map<?, ?> y) {
+        markChanged(id, x.size() != y.size());
+
+        for (Map.Entry<?, ?> e : x.entrySet()) {
+            Object key = e.getKey();
+
+            if (!Copiers.isShared(key, cloner) || !y.containsKey(key)) {
+                changed[id] = true;
+                continue;
+            }
+
+            link(id, e.getValue(), y.get(key));
+        }
+    }
+
+    private void compareHashSets(int id, Collection<?> x, Collection<?> y) {
+        changed[id] = x.size() != y.size() ||
+            !Copiers.allShared(x, cloner) ||
+            !y.containsAll(x);
+    }
+
+    //Итеративный алгоритм Тарьяна. Компонента закрывается после всех
+    //компонент, достижимых из нее, поэтому к этому моменту уже известно,
+    //достижим ли из нее измененный объект
+    private void findDirty() {
+        ensureTarjanCapacity();
+
+        Arrays.fill(index, 0, count, -1);
+        Arrays.fill(onStack, 0, count, false);
+        Arrays.fill(reachesDirty, 0, count, false);
+
+        int nextIndex = 0;
+        int sccTop = 0;
+
+        for (int start = 0; start < count; ++start) {
+            if (index[start] != -1) {
+                continue;
+            }
+
+            int callTop = 0;
+
+            callStack[callTop] = start;
+            callEdge[callTop++] = edgeStart[start];
+            index[start] = lowlink[start] = nextIndex++;
+            sccStack[sccTop++] = start;
+            onStack[start] = true;
+
+            while (callTop > 0) {
+                int v = callStack[callTop - 1];
+                int e = callEdge[callTop - 1];
+
+                if (e < edgeStart[v + 1]) {
+                    callEdge[callTop - 1] = e + 1;
+
+                    int w = edges[e];
+
+                    if (index[w] == -1) {
+                        callStack[callTop] = w;
+                        callEdge[callTop++] = edgeStart[w];
+                        index[w] = lowlink[w] = nextIndex++;
+                        sccStack[sccTop++] = w;
+                        onStack[w] = true;
+                    }
+                    else if (onStack[w]) {
+                        lowlink[v] = Math.min(lowlink[v], index[w]);
+                    }
+                    else if (dirty[w]) {
+                        reachesDirty[v] = true;
+                    }
+
+                    continue;
+                }
+
+                --callTop;
+
+                if (lowlink[v] == index[v]) {
+                    boolean sccDirty = false;
+
+                    for (int i = sccTop - 1; ; --i) {
+                        int m = sccStack[i];
+                        sccDirty |= changed[m] || reachesDirty[m];
+
+                        if (m == v) {
+                            break;
+                        }
+                    }
+
+                    int m;
+
+                    do {
+                        m = sccStack[--sccTop];
+                        onStack[m] = false;
+                        dirty[m] = sccDirty;
+                    } while (m != v);
+                }
+
+                if (callTop > 0) {
+                    int u = callStack[callTop - 1];
+
+                    if (onStack[v]) {
+                        lowlink[u] = Math.min(lowlink[u], lowlink[v]);
+                    }
+                    else if (dirty[v]) {
+                        reachesDirty[u] = true;
+                    }
+                }
+            }
+        }
+    }
+
+    private void grow() {
+        int length = originals.length * 2;
+
+        originals = Arrays.copyOf(originals, length);
+        previous = Arrays.copyOf(previous, length);
+        changed = Arrays.copyOf(changed, length);
+        edgeStart = Arrays.copyOf(edgeStart, length + 1);
+    }
+
+    private void ensureTarjanCapacity() {
+        if (index.length < count) {
+            int length = originals.length;
+
+            index = new int[length];
+            lowlink = new int[length];
+            onStack = new boolean[length];
+            reachesDirty = new boolean[length];
+            dirty = new boolean[length];
+            sccStack = new int[length];
+            callStack = new int[length];
+            callEdge = new int[length];
+        }
+    }
+}
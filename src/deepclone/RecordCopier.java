@@ -0,0 +1,106 @@
+package deepclone;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.RecordComponent;
+
+//Поля записи final, поэтому клон создается каноническим конструктором
+//из клонов компонент. Записи только с неизменяемыми компонентами
+//сюда не попадают: их переносит в клон Copiers.SHARE.
+//
+//Компоненты читаются из приватных полей, как в ClonePlan, а не через
+//методы доступа: переопределенный метод доступа может вернуть копию
+//или вычисленное значение.
+//
+//Компоненты клонируются до вызова конструктора, поэтому цепочка
+//записей, вложенных прямо друг в друга, клонируется рекурсивно
+final class RecordCopier extends Copier {
+    private final MethodHandle[] getters;
+    private final MethodHandle constructor;
+
+    private RecordCopier(MethodHandle[] getters, MethodHandle constructor) {
+        this.getters = getters;
+        this.constructor = constructor;
+    }
+
+    static RecordCopier of(Class<?> c) {
+        RecordComponent[] components = c.getRecordComponents();
+        MethodHandle[] getters = new MethodHandle[components.length];
+        Class<?>[] types = new Class<?>[components.length];
+
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.privateLookupIn(c, MethodHandles.lookup());
+
+            for (int i = 0; i < components.length; ++i) {
+                types[i] = components[i].getType();
+                getters[i] = lookup.findGetter(c, components[i].getName(), types[i])
+                    .asType(MethodType.methodType(Object.class, Object.class));
+            }
+
+            MethodHandle constructor = lookup
+                .findConstructor(c, MethodType.methodType(void.class, types))
+                .asType(MethodType.genericMethodType(components.length))
+                .asSpreader(Object[].class, components.length);
+
+            return new RecordCopier(getters, constructor);
+        }
+        catch (IllegalAccessException | NoSuchMethodException | NoSuchFieldException e) {
+            throw new IllegalArgumentException(
+                "Нет доступа к полям или каноническому конструктору записи " + c.getName(),
+                e
+            );
+        }
+    }
+
+    @Override
+    Object create(Object original, CloneScope scope) {
+        Object[] components = components(original);
+
+        for (int i = 0; i < components.length; ++i) {
+            components[i] = scope.cloneReference(components[i]);
+        }
+
+        return construct(components);
+    }
+
+    int componentCount() {
+        return getters.length;
+    }
+
+    Object[] components(Object record) {
+        try {
+            Object[] components = new Object[getters.length];
+
+            for (int i = 0; i < getters.length; ++i) {
+                components[i] = (Object)getters[i].invokeExact(record);
+            }
+
+            return components;
+        }
+        catch (RuntimeException | Error e) {
+            throw e;
+        }
+        catch (Throwable e) {
+            throw new AssertionError(
+                "Этого никогда не должно было произойти. Время отладки!",
+                e
+            );
+        }
+    }
+
+    Object construct(Object[] components) {
+        try {
+            return (Object)constructor.invokeExact(components);
+        }
+        catch (RuntimeException | Error e) {
+            throw e;
+        }
+        catch (Throwable e) {
+            throw new AssertionError(
+                "Этого никогда не должно было произойти. Время отладки!",
+                e
+            );
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package deepclone;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+//При клонировании по CloneSpec ссылка из этого поля переносится
+//в клон как есть, а объект за ней не обходится
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface Shallow {
+}
@@ -0,0 +1,282 @@
+package deepclone;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+//Снимок графа в файле, записанный Cloner.writeSnapshot. Файл
+//отображается в память, и при открытии ничего не читается: объект
+//читается из файла при первом вызове метода его прокси, так же как
+//ленивый клон копируется при первом обращении (см. LazyClones).
+//
+//Граница ленивости - поля, объявленные интерфейсом: такие объекты
+//лежат в отдельных сегментах файла. Все остальное, на что ссылается
+//объект, читается вместе с ним. Общие и обратные ссылки между
+//сегментами ведут к одним и тем же объектам; ссылка на объект
+//другого сегмента читает и тот сегмент, если он еще не прочитан.
+//Как и в ленивом клоне, поле-интерфейс хранит прокси, а не сам объект.
+//
+//Прочитать снимок можно только с теми же версиями классов, с которыми
+//он был записан. После close объекты, которые еще не прочитаны,
+//прочитать нельзя
+public final class Snapshot implements AutoCloseable {
+    private static final long windowSize = 1L << 30;
+
+    private final Cloner cloner;
+    private final FileChannel channel;
+    private final long size;
+
+    private final int segmentCount;
+    private final long tableOffset;
+
+    //Окна по windowSize байт, отображаются при первом обращении
+    private final MappedByteBuffer[] windows;
+
+    //Номер сегмента -> обработчик; под монитором this
+    private final Map<Integer, Handler> handlers = new HashMap<>();
+
+    //Номер сегмента -> его объекты по номерам GraphCodec; под монитором
+    //this. Для ссылок EXTERNAL из других сегментов
+    private final Map<Integer, Object[]> objects = new HashMap<>();
+
+    private Snapshot(Cloner cloner, FileChannel channel) throws IOException {
+        this.cloner = cloner;
+        this.channel = channel;
+
+        size = channel.size();
+        windows = new MappedByteBuffer[(int)((size + windowSize - 1) / windowSize)];
+
+        ByteBuffer header = bytes(0, SnapshotWriter.headerSize);
+
+        if (size < SnapshotWriter.headerSize || header.getInt() != SnapshotWriter.magic) {
+            throw new IllegalArgumentException("Файл не является снимком Cloner");
+        }
+
+        segmentCount = header.getInt();
+        tableOffset = header.getLong();
+    }
+
+    static Snapshot open(Cloner cloner, Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+
+        try {
+            return new Snapshot(cloner, channel);
+        }
+        catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    //Корень снимка. Для интерфейса возвращается прокси, и корень
+    //читается при первом вызове; для класса корень читается сразу,
+    //а его поля-интерфейсы остаются ленивыми
+    public <T> T root(Class<T> type) {
+        if (type.isInterface()) {
+            return type.cast(proxy(0, type));
+        }
+
+        return type.cast(handler(0).target());
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private synchronized Handler handler(int segment) {
+        return handlers.computeIfAbsent(segment, Handler::new);
+    }
+
+    private synchronized Object proxy(int segment, Class<?> type) {
+        return handler(segment).proxyFor(type);
+    }
+
+    private Object materialize(int segment) {
+        try {
+            ByteBuffer in = segment(segment);
+            Segments segments = new Segments(segment);
+
+            byte kind = in.get();
+
+            if (kind == SnapshotWriter.REFERENCE) {
+                Object o = segments.resolve(in.getInt(), in.getInt());
+                segments.decoded(new Object[] { o });
+
+                return o;
+            }
+
+            if (kind == SnapshotWriter.WHOLE) {
+                return cloner.decodeSegment(in, null, segments);
+            }
+
+            byte[] name = new byte[in.getInt()];
+            in.get(name);
+
+            Class<?> c = GraphCodec.classForName(
+                new String(name, StandardCharsets.UTF_8),
+                cloner.decodeFilter
+            );
+
+            ClonePlan plan = ClonePlan.of(c);
+            ClonePlan.PlannedField[] objectFields = plan.objectFields();
+
+            Object o = cloner.instantiationStrategy.newInstance(c);
+
+            for (ClonePlan.PlannedField pf : plan.primitiveFields()) {
+                pf.readPrimitive(in, o);
+            }
+
+            int[] lazy = new int[objectFields.length];
+
+            for (int i = 0; i < objectFields.length; ++i) {
+                lazy[i] = in.get() == SnapshotWriter.LAZY ? in.getInt() : -1;
+            }
+
+            Object[] eager = (Object[])cloner.decodeSegment(in, o, segments);
+
+            for (int i = 0; i < objectFields.length; ++i) {
+                ClonePlan.PlannedField pf = objectFields[i];
+
+                pf.field.set(
+                    o,
+                    lazy[i] >= 0 ? proxy(lazy[i], pf.field.getType()) : eager[i]
+                );
+            }
+
+            return o;
+        }
+        catch (IllegalAccessException e) {
+            throw new IllegalStateException("Не удалось прочитать сегмент " + segment, e);
+        }
+        catch (IOException e) {
+            throw new IllegalStateException("Не удалось прочитать снимок", e);
+        }
+    }
+
+    //Объект id сегмента segment; сегмент читается, если еще не прочитан.
+    //Писатель ссылается только на более ранние сегменты, поэтому чтение
+    //не зацикливается
+    private Object resolve(int segment, int id) {
+        handler(segment).target();
+
+        Object[] table;
+
+        synchronized (this) {
+            table = objects.get(segment);
+        }
+
+        if (table == null || id < 0 || id >= table.length) {
+            throw new IllegalArgumentException(
+                "Поврежденный снимок: нет объекта " + id + " в сегменте " + segment
+            );
+        }
+
+        return table[id];
+    }
+
+    private ByteBuffer segment(int segment) throws IOException {
+        if (segment < 0 || segment >= segmentCount) {
+            throw new IllegalArgumentException("Поврежденный снимок: нет сегмента " + segment);
+        }
+
+        long start = offset(segment);
+        long end = segment + 1 < segmentCount ? offset(segment + 1) : tableOffset;
+
+        return bytes(start, end - start);
+    }
+
+    private long offset(int segment) throws IOException {
+        return bytes(tableOffset + segment * 8L, 8).getLong();
+    }
+
+    //Байты [start, start + length) одним буфером. Данные на границе
+    //окон отображаются отдельно
+    private ByteBuffer bytes(long start, long length) throws IOException {
+        if (start < 0 || length < 0 || start + length > size) {
+            throw new IllegalArgumentException("Поврежденный снимок: выход за конец файла");
+        }
+
+        int index = (int)(start / windowSize);
+        long windowStart = index * windowSize;
+
+        if (start + length > windowStart + windowSize) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+        }
+
+        return window(index).slice((int)(start - windowStart), (int)length);
+    }
+
+    private synchronized MappedByteBuffer window(int index) throws IOException {
+        MappedByteBuffer window = windows[index];
+
+        if (window == null) {
+            long start = index * windowSize;
+
+            window = channel.map(
+                FileChannel.MapMode.READ_ONLY,
+                start,
+                Math.min(windowSize, size - start)
+            );
+
+            windows[index] = window;
+        }
+
+        return window;
+    }
+
+    private final class Segments implements GraphCodec.Segments {
+        private final int segment;
+
+        Segments(int segment) {
+            this.segment = segment;
+        }
+
+        @Override
+        public long find(Object o) {
+            throw new AssertionError("Этого никогда не должно было произойти. Время отладки!");
+        }
+
+        @Override
+        public void defined(Object o, int id) {
+            throw new AssertionError("Этого никогда не должно было произойти. Время отладки!");
+        }
+
+        @Override
+        public Object resolve(int segment, int id) {
+            if (segment >= this.segment) {
+                throw new IllegalArgumentException(
+                    "Поврежденный снимок: ссылка из сегмента " + this.segment + " на " + segment
+                );
+            }
+
+            return Snapshot.this.resolve(segment, id);
+        }
+
+        @Override
+        public void decoded(Object[] table) {
+            synchronized (Snapshot.this) {
+                objects.put(segment, table);
+            }
+        }
+    }
+
+    private final class Handler extends LazyProxy {
+        private final int segment;
+
+        Handler(int segment) {
+            this.segment = segment;
+        }
+
+        @Override
+        Object materialize() {
+            return Snapshot.this.materialize(segment);
+        }
+    }
+}
@@ -0,0 +1,300 @@
+package deepclone;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+//Запись снимка для Snapshot. Граф делится на сегменты по той же
+//границе, что и у Cloner.lazyClone: объект в поле, объявленном
+//интерфейсом, пишется отдельным сегментом, а в поле остается его
+//номер. Остальные ссылки объекта пишутся одним графом GraphCodec,
+//как их копирует LazyClones.
+//
+//У объектов одна нумерация на весь снимок: объект, уже записанный
+//в другой сегмент, пишется ссылкой EXTERNAL (сегмент и номер в нем),
+//поэтому общие и обратные ссылки между сегментами сохраняются.
+//Сегменты пишутся по порядку, и ссылки EXTERNAL ведут только в уже
+//записанные, так что чтение сегмента не зависит от более поздних.
+//Если объект сегмента раньше встретился в графе другого сегмента,
+//он остается там, а сегмент ссылается на него
+//
+//Файл:
+//  заголовок: magic, число сегментов, смещение таблицы
+//  сегменты подряд
+//  таблица: смещение каждого сегмента
+//
+//Сегмент:
+//  WHOLE граф                      - коллекции, массивы и т.п. целиком
+//  SHELL класс примитивы метки граф - объект по полям; метка ссылочного
+//                                    поля - EAGER или LAZY номер сегмента,
+//                                    граф - Object[] значений EAGER-полей,
+//                                    сам объект в нем - номер 0
+//  REFERENCE сегмент номер         - объект, записанный в другой сегмент
+//
+//Данные пишутся через канал последовательно, а отображается файл
+//только при чтении: отображенный файл нельзя обрезать, а на некоторых
+//ОС и удалить
+final class SnapshotWriter implements GraphCodec.Segments {
+    static final int magic = 0x44435332;
+    static final int headerSize = 16;
+
+    static final byte WHOLE = 0;
+    static final byte SHELL = 1;
+    static final byte REFERENCE = 2;
+
+    static final byte EAGER = 0;
+    static final byte LAZY = 1;
+
+    private static final int bufferSize = 1 << 20;
+
+    private final Cloner cloner;
+    private final FileChannel channel;
+
+    private ByteBuffer buffer = ByteBuffer.allocateDirect(bufferSize);
+    private long bufferStart = headerSize;
+
+    private final List<Object> segments = new ArrayList<>();
+    private final Map<Object, Integer> segmentIds = new IdentityHashMap<>();
+    private long[] offsets = new long[16];
+
+    //Объект -> номер в снимке. Номера объектов сегмента начинаются
+    //с bases[сегмент] и идут по порядку, но не подряд: значения,
+    //которые GraphCodec пишет в каждом сегменте заново, номера
+    //в снимке не получают
+    private final IdentityIndex ids = new IdentityIndex(16);
+    private int[] bases = new int[16];
+    private int lastId = -1;
+    private int segment;
+
+    private SnapshotWriter(Cloner cloner, FileChannel channel) {
+        this.cloner = cloner;
+        this.channel = channel;
+    }
+
+    static void write(Cloner cloner, Object root, Path file)
+        throws IOException, IllegalAccessException
+    {
+        try (FileChannel channel = FileChannel.open(
+            file,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.WRITE
+        )) {
+            new SnapshotWriter(cloner, channel).write(root);
+        }
+    }
+
+    private void write(Object root) throws IOException, IllegalAccessException {
+        segmentIdOf(root);
+
+        for (segment = 0; segment < segments.size(); ++segment) {
+            if (segment == offsets.length) {
+                offsets = Arrays.copyOf(offsets, offsets.length * 2);
+                bases = Arrays.copyOf(bases, bases.length * 2);
+            }
+
+            offsets[segment] = position();
+            bases[segment] = lastId + 1;
+
+            writeSegment(segments.get(segment));
+        }
+
+        long tableOffset = position();
+
+        for (int id = 0; id < segments.size(); ++id) {
+            ensure(8);
+            buffer.putLong(offsets[id]);
+        }
+
+        flush();
+
+        ByteBuffer header = ByteBuffer.allocate(headerSize);
+        header.putInt(magic);
+        header.putInt(segments.size());
+        header.putLong(tableOffset);
+
+        writeFully(header.flip(), 0);
+        channel.force(false);
+    }
+
+    @Override
+    public long find(Object o) {
+        int id = ids.get(o);
+
+        if (id == IdentityIndex.absent) {
+            return -1;
+        }
+
+        int owner = ownerOf(id);
+        return (long)owner << 32 | (id - bases[owner]);
+    }
+
+    @Override
+    public void defined(Object o, int id) {
+        lastId = bases[segment] + id;
+        ids.put(o, lastId);
+    }
+
+    @Override
+    public Object resolve(int segment, int id) {
+        throw new AssertionError("Этого никогда не должно было произойти. Время отладки!");
+    }
+
+    @Override
+    public void decoded(Object[] objects) {
+        throw new AssertionError("Этого никогда не должно было произойти. Время отладки!");
+    }
+
+    //Последний из записанных сегментов, номера которого начинаются
+    //не позже id. У сегмента без объектов начало совпадает со следующим
+    private int ownerOf(int id) {
+        int low = 0;
+        int high = segment;
+
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+
+            if (bases[middle] <= id) {
+                low = middle;
+            }
+            else {
+                high = middle - 1;
+            }
+        }
+
+        return low;
+    }
+
+    private int segmentIdOf(Object o) {
+        Integer id = segmentIds.get(o);
+
+        if (id == null) {
+            id = segments.size();
+            segments.add(o);
+            segmentIds.put(o, id);
+        }
+
+        return id;
+    }
+
+    private void writeSegment(Object o) throws IOException, IllegalAccessException {
+        long external = o != null ? find(o) : -1;
+
+        if (external >= 0) {
+            ensure(9);
+            buffer.put(REFERENCE);
+            buffer.putInt((int)(external >>> 32));
+            buffer.putInt((int)external);
+
+            return;
+        }
+
+        //Как в LazyClones.copy
+        if (o == null || cloner.copierOf(o.getClass()) != Copiers.OBJECT) {
+            ensure(1);
+            buffer.put(WHOLE);
+            writeGraph(o, null);
+
+            return;
+        }
+
+        Class<?> c = o.getClass();
+        ClonePlan plan = ClonePlan.of(c);
+        ClonePlan.PlannedField[] primitives = plan.primitiveFields();
+        ClonePlan.PlannedField[] objectFields = plan.objectFields();
+
+        byte[] name = c.getName().getBytes(StandardCharsets.UTF_8);
+
+        ensure(1 + 4 + name.length + primitives.length * 8L + objectFields.length * 5L);
+
+        buffer.put(SHELL);
+        buffer.putInt(name.length);
+        buffer.put(name);
+
+        for (ClonePlan.PlannedField pf : primitives) {
+            pf.writePrimitive(o, buffer);
+        }
+
+        Object[] eager = new Object[objectFields.length];
+
+        for (int i = 0; i < objectFields.length; ++i) {
+            ClonePlan.PlannedField pf = objectFields[i];
+            Object value = pf.field.get(o);
+
+            if (value != null && isLazy(value, pf.field.getType())) {
+                buffer.put(LAZY);
+                buffer.putInt(segmentIdOf(value));
+            }
+            else {
+                buffer.put(EAGER);
+                eager[i] = value;
+            }
+        }
+
+        writeGraph(eager, o);
+    }
+
+    //Объект, который уже записан внутри другого сегмента, переносится
+    //ссылкой на него, а не новым сегментом, - как в LazyClones.isLazy
+    private boolean isLazy(Object value, Class<?> declaredType) {
+        return LazyClones.canBeLazy(value, declaredType) &&
+            (segmentIds.containsKey(value) || ids.get(value) == IdentityIndex.absent);
+    }
+
+    //GraphCodec пишет прямо в буфер; если места не хватило, он вернет
+    //буфер больше, и дальше запись идет в него
+    private void writeGraph(Object graph, Object shell) throws IllegalAccessException {
+        buffer = cloner.encodeSegment(graph, buffer, shell, this);
+    }
+
+    private long position() {
+        return bufferStart + buffer.position();
+    }
+
+    private void ensure(long bytes) throws IOException {
+        if (buffer.remaining() >= bytes) {
+            return;
+        }
+
+        flush();
+
+        if (buffer.remaining() < bytes) {
+            if (bytes > Integer.MAX_VALUE - 8) {
+                throw new IllegalArgumentException("Сегмент снимка больше 2 ГБ");
+            }
+
+            buffer = ByteBuffer.allocateDirect((int)Math.max(bufferSize, bytes));
+        }
+    }
+
+    //После большого графа буфер снова становится обычного размера
+    private void flush() throws IOException {
+        buffer.flip();
+
+        int written = buffer.remaining();
+        writeFully(buffer, bufferStart);
+
+        bufferStart += written;
+
+        if (buffer.capacity() > bufferSize) {
+            buffer = ByteBuffer.allocateDirect(bufferSize);
+        }
+        else {
+            buffer.clear();
+        }
+    }
+
+    private void writeFully(ByteBuffer data, long position) throws IOException {
+        while (data.hasRemaining()) {
+            position += channel.write(data, position);
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package deepclone;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+//Положение в графе относительно CloneSpec: глубина и место в дереве
+//путей. Для каждого класса узел один раз строит урезанный план:
+//какие поля клонировать и с каким дочерним узлом, а какие переносить
+//по ссылке. Узлы и планы кешируются в спецификации.
+//
+//Узел один на каждую тройку (глубина, узел путей, включен), а не на
+//каждое место в графе: иначе с maxDepth узлы множились бы на каждом
+//поле каждого уровня и жили бы в спецификации вечно. Так их число
+//не больше (maxDepth + 1) * 2 * число узлов путей
+final class SpecNode {
+    private static final int untracked = -1;
+
+    //Ссылка выходит за пределы спецификации
+    private static final SpecNode PRUNED = new SpecNode(null, null, untracked, null, false);
+
+    private final CloneSpec spec;
+    private final ConcurrentHashMap<Position, SpecNode> nodes;
+    private final int depth;
+
+    //null - ниже всех путей спецификации, все включено
+    private final CloneSpec.PathNode path;
+    private final boolean included;
+
+    private final ConcurrentHashMap<String, SpecNode> fieldChildren = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Class<?>, Plan> plans = new ConcurrentHashMap<>();
+    private volatile SpecNode elementChild;
+
+    private SpecNode(
+        CloneSpec spec,
+        ConcurrentHashMap<Position, SpecNode> nodes,
+        int depth,
+        CloneSpec.PathNode path,
+        boolean included
+    ) {
+        this.spec = spec;
+        this.nodes = nodes;
+        this.depth = depth;
+        this.path = path;
+        this.included = included;
+    }
+
+    static SpecNode root(CloneSpec spec) {
+        return new SpecNode(spec, new ConcurrentHashMap<>(), untracked, null, true).nodeAt(
+            spec.maxDepth < 0 ? untracked : 0,
+            spec.paths,
+            !spec.includeMode
+        );
+    }
+
+    //Сколько узлов создано в спецификации
+    int nodeCount() {
+        return nodes.size();
+    }
+
+    //null - переносить по ссылке
+    SpecNode elementChild() {
+        SpecNode child = elementChild;
+
+        if (child == null) {
+            child = childAt(path, included);
+            elementChild = child;
+        }
+
+        return child == PRUNED ? null : child;
+    }
+
+    Plan planFor(Class<?> c) {
+        return plans.computeIfAbsent(c, this::buildPlan);
+    }
+
+    private SpecNode fieldChild(String name) {
+        SpecNode child = fieldChildren.computeIfAbsent(name, this::computeFieldChild);
+        return child == PRUNED ? null : child;
+    }
+
+    private SpecNode computeFieldChild(String name) {
+        if (path == null) {
+            return childAt(null, true);
+        }
+
+        CloneSpec.PathNode next = path.children.get(name);
+
+        if (next != null && next.excluded) {
+            return PRUNED;
+        }
+
+        if (included) {
+            return childAt(next, true);
+        }
+
+        //Вне include-путей клонируются только их префиксы
+        if (next == null) {
+            return PRUNED;
+        }
+
+        return childAt(next, next.includeEnd);
+    }
+
+    private SpecNode childAt(CloneSpec.PathNode childPath, boolean childIncluded) {
+        if (depth == untracked) {
+            return nodeAt(untracked, childPath, childIncluded);
+        }
+
+        if (depth + 1 > spec.maxDepth) {
+            return PRUNED;
+        }
+
+        return nodeAt(depth + 1, childPath, childIncluded);
+    }
+
+    private SpecNode nodeAt(int nodeDepth, CloneSpec.PathNode nodePath, boolean nodeIncluded) {
+        return nodes.computeIfAbsent(
+            new Position(nodeDepth, nodePath, nodeIncluded),
+            p -> new SpecNode(spec, nodes, p.depth, p.path, p.included)
+        );
+    }
+
+    private Plan buildPlan(Class<?> c) {
+        ClonePlan plan = ClonePlan.of(c);
+        ClonePlan.PlannedField[] objectFields = plan.objectFields();
+        SpecNode[] children = new SpecNode[objectFields.length];
+
+        for (int i = 0; i < objectFields.length; ++i) {
+            ClonePlan.PlannedField pf = objectFields[i];
+
+            if (pf.field.isAnnotationPresent(Shallow.class) ||
+                spec.shallowFields.contains(pf.field))
+            {
+                continue;
+            }
+
+            children[i] = fieldChild(pf.field.getName());
+        }
+
+        return new Plan(plan, objectFields, children);
+    }
+
+    private static final class Position {
+        final int depth;
+        final CloneSpec.PathNode path;
+        final boolean included;
+
+        Position(int depth, CloneSpec.PathNode path, boolean included) {
+            this.depth = depth;
+            this.path = path;
+            this.included = included;
+        }
+
+        //Узлы путей сравниваются по ссылке
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Position)) {
+                return false;
+            }
+
+            Position p = (Position)obj;
+            return depth == p.depth && path == p.path && included == p.included;
+        }
+
+        @Override
+        public int hashCode() {
+            return (depth * 31 + System.identityHashCode(path)) * 31 + Boolean.hashCode(included);
+        }
+    }
+
+    static final class Plan {
+        private final ClonePlan plan;
+        private final ClonePlan.PlannedField[] objectFields;
+
+        //null - поле переносится по ссылке
+        private final SpecNode[] children;
+
+        private Plan(
+            ClonePlan plan,
+            ClonePlan.PlannedField[] objectFields,
+            SpecNode[] children
+        ) {
+            this.plan = plan;
+            this.objectFields = objectFields;
+            this.children = children;
+        }
+
+        //План общий для всех Cloner спецификации, поэтому поля
+        //неизменяемого типа переносятся по ссылке, только если у этого
+        //Cloner нет для него стратегии, - как в Copiers.OBJECT
+        void copy(Object original, Object clone, SpecScope scope)
+            throws IllegalAccessException
+        {
+            boolean overrides = scope.cloner().overridesImmutableFields(original.getClass());
+
+            plan.copyPrimitives(original, clone);
+
+            for (int i = 0; i < objectFields.length; ++i) {
+                ClonePlan.PlannedField pf = objectFields[i];
+                Object value = pf.field.get(original);
+                SpecNode child = children[i];
+
+                if (pf.kind == ClonePlan.Kind.IMMUTABLE && !overrides) {
+                    child = null;
+                }
+
+                pf.field.set(clone, child == null ? value : scope.cloneAt(value, child));
+            }
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package deepclone;
+
+//Клонирование по CloneSpec. Поля обычных объектов заполняются
+//урезанным планом узла, а коллекции и массивы - своими Copier:
+//их элементы получают дочерний узел через cloneReference.
+//
+//Объект клонируется один раз, и глубину его подграфа определяет
+//путь, по которому он был встречен первым
+final class SpecScope extends CloneScope {
+    private final IdentityTable clones;
+    private SpecNode current;
+
+    SpecScope(Cloner cloner) {
+        super(cloner, null);
+        clones = new IdentityTable(cloner.expectedGraphSize);
+    }
+
+    Object deepClone(Object original, CloneSpec spec) throws IllegalAccessException {
+        Object clone = cloneAt(original, spec.root);
+
+        drainPending();
+        completeDeferred();
+
+        return clone;
+    }
+
+    @Override
+    public Object cloneReference(Object original) {
+        return cloneAt(original, current.elementChild());
+    }
+
+    Object cloneAt(Object original, SpecNode node) {
+        if (original == null || node == null) {
+            return original;
+        }
+
+        Copier copier = cloner().copierOf(original.getClass());
+
+        if (copier == Copiers.SHARE) {
+            return original;
+        }
+
+        if (copier == Copiers.NULL_OUT) {
+            return null;
+        }
+
+        Object clone = clones.get(original);
+
+        if (clone == null) {
+            SpecNode outer = current;
+            current = node;
+
+            clone = copier.create(original, this);
+            clones.put(original, clone);
+
+            current = outer;
+        }
+
+        return clone;
+    }
+
+    @Override
+    void scheduleFill(Copier copier, Object original, Object clone) {
+        pending.push(current);
+        super.scheduleFill(copier, original, clone);
+    }
+
+    @Override
+    void drainPending() throws IllegalAccessException {
+        while (!pending.isEmpty()) {
+            Object original = pending.pop();
+            Object clone = pending.pop();
+            Copier copier = (Copier)pending.pop();
+
+            current = (SpecNode)pending.pop();
+
+            if (copier == Copiers.OBJECT) {
+                current.planFor(original.getClass()).copy(original, clone, this);
+            }
+            else {
+                copier.fill(original, clone, this);
+            }
+        }
+    }
+}